@@ -0,0 +1,176 @@
+package com.example.infrastructure_service.agent;
+
+import com.example.infrastructure_service.ssh.SshChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One command running through the agent. Output frames are queued by the connection's
+ * reader thread and consumed through ordinary input streams, so the same
+ * {@code RemoteCommandExecutor} code reads agent and SSH commands.
+ */
+class AgentChannel implements SshChannel {
+
+    // số frame tối đa chờ mỗi stream; reader của connection sẽ chờ nếu consumer quá chậm
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final AgentConnection connection;
+    private final int streamId;
+    private final FrameInputStream stdout = new FrameInputStream();
+    private final FrameInputStream stderr = new FrameInputStream();
+    private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+    private volatile boolean closed;
+
+    AgentChannel(AgentConnection connection, int streamId) {
+        this.connection = connection;
+        this.streamId = streamId;
+    }
+
+    int getStreamId() {
+        return streamId;
+    }
+
+    void onStdout(byte[] data) throws InterruptedException {
+        stdout.push(data);
+    }
+
+    void onStderr(byte[] data) throws InterruptedException {
+        stderr.push(data);
+    }
+
+    void onExit(int exitCode) throws InterruptedException {
+        stdout.finish();
+        stderr.finish();
+        exit.complete(exitCode);
+    }
+
+    void onError(String message) throws InterruptedException {
+        stderr.push(("agent: " + message + "\n").getBytes(StandardCharsets.UTF_8));
+        onExit(-1);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return stdout;
+    }
+
+    @Override
+    public InputStream getErrStream() {
+        return stderr;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        // agent không hỗ trợ stdin cho lệnh
+        return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || exit.isDone();
+    }
+
+    @Override
+    public int getExitStatus() {
+        return exit.getNow(-1);
+    }
+
+    @Override
+    public int waitForExitStatus(long timeoutMs) throws InterruptedException {
+        try {
+            return exit.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        stdout.discard();
+        stderr.discard();
+        connection.release(this, !exit.isDone());
+    }
+
+    /**
+     * Blocking stream over queued payloads; an empty array marks end of stream.
+     */
+    private static class FrameInputStream extends InputStream {
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private byte[] current;
+        private int position;
+        private volatile boolean discarded;
+        private boolean ended;
+
+        void push(byte[] data) throws InterruptedException {
+            if (!discarded && data.length > 0) {
+                chunks.put(data);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            chunks.put(END);
+        }
+
+        void discard() {
+            discarded = true;
+            chunks.clear();
+            chunks.offer(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (current == null || position == current.length) {
+                if (ended) {
+                    return -1;
+                }
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading agent output");
+                }
+                position = 0;
+                if (current == END) {
+                    ended = true;
+                    current = null;
+                    return -1;
+                }
+            }
+            int n = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current != null ? current.length - position : 0;
+        }
+    }
+}
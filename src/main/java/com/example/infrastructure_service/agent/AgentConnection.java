@@ -0,0 +1,209 @@
+package com.example.infrastructure_service.agent;
+
+import com.example.infrastructure_service.ssh.CommandConnection;
+import com.example.infrastructure_service.ssh.SshChannel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A single tunnel to the in-guest agent carrying any number of concurrent commands.
+ *
+ * {@link #openExec} only writes an EXEC frame and returns, there is no per-command
+ * round trip, so callers can pipeline several commands back to back. One reader thread
+ * demultiplexes the output frames to their channels.
+ */
+@Slf4j
+public class AgentConnection implements CommandConnection {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final Socket socket;
+    private final String label;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // một frame ghi trọn vẹn trước khi frame khác bắt đầu
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<Integer, AgentChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStreamId = new AtomicInteger(1);
+    private final CompletableFuture<Integer> hello = new CompletableFuture<>();
+    private volatile boolean closed;
+
+    private AgentConnection(Socket socket, String label) throws IOException {
+        this.socket = socket;
+        this.label = label;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+    }
+
+    /**
+     * Authenticate with {@code token} on an already opened socket. The socket is closed if
+     * the agent does not answer within {@code timeoutMs}.
+     */
+    public static AgentConnection open(Socket socket, String token, String label, long timeoutMs) throws IOException {
+        AgentConnection connection = new AgentConnection(socket, label);
+        Thread.ofVirtual().name("agent-reader-" + label).start(connection::readLoop);
+        try {
+            connection.send(AgentProtocol.HELLO, AgentProtocol.CONTROL_STREAM, token.getBytes(StandardCharsets.UTF_8));
+            int version = connection.hello.get(timeoutMs, TimeUnit.MILLISECONDS);
+            log.debug("Agent on {} ready (protocol v{})", label, version);
+            return connection;
+        } catch (TimeoutException e) {
+            connection.close();
+            throw new IOException("Agent on " + label + " did not answer within " + timeoutMs + " ms");
+        } catch (ExecutionException e) {
+            connection.close();
+            throw new IOException("Agent handshake with " + label + " failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connection.close();
+            throw new IOException("Interrupted during agent handshake with " + label, e);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && hello.isDone() && !hello.isCompletedExceptionally();
+    }
+
+    @Override
+    public SshChannel openExec(String command) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("Agent connection to " + label + " is closed");
+        }
+        int streamId = nextStreamId.getAndIncrement();
+        AgentChannel channel = new AgentChannel(this, streamId);
+        channels.put(streamId, channel);
+        try {
+            send(AgentProtocol.EXEC, streamId, command.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            channels.remove(streamId);
+            throw e;
+        }
+        return channel;
+    }
+
+    public void sendPing() throws IOException {
+        send(AgentProtocol.PING, AgentProtocol.CONTROL_STREAM, null);
+    }
+
+    public int getActiveChannelCount() {
+        return channels.size();
+    }
+
+    void release(AgentChannel channel, boolean cancel) {
+        channels.remove(channel.getStreamId());
+        if (cancel && !closed) {
+            try {
+                send(AgentProtocol.CANCEL, channel.getStreamId(), null);
+            } catch (IOException e) {
+                log.debug("Failed to cancel agent stream {} on {}: {}", channel.getStreamId(), label, e.getMessage());
+            }
+        }
+    }
+
+    private void send(byte type, int streamId, byte[] payload) throws IOException {
+        // ghi socket có thể chờ: ReentrantLock để không giữ chặt carrier của virtual thread
+        writeLock.lock();
+        try {
+            AgentProtocol.writeFrame(out, type, streamId, payload);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void readLoop() {
+        try {
+            AgentProtocol.Frame frame;
+            while ((frame = AgentProtocol.readFrame(in)) != null) {
+                dispatch(frame);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("Agent connection to {} ended: {}", label, e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            hello.completeExceptionally(new IOException("Agent connection closed"));
+            close();
+            failOpenChannels();
+        }
+    }
+
+    private void dispatch(AgentProtocol.Frame frame) throws InterruptedException {
+        if (frame.streamId() == AgentProtocol.CONTROL_STREAM) {
+            switch (frame.type()) {
+                case AgentProtocol.HELLO -> hello.complete(AgentProtocol.readIntPayload(frame.payload()));
+                case AgentProtocol.ERROR -> hello.completeExceptionally(
+                    new IOException(new String(frame.payload(), StandardCharsets.UTF_8)));
+                case AgentProtocol.PONG -> log.trace("Agent pong from {}", label);
+                default -> log.debug("Unexpected agent control frame {} from {}", frame.type(), label);
+            }
+            return;
+        }
+
+        AgentChannel channel = channels.get(frame.streamId());
+        if (channel == null) {
+            // output của lệnh đã bị huỷ hoặc đã đóng, bỏ qua
+            return;
+        }
+        switch (frame.type()) {
+            case AgentProtocol.STDOUT -> channel.onStdout(frame.payload());
+            case AgentProtocol.STDERR -> channel.onStderr(frame.payload());
+            case AgentProtocol.EXIT -> {
+                channels.remove(frame.streamId());
+                channel.onExit(AgentProtocol.readIntPayload(frame.payload()));
+            }
+            case AgentProtocol.ERROR -> {
+                channels.remove(frame.streamId());
+                channel.onError(new String(frame.payload(), StandardCharsets.UTF_8));
+            }
+            default -> log.debug("Unexpected agent frame {} on stream {} from {}", frame.type(), frame.streamId(), label);
+        }
+    }
+
+    private void failOpenChannels() {
+        for (AgentChannel channel : new ArrayList<>(channels.values())) {
+            try {
+                channel.onError("connection to agent lost");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        channels.clear();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.trace("Error closing agent socket for {}: {}", label, e.getMessage());
+        }
+    }
+}
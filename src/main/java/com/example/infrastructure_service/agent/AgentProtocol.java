@@ -0,0 +1,91 @@
+package com.example.infrastructure_service.agent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Wire format spoken with the in-guest agent ({@code lab-agent} in vm-template.yaml).
+ *
+ * Every frame is {@code [type:1][streamId:4][length:4][payload]}, big endian. Stream 0 is the
+ * connection itself (HELLO, PING), every other stream id is one command, so many commands can
+ * be in flight on a single tunnel and their output interleaves freely.
+ *
+ * <pre>
+ * client -> agent   HELLO(0, token)  EXEC(id, command)  CANCEL(id)  PING(0)
+ * agent  -> client  HELLO(0, version) STDOUT(id, bytes) STDERR(id, bytes) EXIT(id, int32)
+ *                   ERROR(id, message) PONG(0)
+ * </pre>
+ *
+ * The agent sends EXIT only after all STDOUT/STDERR of that stream, so EXIT also marks end of output.
+ */
+public final class AgentProtocol {
+
+    public static final int VERSION = 1;
+
+    public static final byte HELLO = 1;
+    public static final byte EXEC = 2;
+    public static final byte STDOUT = 3;
+    public static final byte STDERR = 4;
+    public static final byte EXIT = 5;
+    public static final byte CANCEL = 6;
+    public static final byte ERROR = 7;
+    public static final byte PING = 8;
+    public static final byte PONG = 9;
+
+    public static final int CONTROL_STREAM = 0;
+    public static final int MAX_PAYLOAD = 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private AgentProtocol() {
+    }
+
+    public record Frame(byte type, int streamId, byte[] payload) {
+    }
+
+    public static void writeFrame(DataOutputStream out, byte type, int streamId, byte[] payload) throws IOException {
+        byte[] body = payload != null ? payload : EMPTY;
+        out.writeByte(type);
+        out.writeInt(streamId);
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    /**
+     * Read the next frame, or {@code null} if the peer closed the connection between frames.
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        int streamId = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Invalid agent frame length: " + length);
+        }
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            throw new IOException("Agent connection closed mid-frame", e);
+        }
+        return new Frame((byte) type, streamId, payload);
+    }
+
+    public static byte[] intPayload(int value) {
+        return new byte[] {
+            (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+        };
+    }
+
+    public static int readIntPayload(byte[] payload) {
+        if (payload.length < 4) {
+            return -1;
+        }
+        return ((payload[0] & 0xFF) << 24) | ((payload[1] & 0xFF) << 16)
+            | ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+    }
+}
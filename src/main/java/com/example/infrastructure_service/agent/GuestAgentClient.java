@@ -0,0 +1,175 @@
+package com.example.infrastructure_service.agent;
+
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Opens {@link AgentConnection}s to the agent installed by cloud-init, over a port-forward
+ * to the VM's launcher pod. Used when {@code command.backend=agent}.
+ *
+ * Each VM gets its own token, an HMAC of its namespace and name under {@code agent.token-secret},
+ * so the token a student can read inside one VM opens no other VM's agent. Validations share one
+ * connection per lab session ({@link #sessionConnection}) until {@link #closeSession} on lab cleanup.
+ */
+@Component
+@Slf4j
+public class GuestAgentClient {
+
+    public static final String BACKEND = "agent";
+
+    private final PortForwardTunnelManager tunnelManager;
+
+    /** Per lab session: the connection, or the attempt in flight or that failed recently. */
+    private final Map<Integer, Slot> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong sessionConnects = new AtomicLong();
+    private final AtomicLong sessionReuses = new AtomicLong();
+    private final AtomicLong sessionFailures = new AtomicLong();
+
+    @Value("${agent.port:7070}")
+    private int agentPort;
+
+    @Value("${agent.token-secret}")
+    private String tokenSecret;
+
+    @Value("${agent.handshake-timeout-ms:5000}")
+    private long handshakeTimeoutMs;
+
+    @Value("${agent.unavailable-retry-ms:60000}")
+    private long unavailableRetryMs;
+
+    private record Slot(CompletableFuture<AgentConnection> connection, long createdAt) {}
+
+    public GuestAgentClient(PortForwardTunnelManager tunnelManager) {
+        this.tunnelManager = tunnelManager;
+    }
+
+    /** Token written into the VM's cloud-init and presented in HELLO. */
+    public String tokenFor(String namespace, String vmName) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(tokenSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal((namespace + "/" + vmName).getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    public AgentConnection connect(String namespace, String vmName, String podName) throws IOException {
+        Socket socket = openSocket(namespace, podName);
+        return AgentConnection.open(socket, tokenFor(namespace, vmName), namespace + "/" + podName, handshakeTimeoutMs);
+    }
+
+    Socket openSocket(String namespace, String podName) throws IOException {
+        return tunnelManager.openSocket(namespace, podName, agentPort);
+    }
+
+    /**
+     * Connect while the agent comes up, waiting 500 ms, 1 s, 2 s ... between attempts, and give up
+     * after {@code budgetMs}: a VM built from a template without the agent falls back to SSH quickly.
+     */
+    public AgentConnection probe(String namespace, String vmName, String podName, long budgetMs)
+            throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + budgetMs;
+        long delayMs = 500;
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            try {
+                AgentConnection connection = connect(namespace, vmName, podName);
+                log.info("🤖 Agent connected to pod {} (attempt {})", podName, attempt);
+                return connection;
+            } catch (IOException e) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Agent not reachable on " + podName + " after " + attempt + " attempts", e);
+                }
+                log.debug("Agent connection attempt {} to {} failed: {}", attempt, podName, e.getMessage());
+                Thread.sleep(Math.min(delayMs, remaining));
+                delayMs = Math.min(delayMs * 2, 4000);
+            }
+        }
+    }
+
+    /**
+     * The lab session's shared connection, opened on first use. Concurrent callers wait for the
+     * same attempt; after a failure the agent is not tried again for {@code agent.unavailable-retry-ms},
+     * so a VM without an agent costs one attempt, not one per validation.
+     */
+    public AgentConnection sessionConnection(int labSessionId, String namespace, String vmName,
+                                             Supplier<String> podName) throws IOException {
+        while (true) {
+            Slot created = new Slot(new CompletableFuture<>(), System.currentTimeMillis());
+            Slot existing = sessions.putIfAbsent(labSessionId, created);
+            if (existing == null) {
+                try {
+                    AgentConnection connection = connect(namespace, vmName, podName.get());
+                    created.connection().complete(connection);
+                    sessionConnects.incrementAndGet();
+                    log.info("🤖 Agent connection opened for labSessionId={}", labSessionId);
+                    return connection;
+                } catch (IOException | RuntimeException e) {
+                    sessionFailures.incrementAndGet();
+                    created.connection().completeExceptionally(e);
+                    throw e;
+                }
+            }
+            AgentConnection connection;
+            try {
+                connection = existing.connection().join();
+            } catch (CompletionException e) {
+                if (System.currentTimeMillis() - existing.createdAt() < unavailableRetryMs) {
+                    throw new IOException("Agent unavailable for labSessionId=" + labSessionId, e.getCause());
+                }
+                sessions.remove(labSessionId, existing);
+                continue;
+            }
+            if (connection.isConnected()) {
+                sessionReuses.incrementAndGet();
+                return connection;
+            }
+            // kết nối đã chết: bỏ và mở lại
+            sessions.remove(labSessionId, existing);
+        }
+    }
+
+    /** Close the lab session's shared connection, if any. */
+    public void closeSession(int labSessionId) {
+        Slot slot = sessions.remove(labSessionId);
+        if (slot != null) {
+            slot.connection().thenAccept(AgentConnection::close);
+            log.info("🤖 Agent connection closed for labSessionId={}", labSessionId);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("connects", sessionConnects.get());
+        stats.put("reuses", sessionReuses.get());
+        stats.put("failures", sessionFailures.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        sessions.keySet().forEach(this::closeSession);
+    }
+}
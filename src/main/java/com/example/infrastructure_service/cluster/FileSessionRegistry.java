@@ -0,0 +1,143 @@
+package com.example.infrastructure_service.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Registry kept as one JSON file per replica and per session under {@code cluster.registry.file.dir}.
+ * Replicas sharing the directory (same host, or a shared volume) see each other; meant for local
+ * multi-replica runs and tests rather than production scale. Files are replaced atomically, so a
+ * reader never sees half a record.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "cluster.registry", havingValue = FileSessionRegistry.TYPE)
+public class FileSessionRegistry implements SessionRegistry {
+
+    public static final String TYPE = "file";
+
+    private final Path replicasDir;
+    private final Path sessionsDir;
+    private final ObjectMapper objectMapper;
+
+    public FileSessionRegistry(
+            @Value("${cluster.registry.file.dir:${java.io.tmpdir}/infrastructure-service-registry}") String dir,
+            ObjectMapper objectMapper) {
+        this.replicasDir = Path.of(dir, "replicas");
+        this.sessionsDir = Path.of(dir, "sessions");
+        this.objectMapper = objectMapper;
+        try {
+            Files.createDirectories(replicasDir);
+            Files.createDirectories(sessionsDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create session registry dir " + dir, e);
+        }
+        log.info("📁 File session registry at {}", dir);
+    }
+
+    @Override
+    public void heartbeat(ReplicaInfo replica) {
+        write(replicasDir.resolve(fileName(replica.id())), replica);
+    }
+
+    @Override
+    public void removeReplica(String replicaId) {
+        delete(replicasDir.resolve(fileName(replicaId)));
+    }
+
+    @Override
+    public List<ReplicaInfo> replicas() {
+        return readAll(replicasDir, ReplicaInfo.class);
+    }
+
+    @Override
+    public void putSession(SessionOwner owner) {
+        write(sessionsDir.resolve(fileName(String.valueOf(owner.labSessionId()))), owner);
+    }
+
+    @Override
+    public Optional<SessionOwner> findSession(Integer labSessionId) {
+        return Optional.ofNullable(read(sessionsDir.resolve(fileName(String.valueOf(labSessionId))), SessionOwner.class));
+    }
+
+    @Override
+    public Optional<SessionOwner> findSessionByVmName(String vmName) {
+        return readAll(sessionsDir, SessionOwner.class).stream()
+            .filter(owner -> vmName.equals(owner.vmName()))
+            .findFirst();
+    }
+
+    @Override
+    public void removeSession(Integer labSessionId) {
+        delete(sessionsDir.resolve(fileName(String.valueOf(labSessionId))));
+    }
+
+    private void write(Path file, Object value) {
+        try {
+            Path temp = Files.createTempFile(file.getParent(), ".tmp-", ".json");
+            objectMapper.writeValue(temp.toFile(), value);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write registry file " + file, e);
+        }
+    }
+
+    private <T> T read(Path file, Class<T> type) {
+        try {
+            return objectMapper.readValue(Files.readAllBytes(file), type);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Unreadable registry file {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private <T> List<T> readAll(Path dir, Class<T> type) {
+        List<T> values = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".json")
+                    && !file.getFileName().toString().startsWith(".tmp-"))
+                .forEach(file -> {
+                    T value = read(file, type);
+                    if (value != null) {
+                        values.add(value);
+                    }
+                });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list registry dir " + dir, e);
+        }
+        return values;
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete registry file " + file, e);
+        }
+    }
+
+    private static String fileName(String id) {
+        return id.replaceAll("[^A-Za-z0-9._-]", "_") + ".json";
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.infrastructure_service.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry that lives in this JVM only: the single-replica default, where every session is local.
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.registry", havingValue = InMemorySessionRegistry.TYPE, matchIfMissing = true)
+public class InMemorySessionRegistry implements SessionRegistry {
+
+    public static final String TYPE = "memory";
+
+    private final Map<String, ReplicaInfo> replicas = new ConcurrentHashMap<>();
+    private final Map<Integer, SessionOwner> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public void heartbeat(ReplicaInfo replica) {
+        replicas.put(replica.id(), replica);
+    }
+
+    @Override
+    public void removeReplica(String replicaId) {
+        replicas.remove(replicaId);
+    }
+
+    @Override
+    public List<ReplicaInfo> replicas() {
+        return List.copyOf(replicas.values());
+    }
+
+    @Override
+    public void putSession(SessionOwner owner) {
+        sessions.put(owner.labSessionId(), owner);
+    }
+
+    @Override
+    public Optional<SessionOwner> findSession(Integer labSessionId) {
+        return Optional.ofNullable(sessions.get(labSessionId));
+    }
+
+    @Override
+    public Optional<SessionOwner> findSessionByVmName(String vmName) {
+        return sessions.values().stream().filter(owner -> vmName.equals(owner.vmName())).findFirst();
+    }
+
+    @Override
+    public void removeSession(Integer labSessionId) {
+        sessions.remove(labSessionId);
+    }
+}
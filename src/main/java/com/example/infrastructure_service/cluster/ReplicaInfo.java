@@ -0,0 +1,8 @@
+package com.example.infrastructure_service.cluster;
+
+/**
+ * A running replica of this service: its id, the base URL other replicas reach it on
+ * (e.g. {@code http://10.0.3.7:8080}) and when it last reported in.
+ */
+public record ReplicaInfo(String id, String url, long heartbeatAt) {
+}
@@ -0,0 +1,161 @@
+package com.example.infrastructure_service.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which replica a lab session belongs to.
+ *
+ * The replica that builds a session's SSH connection and terminal records itself as owner in the
+ * {@link SessionRegistry}. A session without a record, or whose owner stopped heartbeating, falls
+ * to the replica picked by a consistent hash ring over the live replicas, so a replica joining or
+ * leaving only moves the sessions it gains or loses.
+ */
+@Service
+@Slf4j
+public class ReplicaOwnership {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final SessionRegistry registry;
+    private final String replicaId;
+    private final String advertiseUrl;
+    private final long heartbeatIntervalMs;
+    private final long replicaTtlMs;
+
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(List.of(), VIRTUAL_NODES);
+    private volatile Map<String, ReplicaInfo> liveReplicas = Map.of();
+
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replica-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReplicaOwnership(SessionRegistry registry,
+                            @Value("${cluster.replica-id:${HOSTNAME:}}") String replicaId,
+                            @Value("${cluster.advertise-url:}") String advertiseUrl,
+                            @Value("${server.port:8080}") int serverPort,
+                            @Value("${cluster.heartbeat-interval-ms:5000}") long heartbeatIntervalMs) {
+        this.registry = registry;
+        String host = localAddress();
+        this.replicaId = replicaId.isBlank() ? host + ":" + serverPort : replicaId;
+        this.advertiseUrl = advertiseUrl.isBlank() ? "http://" + host + ":" + serverPort : advertiseUrl;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        // bỏ lỡ 3 heartbeat liên tiếp thì coi như replica đã chết
+        this.replicaTtlMs = heartbeatIntervalMs * 3;
+    }
+
+    @PostConstruct
+    public void start() {
+        heartbeat();
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("🛰️ Replica {} advertising {}", replicaId, advertiseUrl);
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    /** Owner of the session: its recorded replica while that one is alive, otherwise the ring's pick. */
+    public ReplicaInfo ownerOf(Integer labSessionId) {
+        return registry.findSession(labSessionId)
+            .map(owner -> liveReplicas.get(owner.replicaId()))
+            .orElseGet(() -> hashOwner(labSessionId));
+    }
+
+    /**
+     * Owner recorded for the session, if that replica is alive. Unlike {@link #ownerOf} there is no
+     * fallback to the ring: a session nobody claimed has no SSH connection to route to.
+     */
+    public Optional<ReplicaInfo> recordedOwner(Integer labSessionId) {
+        return registry.findSession(labSessionId)
+            .map(owner -> liveReplicas.get(owner.replicaId()));
+    }
+
+    /**
+     * Owner recorded for the VM, if that replica is alive. Terminal WebSockets only carry the VM
+     * name, and one that arrives before any replica claimed the VM stays where it landed.
+     */
+    public Optional<ReplicaInfo> ownerOfVm(String vmName) {
+        return registry.findSessionByVmName(vmName)
+            .map(owner -> liveReplicas.get(owner.replicaId()));
+    }
+
+    public boolean isLocal(ReplicaInfo replica) {
+        return replica == null || replicaId.equals(replica.id());
+    }
+
+    public boolean isLocal(Integer labSessionId) {
+        return isLocal(ownerOf(labSessionId));
+    }
+
+    /** Record this replica as the one holding the session's SSH connection and terminal. */
+    public void claim(Integer labSessionId, String vmName) {
+        registry.putSession(new SessionOwner(labSessionId, vmName, replicaId, System.currentTimeMillis()));
+        log.info("📌 Replica {} owns labSessionId={} (VM={})", replicaId, labSessionId, vmName);
+    }
+
+    /** Drop the ownership record, unless another replica has taken the session over meanwhile. */
+    public void release(Integer labSessionId) {
+        registry.findSession(labSessionId)
+            .filter(owner -> replicaId.equals(owner.replicaId()))
+            .ifPresent(owner -> registry.removeSession(labSessionId));
+    }
+
+    private ReplicaInfo hashOwner(Integer labSessionId) {
+        String node = ring.nodeFor("lab-session-" + labSessionId);
+        return node != null ? liveReplicas.get(node) : null;
+    }
+
+    void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            registry.heartbeat(new ReplicaInfo(replicaId, advertiseUrl, now));
+            Map<String, ReplicaInfo> live = registry.replicas().stream()
+                .filter(replica -> now - replica.heartbeatAt() <= replicaTtlMs)
+                .collect(Collectors.toMap(ReplicaInfo::id, Function.identity(), (a, b) -> a));
+            Set<String> previous = liveReplicas.keySet();
+            liveReplicas = Map.copyOf(live);
+            if (!previous.equals(live.keySet())) {
+                ring = new ConsistentHashRing(live.keySet(), VIRTUAL_NODES);
+                log.info("🔁 Live replicas changed: {} -> {}", previous, live.keySet());
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Replica heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+        try {
+            registry.removeReplica(replicaId);
+        } catch (Exception e) {
+            log.debug("Failed to deregister replica {}: {}", replicaId, e.getMessage());
+        }
+    }
+
+    private static String localAddress() {
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.infrastructure_service.cluster;
+
+/**
+ * Which replica holds the live SSH session (and terminal) of a lab session.
+ */
+public record SessionOwner(Integer labSessionId, String vmName, String replicaId, long updatedAt) {
+}
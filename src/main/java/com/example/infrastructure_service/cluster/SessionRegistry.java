@@ -0,0 +1,26 @@
+package com.example.infrastructure_service.cluster;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Shared view of the replicas that are alive and of which replica owns each lab session.
+ * The implementation is picked with {@code cluster.registry} (memory | file).
+ */
+public interface SessionRegistry {
+
+    void heartbeat(ReplicaInfo replica);
+
+    void removeReplica(String replicaId);
+
+    /** Every replica that ever reported in and was not removed; callers filter by heartbeat age. */
+    List<ReplicaInfo> replicas();
+
+    void putSession(SessionOwner owner);
+
+    Optional<SessionOwner> findSession(Integer labSessionId);
+
+    Optional<SessionOwner> findSessionByVmName(String vmName);
+
+    void removeSession(Integer labSessionId);
+}
@@ -1,5 +1,6 @@
 package com.example.infrastructure_service.config;
 
+import com.example.infrastructure_service.dto.ValidationBatchRequest;
 import com.example.infrastructure_service.dto.ValidationRequest;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
@@ -87,6 +88,21 @@ public class KafkaConsumerConfig {
         return factory;
     }
 
+    @Bean
+    public ConsumerFactory<String, ValidationBatchRequest> validationBatchConsumerFactory() {
+        Map<String, Object> props = getCommonConsumerProps();
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, ValidationBatchRequest.class.getName());
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ValidationBatchRequest> validationBatchKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, ValidationBatchRequest> factory = 
+            new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(validationBatchConsumerFactory());
+        return factory;
+    }
+
     @Bean
     public ConsumerFactory<String, LabSessionCleanupRequest> cleanupConsumerFactory() {
         Map<String, Object> props = getCommonConsumerProps();
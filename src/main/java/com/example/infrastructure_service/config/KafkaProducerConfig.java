@@ -52,4 +52,15 @@ public class KafkaProducerConfig {
     public KafkaTemplate<String, LabSessionReadyEvent> labSessionReadyKafkaTemplate() {
         return new KafkaTemplate<>(labSessionReadyProducerFactory());
     }
-}
\ No newline at end of file
+
+    // request của lab session chuyển sang replica đang giữ SSH session (JSON, key = labSessionId)
+    @Bean
+    public ProducerFactory<String, Object> sessionRequestProducerFactory() {
+        return new DefaultKafkaProducerFactory<>(getCommonProducerProps());
+    }
+
+    @Bean
+    public KafkaTemplate<String, Object> sessionRequestKafkaTemplate() {
+        return new KafkaTemplate<>(sessionRequestProducerFactory());
+    }
+}
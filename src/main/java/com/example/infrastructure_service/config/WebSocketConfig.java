@@ -2,7 +2,9 @@
 package com.example.infrastructure_service.config;
 
 import com.example.infrastructure_service.handler.AdminTestWebSocketHandler;
+import com.example.infrastructure_service.cluster.ReplicaOwnership;
 import com.example.infrastructure_service.handler.PodLogWebSocketHandler;
+import com.example.infrastructure_service.handler.TerminalProxy;
 
 
 import lombok.RequiredArgsConstructor;
@@ -27,6 +29,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     private final AdminTestWebSocketHandler adminTestHandler;
     private final PodLogWebSocketHandler podLogHandler;
+    private final ReplicaOwnership replicaOwnership;
     
 
     @Override
@@ -34,10 +37,13 @@ public class WebSocketConfig implements WebSocketConfigurer {
         registry.addHandler(adminTestHandler, "/ws/admin/test-lab")
                 .setAllowedOrigins("*");
         registry.addHandler(podLogHandler, "/ws/pod-logs")
-                .addInterceptors(new StudentLabSessionInterceptor())
+                .addInterceptors(new StudentLabSessionInterceptor(replicaOwnership))
                 .setAllowedOrigins("*");
     }
+    @RequiredArgsConstructor
     private static class StudentLabSessionInterceptor implements HandshakeInterceptor {
+        private final ReplicaOwnership replicaOwnership;
+
         @Override
         public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
                                        WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception {
@@ -48,17 +54,44 @@ public class WebSocketConfig implements WebSocketConfigurer {
                 
                 // Extract token if present
                 String token = null;
+                String podName = null;
+                boolean viewer = false;
+                Long resumeFrom = null;
                 if (query != null) {
                     String[] params = query.split("&");
                     for (String param : params) {
                         if (param.startsWith("token=")) {
                             token = java.net.URLDecoder.decode(param.substring(6), "UTF-8");
-                            break;
+                        } else if (param.startsWith("podName=")) {
+                            podName = param.substring(8);
+                        } else if (param.equals("mode=view")) {
+                            viewer = true;
+                        } else if (param.startsWith("resumeFrom=")) {
+                            try {
+                                resumeFrom = Long.parseLong(param.substring(11));
+                            } catch (NumberFormatException e) {
+                                log.debug("Ignoring invalid {}", param);
+                            }
                         }
                     }
                 }
                 
                 attributes.put("token", token);
+                // handler đọc các giá trị này từ attributes, không parse lại query mỗi message
+                if (podName != null) {
+                    attributes.put(PodLogWebSocketHandler.POD_NAME_ATTR, podName);
+                }
+                attributes.put(PodLogWebSocketHandler.VIEWER_ATTR, viewer);
+                if (resumeFrom != null) {
+                    attributes.put(PodLogWebSocketHandler.RESUME_FROM_ATTR, resumeFrom);
+                }
+
+                // terminal của VM thuộc replica khác thì relay sang đó (trừ khi đã được relay tới đây)
+                if (podName != null && !request.getHeaders().containsKey(TerminalProxy.PROXIED_BY_HEADER)) {
+                    replicaOwnership.ownerOfVm(podName)
+                        .filter(owner -> !replicaOwnership.isLocal(owner))
+                        .ifPresent(owner -> attributes.put(TerminalProxy.PROXY_TARGET_ATTR, owner));
+                }
                 
                 log.info("Student lab WebSocket handshake successful");
                 return true;
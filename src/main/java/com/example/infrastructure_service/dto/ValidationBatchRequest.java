@@ -0,0 +1,33 @@
+package com.example.infrastructure_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Several validations of one lab session, checked together in a single remote invocation.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ValidationBatchRequest {
+    private Integer labSessionId;
+    private String vmName;
+    private String namespace;
+    private String podName;
+    private List<Item> validations;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Item {
+        private Integer questionId;
+        private Integer userAnswerId;
+        private String validationCommand;
+    }
+}
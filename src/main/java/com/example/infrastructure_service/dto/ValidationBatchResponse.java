@@ -0,0 +1,18 @@
+package com.example.infrastructure_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ValidationBatchResponse {
+    private Integer labSessionId;
+    // một kết quả cho mỗi câu hỏi, cùng thứ tự với request
+    private List<ValidationResponse> results;
+}
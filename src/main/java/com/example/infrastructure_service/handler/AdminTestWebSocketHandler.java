@@ -1,8 +1,10 @@
 package com.example.infrastructure_service.handler;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
@@ -10,9 +12,15 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -21,16 +29,43 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @RequiredArgsConstructor
 public class AdminTestWebSocketHandler extends TextWebSocketHandler {
 
-    private final ObjectMapper objectMapper;
+    private final EventEnvelopeWriter envelopeWriter;
     
-    // podName -> WebSocketSession
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    // podName -> mọi admin đang theo dõi lần test
+    private final Map<String, Set<WebSocketSession>> sessions = new ConcurrentHashMap<>();
     
     // sessionId -> isActive flag
     private final Map<String, AtomicBoolean> activeConnections = new ConcurrentHashMap<>();
 
     private final Map<String, CountDownLatch> connectionLatches = new ConcurrentHashMap<>();
 
+    private static final String SEND_QUEUE_ATTR = "sendQueue";
+    private final WebSocketSendQueue.Counters sendCounters = new WebSocketSendQueue.Counters();
+    private final ScheduledExecutorService sendWatchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "admin-send-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${websocket.send.buffer-limit-bytes:524288}")
+    private int sendBufferLimitBytes;
+
+    @Value("${websocket.send.time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    @PostConstruct
+    public void startSendWatchdog() {
+        // admin không nhận thêm log nào thì offer() không bao giờ thấy lần gửi bị kẹt
+        long intervalMs = Math.max(sendTimeLimitMs / 2, 100);
+        sendWatchdog.scheduleWithFixedDelay(() -> sendCounters.closeStuck(sendQueues()),
+            intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopSendWatchdog() {
+        sendWatchdog.shutdownNow();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         String podName = extractPodNameFromQuery(session.getUri().getQuery());
@@ -42,8 +77,14 @@ public class AdminTestWebSocketHandler extends TextWebSocketHandler {
         }
         log.info(" Admin test WebSocket connected: session={}, podName={}", 
             session.getId(), podName);
+        session.getAttributes().put(SEND_QUEUE_ATTR,
+            new WebSocketSendQueue(session, sendBufferLimitBytes, sendTimeLimitMs, sendCounters));
         activeConnections.put(session.getId(), new AtomicBoolean(true));
-        sessions.put(podName, session);
+        sessions.compute(podName, (key, subscribers) -> {
+            Set<WebSocketSession> updated = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            updated.add(session);
+            return updated;
+        });
         
         CountDownLatch latch = connectionLatches.get(podName);
         if (latch != null) {
@@ -59,10 +100,11 @@ public class AdminTestWebSocketHandler extends TextWebSocketHandler {
         log.info(" Admin test WebSocket disconnected: session={}, podName={}, status={}", 
             session.getId(), podName, status);
         
+        closeSendQueue(session);
         activeConnections.remove(session.getId());
         
         if (podName != null) {
-            sessions.remove(podName);
+            removeSubscriber(podName, session);
         }
     }
 
@@ -73,10 +115,11 @@ public class AdminTestWebSocketHandler extends TextWebSocketHandler {
         log.error(" Admin test WebSocket error: session={}, podName={}, error={}", 
             session.getId(), podName, exception.getMessage());
         
+        closeSendQueue(session);
         activeConnections.remove(session.getId());
         
         if (podName != null) {
-            sessions.remove(podName);
+            removeSubscriber(podName, session);
         }
         
         try {
@@ -118,53 +161,87 @@ public class AdminTestWebSocketHandler extends TextWebSocketHandler {
         }
     }
     private boolean hasActiveSession(String podName) {
-        WebSocketSession session = sessions.get(podName);
-        if (session == null) {
-            return false;
-        }
-        
-        AtomicBoolean isActive = activeConnections.get(session.getId());
-        return session.isOpen() && isActive != null && isActive.get();
+        return !subscribers(podName).isEmpty();
     }
     public void broadcastLog(String podName, String type, String message, Map<String, Object> data) {
-        WebSocketSession session = sessions.get(podName);
+        List<WebSocketSession> subscribers = subscribers(podName);
         
-        if (session == null) {
+        if (subscribers.isEmpty()) {
             log.debug(" No admin test session for: {}", podName);
             return;
         }
 
-        String sessionId = session.getId();
-        AtomicBoolean isActive = activeConnections.get(sessionId);
-        
-        if (isActive == null || !isActive.get()) {
-            log.debug(" Inactive admin test session: {}", podName);
-            return;
+        try {
+            // serialize một lần cho mọi admin đang xem
+            TextMessage event = new TextMessage(envelopeWriter.write(type, message, data));
+            WebSocketSendQueue.Kind kind = WebSocketSendQueue.Kind.forEvent(type);
+            for (WebSocketSession session : subscribers) {
+                // step_output đến từ thread flush trong khi thread setup cũng gửi log: hàng đợi của session gửi tuần tự
+                if (sendQueue(session).offer(event, kind)) {
+                    log.debug(" Admin test log queued: podName={}, type={}", podName, type);
+                } else {
+                    log.debug(" Admin test log dropped: podName={}, session={}, type={}", podName, session.getId(), type);
+                }
+            }
+        } catch (IOException e) {
+            log.error(" Failed to serialize admin test log for {}: {}", podName, e.getMessage());
         }
+    }
 
-        if (!session.isOpen()) {
-            log.debug(" Closed admin test session: {}", podName);
-            sessions.remove(podName);
-            activeConnections.remove(sessionId);
-            return;
+    /**
+     * Send queue depth across connected admins plus drops and slow-client closes so far
+     */
+    public Map<String, Object> getSendQueueStats() {
+        return sendCounters.stats(sendQueues());
+    }
+
+    private List<WebSocketSendQueue> sendQueues() {
+        return sessions.values().stream()
+            .flatMap(Set::stream)
+            .map(AdminTestWebSocketHandler::sendQueue)
+            .filter(Objects::nonNull)
+            .toList();
+    }
+
+    /**
+     * Open, active admin sessions of a pod; closed ones found on the way are dropped
+     */
+    private List<WebSocketSession> subscribers(String podName) {
+        Set<WebSocketSession> podSubscribers = sessions.get(podName);
+        if (podSubscribers == null) {
+            return List.of();
         }
+        List<WebSocketSession> open = new ArrayList<>(podSubscribers.size());
+        for (WebSocketSession session : podSubscribers) {
+            if (!session.isOpen()) {
+                log.debug(" Closed admin test session: {}", podName);
+                removeSubscriber(podName, session);
+                activeConnections.remove(session.getId());
+                continue;
+            }
+            AtomicBoolean isActive = activeConnections.get(session.getId());
+            if (isActive != null && isActive.get()) {
+                open.add(session);
+            }
+        }
+        return open;
+    }
 
-        try {
-            Map<String, Object> payload = Map.of(
-                "type", type,
-                "message", message,
-                "data", data != null ? data : Map.of(),
-                "timestamp", System.currentTimeMillis()
-            );
-            
-            String json = objectMapper.writeValueAsString(payload);
-            session.sendMessage(new TextMessage(json));
-            
-            log.debug(" Admin test log sent: podName={}, type={}", podName, type);
-        } catch (IOException e) {
-            log.error(" Failed to send admin test log to {}: {}", podName, e.getMessage());
-            sessions.remove(podName);
-            activeConnections.remove(sessionId);
+    private void removeSubscriber(String podName, WebSocketSession session) {
+        sessions.computeIfPresent(podName, (key, subscribers) -> {
+            subscribers.remove(session);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private static WebSocketSendQueue sendQueue(WebSocketSession session) {
+        return (WebSocketSendQueue) session.getAttributes().get(SEND_QUEUE_ATTR);
+    }
+
+    private static void closeSendQueue(WebSocketSession session) {
+        WebSocketSendQueue queue = sendQueue(session);
+        if (queue != null) {
+            queue.close();
         }
     }
     private String extractPodNameFromQuery(String query) {
@@ -0,0 +1,107 @@
+package com.example.infrastructure_service.handler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Writes the JSON envelope of WebSocket events,
+ * {@code {"type":..,"message":..,"data":{..},"timestamp":..}}, straight into a per-thread
+ * reusable buffer instead of building a map and walking it with the {@link ObjectMapper}.
+ *
+ * Output is what the ObjectMapper produces for the same fields in this order: strings are escaped
+ * the way Jackson does by default, and {@code data} values other than strings, integers, longs
+ * and booleans (nested maps, lists, doubles, dates, ...) are still written by the ObjectMapper,
+ * so its configuration keeps applying to them.
+ */
+@Component
+@RequiredArgsConstructor
+public class EventEnvelopeWriter {
+
+    private static final int INITIAL_CHARS = 256;
+    /** A buffer that grew past this for one huge event is not kept for the thread. */
+    private static final int MAX_RETAINED_CHARS = 16 * 1024;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CHARS));
+
+    private final ObjectMapper objectMapper;
+
+    public String write(String type, String message, Map<String, ?> data) throws JsonProcessingException {
+        return write(type, message, data, System.currentTimeMillis());
+    }
+
+    String write(String type, String message, Map<String, ?> data, long timestamp) throws JsonProcessingException {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        out.append("{\"type\":");
+        writeString(out, type);
+        out.append(",\"message\":");
+        writeString(out, message);
+        out.append(",\"data\":{");
+        if (data != null) {
+            boolean first = true;
+            for (Map.Entry<String, ?> entry : data.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeString(out, entry.getKey());
+                out.append(':');
+                writeValue(out, entry.getValue());
+            }
+        }
+        out.append("},\"timestamp\":").append(timestamp).append('}');
+        String json = out.toString();
+        if (out.capacity() > MAX_RETAINED_CHARS) {
+            BUFFER.remove();
+        }
+        return json;
+    }
+
+    private void writeValue(StringBuilder out, Object value) throws JsonProcessingException {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String text) {
+            writeString(out, text);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.append(((Number) value).longValue());
+        } else if (value instanceof Boolean flag) {
+            out.append(flag.booleanValue());
+        } else {
+            out.append(objectMapper.writeValueAsString(value));
+        }
+    }
+
+    /** Quoted string with Jackson's default escaping: quote, backslash and control characters. */
+    private static void writeString(StringBuilder out, String text) {
+        if (text == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(text, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                default -> out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(text, start, length).append('"');
+    }
+}
@@ -1,42 +1,144 @@
 package com.example.infrastructure_service.handler;
 import com.example.infrastructure_service.service.SshSessionCache;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jcraft.jsch.ChannelShell;
-import com.jcraft.jsch.Session;
+import com.example.infrastructure_service.ssh.SshChannel;
+import com.example.infrastructure_service.ssh.SshConnection;
+import com.example.infrastructure_service.ssh.TerminalInputCoalescer;
+import com.example.infrastructure_service.ssh.TerminalOutputCoalescer;
+import com.example.infrastructure_service.ssh.TerminalRelay;
+import com.example.infrastructure_service.ssh.TerminalScrollback;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Component
 @Slf4j
 @RequiredArgsConstructor
-public class PodLogWebSocketHandler extends TextWebSocketHandler {
+public class PodLogWebSocketHandler extends AbstractWebSocketHandler implements SubProtocolCapable {
 
-    private final ObjectMapper objectMapper;
+    /**
+     * Subprotocol a client offers ({@code Sec-WebSocket-Protocol}) to exchange terminal I/O as raw
+     * bytes in binary frames. JSON events stay on text frames; clients that offer nothing get
+     * terminal output as text frames as before.
+     */
+    public static final String BINARY_PROTOCOL = "lab-terminal.binary";
+    private static final String SEND_QUEUE_ATTR = "sendQueue";
+    /** Session attributes the handshake interceptor fills from the query string, once per connection. */
+    public static final String POD_NAME_ATTR = "podName";
+    /** Set for {@code ?mode=view} connections: they watch the terminal, their input is ignored. */
+    public static final String VIEWER_ATTR = "viewer";
+    /** {@code ?resumeFrom=}: byte offset of the terminal output the client already has. */
+    public static final String RESUME_FROM_ATTR = "resumeFrom";
+    /** The terminal the client is bound to, so input needs no lookup by pod name. */
+    private static final String TERMINAL_ATTR = "terminal";
+
+    private final EventEnvelopeWriter envelopeWriter;
     private final SshSessionCache sshSessionCache;
-    private final Map<String, WebSocketSession> podSessions = new ConcurrentHashMap<>();
+    private final TerminalProxy terminalProxy;
+    // podName -> mọi client đang xem (tab của sinh viên, viewer chỉ đọc)
+    private final Map<String, Set<WebSocketSession>> podSessions = new ConcurrentHashMap<>();
     private final Map<String, CountDownLatch> connectionLatches = new ConcurrentHashMap<>();
     private final Map<String, AtomicBoolean> activeConnections = new ConcurrentHashMap<>();
     private final Map<String, TerminalSessionData> terminalSessions = new ConcurrentHashMap<>();    
+    private final ScheduledExecutorService outputFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terminal-output-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService inputFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terminal-input-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService idleReaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terminal-idle-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService sendWatchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terminal-send-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong idleWarnings = new AtomicLong();
+    private final AtomicLong idleSuspensions = new AtomicLong();
+    private final AtomicLong idleResumes = new AtomicLong();
+
+    @Value("${terminal.output.flush-window-ms:5}")
+    private long outputFlushWindowMs;
+
+    @Value("${terminal.output.max-frame-bytes:16384}")
+    private int outputMaxFrameBytes;
+
+    @Value("${terminal.input.flush-window-us:500}")
+    private long inputFlushWindowMicros;
+
+    @Value("${terminal.input.max-packet-bytes:32768}")
+    private int inputMaxPacketBytes;
+
+    @Value("${terminal.scrollback-bytes:65536}")
+    private int scrollbackBytes;
+
+    @Value("${terminal.idle.warn-after-ms:1200000}")
+    private long idleWarnAfterMs;
+
+    @Value("${terminal.idle.suspend-after-ms:1800000}")
+    private long idleSuspendAfterMs;
+
+    @Value("${terminal.idle.check-interval-ms:60000}")
+    private long idleCheckIntervalMs;
+
+    @Value("${websocket.send.buffer-limit-bytes:524288}")
+    private int sendBufferLimitBytes;
+
+    @Value("${websocket.send.time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    private final WebSocketSendQueue.Counters sendCounters = new WebSocketSendQueue.Counters();
+
+    @Override
+    public List<String> getSubProtocols() {
+        return List.of(BINARY_PROTOCOL);
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        String podName = extractPodNameFromQuery(session.getUri().getQuery());
+        if (terminalProxy.isProxied(session)) {
+            terminalProxy.open(session);
+            return;
+        }
+        String podName = podName(session);
         
         if (podName == null || podName.isEmpty()) {
             log.error("❌ No podName provided in query string");
@@ -44,47 +146,56 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
             return;
         }
 
-        log.info("📡 WebSocket connection established for session {} with podName {}", 
-            session.getId(), podName);
+        boolean viewer = isViewer(session);
+        log.info("📡 WebSocket connection established for session {} with podName {} ({} frames{})", 
+            session.getId(), podName, isBinary(session) ? "binary" : "text", viewer ? ", read-only" : "");
 
         
+        session.getAttributes().put(SEND_QUEUE_ATTR,
+            new WebSocketSendQueue(session, sendBufferLimitBytes, sendTimeLimitMs, sendCounters));
         activeConnections.put(session.getId(), new AtomicBoolean(true));
-        podSessions.put(podName, session);
-        
-        
-        CountDownLatch latch = connectionLatches.get(podName);
-        if (latch != null) {
-            latch.countDown();
-            log.info(" WebSocket connection latch released for podName: {}", podName);
-        }
-        
-        
         TerminalSessionData terminalSession = terminalSessions.get(podName);
         if (terminalSession != null && terminalSession.isActive()) {
             log.info(" Reconnection detected - terminal session still active for: {}", podName);
             terminalSession.updateLastActivity();
-            
-            
-            broadcastLogToPod(podName, "terminal_ready", 
-                "Terminal reconnected. You can continue typing.", 
-                Map.of("labSessionId", terminalSession.getLabSessionId()));
+            // viewer chỉ xem scrollback, không mở lại shell đã bị tạm dừng
+            if (viewer || resumeShell(terminalSession)) {
+                session.getAttributes().put(TERMINAL_ATTR, terminalSession);
+                attachWithReplay(podName, session, terminalSession);
+            } else {
+                addSubscriber(podName, session);
+                closeLostTerminal(podName);
+            }
         } else {
             log.info("New connection - waiting for terminal setup for: {}", podName);
+            addSubscriber(podName, session);
+        }
+        
+        
+        // viewer không tính là client mà quá trình tạo VM chờ
+        CountDownLatch latch = viewer ? null : connectionLatches.get(podName);
+        if (latch != null) {
+            latch.countDown();
+            log.info(" WebSocket connection latch released for podName: {}", podName);
         }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        String podName = extractPodNameFromQuery(session.getUri().getQuery());
+        if (terminalProxy.isProxied(session)) {
+            terminalProxy.close(session, status);
+            return;
+        }
+        String podName = podName(session);
         
         log.info(" WebSocket connection closed for session {} (podName: {}). Status: {}", 
             session.getId(), podName, status);
         
-        
+        closeSendQueue(session);
         activeConnections.remove(session.getId());
         
         if (podName != null) {
-            podSessions.remove(podName);
+            removeSubscriber(podName, session);
             
             
             TerminalSessionData terminalSession = terminalSessions.get(podName);
@@ -98,14 +209,19 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
-        String podName = extractPodNameFromQuery(session.getUri().getQuery());
+        if (terminalProxy.isProxied(session)) {
+            terminalProxy.close(session, CloseStatus.SERVER_ERROR);
+            return;
+        }
+        String podName = podName(session);
         
         log.error(" WebSocket transport error for session {} (podName: {}): {}", 
             session.getId(), podName, exception.getMessage());
+        closeSendQueue(session);
         activeConnections.remove(session.getId());
         
         if (podName != null) {
-            podSessions.remove(podName);
+            removeSubscriber(podName, session);
             log.info(" Removed WebSocket session due to transport error for podName: {}", podName);
         }
         
@@ -120,68 +236,75 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        String podName = extractPodNameFromQuery(session.getUri().getQuery());
-        
-        if (podName == null) {
-            log.debug("No podName for session {}", session.getId());
+        if (terminalProxy.isProxied(session)) {
+            terminalProxy.forward(session, message);
+            return;
+        }
+        if (isViewer(session)) {
+            log.debug("Ignoring input from read-only session {}", session.getId());
             return;
         }
         
-        TerminalSessionData terminalSession = terminalSessions.get(podName);
-        if (terminalSession != null && terminalSession.isActive()) {
-            terminalSession.updateLastActivity();
-            log.debug("Terminal input from client for pod {}: {}", podName, message.getPayload());
-            forwardToTerminal(terminalSession, message.getPayload());
+        TerminalSessionData terminalSession = boundTerminal(session);
+        if (terminalSession != null) {
+            log.debug("Terminal input from client for pod {}: {}", terminalSession.getPodName(), message.getPayload());
+            forwardToTerminal(terminalSession, message.getPayload(), null);
         } else {
-            log.warn(" No active terminal session for podName: {} - ignoring input", podName);
+            log.warn(" No active terminal session for podName: {} - ignoring input", podName(session));
         }
     }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        if (terminalProxy.isProxied(session)) {
+            terminalProxy.forward(session, message);
+            return;
+        }
+        if (isViewer(session)) {
+            log.debug("Ignoring input from read-only session {}", session.getId());
+            return;
+        }
+
+        TerminalSessionData terminalSession = boundTerminal(session);
+        if (terminalSession != null) {
+            forwardToTerminal(terminalSession, null, message.getPayload());
+        } else {
+            log.warn(" No active terminal session for podName: {} - ignoring input", podName(session));
+        }
+    }
+
     public void setupTerminal(String podName, int labSessionId, String expiresAt) {
         log.info(" Setting up terminal session for podName: {} (labSessionId: {})", podName, labSessionId);
         
         try {
             String cacheKey = "lab-session-" + labSessionId;
-            Session sshSession = sshSessionCache.get(cacheKey);
+            // giữ lease để cache không đóng session vì idle khi terminal còn mở
+            SshConnection sshSession = sshSessionCache.acquire(cacheKey);
             
             if (sshSession == null || !sshSession.isConnected()) {
+                if (sshSession != null) {
+                    sshSessionCache.release(cacheKey);
+                }
                 log.error(" No cached SSH session found for labSessionId: {}", labSessionId);
                 throw new IllegalStateException("SSH session not available");
             }
 
             log.info(" Found cached SSH session, opening shell channel...");
             
-            // Open SSH shell channel
-            ChannelShell channel = (ChannelShell) sshSession.openChannel("shell");
-            channel.setPtyType("xterm");
-            channel.setPtySize(80, 24, 640, 480);
-            channel.connect();
-            
-            log.info(" SSH shell channel connected");
-
-            InputStream in = channel.getInputStream();
-            OutputStream out = channel.getOutputStream();
-
-            // Start output reader thread
-            Thread reader = new Thread(() -> readSshOutput(podName, in), 
-                "ssh-reader-" + podName);
-            reader.setDaemon(true);
-            reader.start();
-            
-            log.info(" SSH output reader thread started");
-
-            
+            TerminalScrollback scrollback = new TerminalScrollback(scrollbackBytes);
             TerminalSessionData terminalSession = TerminalSessionData.builder()
                 .podName(podName)
                 .labSessionId(labSessionId)
                 .active(true)
                 .createdAt(LocalDateTime.now())
-                .lastActivityAt(LocalDateTime.now())
-                .sshChannel(channel)
-                .sshOutputStream(out)
-                .outputReaderThread(reader)
+                .lastActivityMillis(System.currentTimeMillis())
+                .scrollback(scrollback)
                 .build();
+            startShell(terminalSession, sshSession);
 
             terminalSessions.put(podName, terminalSession);
+            // client đang chờ: gắn sẵn terminal, phím gõ không phải tra theo podName
+            subscribers(podName).forEach(session -> session.getAttributes().put(TERMINAL_ATTR, terminalSession));
             
             log.info(" Terminal session created and stored for: {}", podName);
             
@@ -189,7 +312,10 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
             data.put("labSessionId", labSessionId);
             data.put("percentage", 100);
             data.put("expiresAt", expiresAt); // Đảm bảo có dòng này
-            broadcastLogToPod(podName, "terminal_ready", "Terminal is ready!", data);
+            synchronized (scrollback) {
+                data.put("outputOffset", scrollback.end());
+                broadcastLogToPod(podName, "terminal_ready", "Terminal is ready!", data);
+            }
     log.info("Terminal session created and stored for: {}", podName);
                 
         } catch (Exception e) {
@@ -201,26 +327,66 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
-   
-    public void cleanupTerminal(String podName) {
-        log.info("🧹 Cleaning up terminal session for: {}", podName);
-        
-        TerminalSessionData terminalSession = terminalSessions.remove(podName);
-        if (terminalSession == null) {
-            log.warn(" No terminal session found for: {} (already cleaned up?)", podName);
-            return;
-        }
+    /**
+     * Open a shell channel on the lab's SSH session and start relaying its output
+     */
+    private void startShell(TerminalSessionData terminalSession, SshConnection sshSession) throws IOException {
+        String podName = terminalSession.getPodName();
+        TerminalScrollback scrollback = terminalSession.getScrollback();
 
+        // Open SSH shell channel
+        SshChannel channel = sshSession.openShell("xterm", 80, 24);
         
-        terminalSession.setActive(false);
+        log.info(" SSH shell channel connected");
+
+        // đọc output trên virtual thread, không tốn một platform thread cho mỗi terminal
+        TerminalOutputCoalescer coalescer = new TerminalOutputCoalescer(outputFlusher, outputFlushWindowMs,
+            outputMaxFrameBytes, (frame, offset, length) -> sendTerminalOutput(podName, scrollback, frame, offset, length));
+        TerminalRelay relay = TerminalRelay.start(podName, channel, new TerminalRelay.Sink() {
+            @Override
+            public void onOutput(byte[] buffer, int offset, int length) {
+                // client chậm: dừng đọc SSH cho tới khi hàng đợi gửi vơi bớt
+                awaitSendCapacity(podName);
+                coalescer.onOutput(buffer, offset, length);
+            }
+
+            @Override
+            public void onClosed() {
+                coalescer.onClosed();
+            }
+        });
         
-        // Stop output reader thread
-        Thread reader = terminalSession.getOutputReaderThread();
-        if (reader != null && reader.isAlive()) {
-            reader.interrupt();
-            log.debug(" Interrupted output reader thread for: {}", podName);
+        log.info(" SSH output reader thread started");
+
+        terminalSession.setSshChannel(channel);
+        terminalSession.setSshOutputStream(channel.getOutputStream());
+        // phím gõ liền nhau được gộp thành một gói SSH
+        terminalSession.setInputCoalescer(new TerminalInputCoalescer(inputFlusher, inputFlushWindowMicros,
+            inputMaxPacketBytes, channel.getOutputStream()));
+        terminalSession.setOutputRelay(relay);
+        terminalSession.setOutputCoalescer(coalescer);
+    }
+
+    /**
+     * Stop the output reader and close the shell channel; the SSH session itself stays open
+     */
+    private void closeShell(TerminalSessionData terminalSession) {
+        String podName = terminalSession.getPodName();
+
+        // Stop output reader
+        TerminalRelay relay = terminalSession.getOutputRelay();
+        if (relay != null && relay.isRunning()) {
+            relay.close();
+            log.debug(" Stopped output reader for: {}", podName);
         }
         
+        // ghi nốt input đang chờ trước khi đóng stream
+        TerminalInputCoalescer in = terminalSession.getInputCoalescer();
+        if (in != null) {
+            in.close();
+            log.info("📊 Terminal input stats for {}: {}", podName, in.getStats());
+        }
+
         // Close SSH output stream
         OutputStream out = terminalSession.getSshOutputStream();
         if (out != null) {
@@ -233,18 +399,198 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
         }
         
         // Disconnect SSH channel
-        ChannelShell channel = terminalSession.getSshChannel();
-        if (channel != null && channel.isConnected()) {
-            channel.disconnect();
+        SshChannel channel = terminalSession.getSshChannel();
+        if (channel != null && !channel.isClosed()) {
+            channel.close();
             log.debug(" Disconnected SSH channel for: {}", podName);
         }
+        if (terminalSession.getOutputCoalescer() != null) {
+            log.info("📊 Terminal output stats for {}: {}", podName, terminalSession.getOutputCoalescer().getStats());
+        }
+
+        terminalSession.setOutputRelay(null);
+        terminalSession.setSshOutputStream(null);
+        terminalSession.setInputCoalescer(null);
+        terminalSession.setSshChannel(null);
+        terminalSession.setOutputCoalescer(null);
+    }
+
+    @PostConstruct
+    public void startSendWatchdog() {
+        // client không nhận thêm message nào thì offer() không bao giờ thấy lần gửi bị kẹt
+        long intervalMs = Math.max(sendTimeLimitMs / 2, 100);
+        sendWatchdog.scheduleWithFixedDelay(() -> sendCounters.closeStuck(sendQueues()),
+            intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PostConstruct
+    public void startIdleReaper() {
+        if (idleSuspendAfterMs <= 0) {
+            log.info("Idle terminal reaper disabled");
+            return;
+        }
+        idleReaper.scheduleWithFixedDelay(this::reapIdleTerminals, idleCheckIntervalMs, idleCheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Warn clients of terminals idle for {@code terminal.idle.warn-after-ms}, and suspend those idle
+     * for {@code terminal.idle.suspend-after-ms}: the shell channel and its reader are released,
+     * while the SSH session (and its lease), the VM and the scrollback stay, so the next keystroke
+     * or reconnect only reopens a channel.
+     */
+    void reapIdleTerminals() {
+        try {
+            long now = System.currentTimeMillis();
+            int suspended = 0;
+            for (TerminalSessionData terminalSession : terminalSessions.values()) {
+                if (!terminalSession.isActive() || terminalSession.isSuspended()) {
+                    continue;
+                }
+                long idleMs = now - terminalSession.getLastActivityMillis();
+                if (idleMs >= idleSuspendAfterMs) {
+                    if (suspendShell(terminalSession, idleMs)) {
+                        suspended++;
+                    }
+                } else if (idleMs >= idleWarnAfterMs && !terminalSession.isIdleWarned()) {
+                    terminalSession.setIdleWarned(true);
+                    idleWarnings.incrementAndGet();
+                    long suspendInSeconds = (idleSuspendAfterMs - idleMs) / 1000;
+                    broadcastLogToPod(terminalSession.getPodName(), "terminal_idle_warning",
+                        "Terminal has been idle for " + idleMs / 60000 + " minutes and will be suspended in "
+                            + Math.max(1, suspendInSeconds / 60) + " minutes. Type anything to keep it open.",
+                        Map.of("idleSeconds", idleMs / 1000, "suspendInSeconds", suspendInSeconds));
+                }
+            }
+            if (suspended > 0) {
+                log.info("♻️ Idle terminal reaper suspended {} terminals: {}", suspended, getIdleReaperStats());
+            }
+        } catch (Exception e) {
+            log.error("❌ Idle terminal reaper failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean suspendShell(TerminalSessionData terminalSession, long idleMs) {
+        String podName = terminalSession.getPodName();
+        ReentrantLock shellLock = terminalSession.getShellLock();
+        shellLock.lock();
+        try {
+            // kiểm tra lại dưới lock: phím gõ cập nhật lastActivity dưới cùng lock này
+            if (!terminalSession.isActive() || terminalSession.isSuspended()
+                || System.currentTimeMillis() - terminalSession.getLastActivityMillis() < idleSuspendAfterMs) {
+                return false;
+            }
+            closeShell(terminalSession);
+            terminalSession.setSuspended(true);
+        } finally {
+            shellLock.unlock();
+        }
+        idleSuspensions.incrementAndGet();
+        log.info("♻️ Suspended terminal {} after {}s idle: released shell channel and reader thread, SSH session kept",
+            podName, idleMs / 1000);
+        broadcastLogToPod(podName, "terminal_suspended",
+            "Terminal was suspended after " + idleMs / 60000 + " minutes of inactivity. Type anything to resume.",
+            Map.of("reason", "idle", "outputOffset", terminalSession.getScrollback().end()));
+        return true;
+    }
+
+    /**
+     * Reopen the shell of a terminal the idle reaper suspended; false if its SSH session is gone
+     */
+    private boolean resumeShell(TerminalSessionData terminalSession) {
+        if (!terminalSession.isSuspended()) {
+            return true;
+        }
+        String podName = terminalSession.getPodName();
+        // ReentrantLock: mở channel là I/O mạng, synchronized sẽ giữ chặt carrier của virtual thread
+        ReentrantLock shellLock = terminalSession.getShellLock();
+        shellLock.lock();
+        try {
+            // terminal đã cleanup thì không mở lại shell
+            if (!terminalSession.isSuspended() || !terminalSession.isActive()) {
+                return true;
+            }
+            // lease của terminal vẫn giữ nên session không bị cache đóng vì idle
+            SshConnection sshSession = sshSessionCache.get("lab-session-" + terminalSession.getLabSessionId());
+            if (sshSession == null || !sshSession.isConnected()) {
+                log.warn(" Cannot resume terminal {}: SSH session is gone", podName);
+                return false;
+            }
+            try {
+                startShell(terminalSession, sshSession);
+            } catch (IOException e) {
+                log.error("❌ Failed to reopen shell for {}: {}", podName, e.getMessage());
+                return false;
+            }
+            terminalSession.setSuspended(false);
+            terminalSession.setIdleWarned(false);
+        } finally {
+            shellLock.unlock();
+        }
+        idleResumes.incrementAndGet();
+        log.info("▶️ Resumed terminal {}: reopened shell channel", podName);
+        broadcastLogToPod(podName, "terminal_resumed", "Terminal resumed with a new shell.",
+            Map.of("labSessionId", terminalSession.getLabSessionId()));
+        return true;
+    }
+
+    private void closeLostTerminal(String podName) {
+        cleanupTerminal(podName, "SSH connection was closed. Terminal is now closed.", "ssh_closed");
+    }
+
+    /**
+     * Warnings, suspensions and resumes by the idle reaper, and terminals suspended right now
+     */
+    public Map<String, Object> getIdleReaperStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("terminals", terminalSessions.size());
+        stats.put("suspendedNow", terminalSessions.values().stream().filter(TerminalSessionData::isSuspended).count());
+        stats.put("warnings", idleWarnings.get());
+        stats.put("suspensions", idleSuspensions.get());
+        stats.put("resumes", idleResumes.get());
+        return stats;
+    }
+
+    @PostConstruct
+    public void registerSshEvictionListener() {
+        // session SSH bị cache loại bỏ thì shell của terminal cũng đã chết, báo cho client
+        sshSessionCache.addEvictionListener((key, reason) -> terminalSessions.values().stream()
+            .filter(terminal -> key.equals("lab-session-" + terminal.getLabSessionId()))
+            .map(TerminalSessionData::getPodName)
+            .toList()
+            .forEach(podName -> cleanupTerminal(podName,
+                "SSH connection was closed (" + reason + "). Terminal is now closed.", "ssh_" + reason)));
+    }
+
+    public void cleanupTerminal(String podName) {
+        cleanupTerminal(podName, "Lab session ended. Terminal is now closed.", "lab_ended");
+    }
+
+    private void cleanupTerminal(String podName, String message, String reason) {
+        log.info("🧹 Cleaning up terminal session for: {}", podName);
+        
+        TerminalSessionData terminalSession = terminalSessions.remove(podName);
+        if (terminalSession == null) {
+            log.warn(" No terminal session found for: {} (already cleaned up?)", podName);
+            return;
+        }
+
+        
+        terminalSession.setActive(false);
+        terminalSession.getShellLock().lock();
+        try {
+            closeShell(terminalSession);
+        } finally {
+            terminalSession.getShellLock().unlock();
+        }
+        sshSessionCache.release("lab-session-" + terminalSession.getLabSessionId());
         
         log.info(" Terminal session cleaned up successfully for: {}", podName);
+        for (WebSocketSession session : subscribers(podName)) {
+            log.info("📊 WebSocket send queue stats for {} (session {}): {}", podName, session.getId(), sendQueue(session).getStats());
+        }
         
         
-        broadcastLogToPod(podName, "terminal_closed", 
-            "Lab session ended. Terminal is now closed.", 
-            Map.of("reason", "lab_ended"));
+        broadcastLogToPod(podName, "terminal_closed", message, Map.of("reason", reason));
     }
 
     /**
@@ -256,6 +602,10 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
         
         int count = terminalSessions.size();
         terminalSessions.keySet().forEach(this::cleanupTerminal);
+        outputFlusher.shutdownNow();
+        inputFlusher.shutdownNow();
+        idleReaper.shutdownNow();
+        sendWatchdog.shutdownNow();
         
         log.info(" Cleaned up {} terminal sessions", count);
     }
@@ -263,48 +613,41 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
     // ============= HELPER METHODS =============
     
     /**
-     * Read SSH output and send to WebSocket clients
+     * Forward user input (text, or raw bytes from a binary frame) to SSH terminal, reopening the
+     * shell first if the idle reaper suspended it
      */
-    private void readSshOutput(String podName, InputStream in) {
-        log.info(" Starting SSH output reader for: {}", podName);
-        
+    private void forwardToTerminal(TerminalSessionData terminalSession, String text, ByteBuffer bytes) {
+        boolean resumed;
+        // cùng lock với idle reaper: shell không thể bị đóng giữa lúc kiểm tra và lúc ghi
+        ReentrantLock shellLock = terminalSession.getShellLock();
+        shellLock.lock();
         try {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                String output = new String(buffer, 0, bytesRead);
-                sendTerminalOutput(podName, output);
+            terminalSession.updateLastActivity();
+            resumed = resumeShell(terminalSession);
+            TerminalInputCoalescer in = terminalSession.getInputCoalescer();
+            if (resumed && in == null) {
+                // terminal vừa bị cleanup
+                log.debug("Terminal of {} was closed - ignoring input", terminalSession.getPodName());
+            } else if (resumed) {
+                int length = text != null ? text.length() : bytes.remaining();
+                if (text != null) {
+                    in.write(text);
+                } else {
+                    in.write(bytes);
+                }
+                log.debug("📤 Forwarded {} {} of input to SSH", length, text != null ? "chars" : "bytes");
             }
-            log.info(" SSH output stream ended for: {}", podName);
-        } catch (IOException e) {
-            if (Thread.currentThread().isInterrupted()) {
-                log.debug("SSH output reader interrupted for: {}", podName);
-            } else {
-                log.debug("SSH output reader stopped for {}: {}", podName, e.getMessage());
-            }
-        }
-    }
-    
-    /**
-     * Forward user input to SSH terminal
-     */
-    private void forwardToTerminal(TerminalSessionData terminalSession, String input) {
-        OutputStream out = terminalSession.getSshOutputStream();
-        
-        if (out == null) {
-            log.warn(" No SSH output stream for terminal session");
-            return;
-        }
-        
-        try {
-            out.write(input.getBytes());
-            out.flush();
-            log.debug("📤 Forwarded input to SSH: {}", input);
         } catch (IOException e) {
             log.error("❌ Failed to forward input to SSH: {}", e.getMessage());
             
             // Mark session as inactive if SSH connection is broken
             terminalSession.setActive(false);
+            return;
+        } finally {
+            shellLock.unlock();
+        }
+        if (!resumed) {
+            closeLostTerminal(terminalSession.getPodName());
         }
     }
 
@@ -343,97 +686,236 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
     }
 
     /**
-     * Check if there's an active WebSocket session for this pod
+     * Check if there's an active (non-viewer) WebSocket session for this pod
      */
     private boolean hasActiveWebSocketSession(String podName) {
-        WebSocketSession session = podSessions.get(podName);
-        if (session == null) {
-            return false;
-        }
-        
-        AtomicBoolean isActive = activeConnections.get(session.getId());
-        return session.isOpen() && isActive != null && isActive.get();
+        return subscribers(podName).stream().anyMatch(session -> !isViewer(session));
     }
 
     /**
      * Broadcast log message to connected WebSocket clients (JSON format)
      */
     public void broadcastLogToPod(String podName, String type, String message, Map<String, Object> data) {
-        WebSocketSession session = podSessions.get(podName);
+        List<WebSocketSession> subscribers = subscribers(podName);
         
-        if (session == null) {
+        if (subscribers.isEmpty()) {
             log.debug("⚠️ No WebSocket session found for podName: {}", podName);
             return;
         }
 
-        String sessionId = session.getId();
-        AtomicBoolean isActive = activeConnections.get(sessionId);
-        
-        if (isActive == null || !isActive.get()) {
-            log.debug("⚠️ WebSocket session {} is inactive for podName: {}", sessionId, podName);
+        // serialize một lần, mọi subscriber dùng chung TextMessage (không đổi được nên an toàn)
+        TextMessage event = eventMessage(podName, type, message, data);
+        if (event == null) {
             return;
         }
-
-        if (!session.isOpen()) {
-            log.debug("⚠️ WebSocket session {} is closed for podName: {}", sessionId, podName);
-            podSessions.remove(podName);
-            activeConnections.remove(sessionId);
-            return;
+        WebSocketSendQueue.Kind kind = WebSocketSendQueue.Kind.forEvent(type);
+        for (WebSocketSession session : subscribers) {
+            // gửi bất đồng bộ qua hàng đợi của session, thread provisioning không chờ client chậm
+            if (sendQueue(session).offer(event, kind)) {
+                log.debug("📤 Queued WebSocket message to {} (type: {})", podName, type);
+            } else {
+                log.debug("⚠️ Dropped WebSocket message to {} session {} (type: {})", podName, session.getId(), type);
+            }
         }
+    }
 
+    private TextMessage eventMessage(String podName, String type, String message, Map<String, Object> data) {
         try {
-            Map<String, Object> payload = Map.of(
-                "type", type,
-                "message", message,
-                "data", data != null ? data : Map.of(),
-                "timestamp", System.currentTimeMillis()
-            );
-            
-            String json = objectMapper.writeValueAsString(payload);
-            session.sendMessage(new TextMessage(json));
-            
-            log.debug("📤 Sent WebSocket message to {} (type: {})", podName, type);
+            return new TextMessage(envelopeWriter.write(type, message, data));
         } catch (IOException e) {
-            log.error("❌ Failed to send WebSocket message to podName {}: {}", podName, e.getMessage());
-            podSessions.remove(podName);
-            activeConnections.remove(sessionId);
+            log.error("❌ Failed to serialize WebSocket message for podName {}: {}", podName, e.getMessage());
+            return null;
         }
     }
 
     /**
-     * Send raw terminal output to connected WebSocket clients
+     * Send raw terminal output to connected WebSocket clients: the bytes as-is in a binary frame
+     * for {@link #BINARY_PROTOCOL} clients, decoded into a text frame otherwise. The frame is
+     * kept in the terminal's scrollback and copied or decoded at most once, however many clients
+     * watch, so the caller may reuse {@code frame} afterwards.
+     *
+     * Binary clients do get a copy: their send queues write it to the socket later, after the
+     * coalescer has reused its buffer, so the frame cannot be wrapped in place. The copy is not
+     * pooled either, as it is only free again once the slowest client's queue has sent it.
      */
-    public void sendTerminalOutput(String podName, String output) {
-        WebSocketSession session = podSessions.get(podName);
-        
-        if (session == null || !session.isOpen()) {
-            log.debug("⚠️ No active WebSocket session for podName: {}", podName);
-            return;
+    private void sendTerminalOutput(String podName, TerminalScrollback scrollback, byte[] frame, int offset, int length) {
+        // cùng khóa với attachWithReplay: output không bị mất hay gửi trùng khi client kết nối lại
+        synchronized (scrollback) {
+            scrollback.append(frame, offset, length);
+            List<WebSocketSession> subscribers = subscribers(podName);
+
+            if (subscribers.isEmpty()) {
+                log.debug("⚠️ No active WebSocket session for podName: {} - output kept in scrollback", podName);
+                return;
+            }
+
+            byte[] bytes = null;
+            TextMessage text = null;
+            for (WebSocketSession session : subscribers) {
+                WebSocketMessage<?> message;
+                if (isBinary(session)) {
+                    if (bytes == null) {
+                        bytes = Arrays.copyOfRange(frame, offset, offset + length);
+                    }
+                    // mỗi subscriber một BinaryMessage bọc cùng mảng: lúc gửi ByteBuffer bị đọc hết (position thay đổi)
+                    message = new BinaryMessage(bytes);
+                } else {
+                    if (text == null) {
+                        // frame luôn kết thúc đúng ranh giới ký tự UTF-8 nên decode riêng từng frame là đủ
+                        text = new TextMessage(new String(frame, offset, length, StandardCharsets.UTF_8));
+                    }
+                    message = text;
+                }
+                sendQueue(session).offer(message, terminalKind(session));
+            }
+            log.debug("📤 Queued terminal output to {} ({} bytes, {} clients)", podName, length, subscribers.size());
         }
+    }
 
-        try {
-            session.sendMessage(new TextMessage(output));
-            log.debug("📤 Sent terminal output to {} ({} bytes)", podName, output.length());
-        } catch (IOException e) {
-            log.error("❌ Failed to send terminal output to {}: {}", podName, e.getMessage());
+    /**
+     * Make {@code session} the terminal's client and queue the output it missed: everything after
+     * the {@code resumeFrom} byte offset it sends in the query, or the whole scrollback without it.
+     * The terminal_ready that follows carries {@code outputOffset}, the offset of the next live byte.
+     */
+    private void attachWithReplay(String podName, WebSocketSession session, TerminalSessionData terminalSession) {
+        TerminalScrollback scrollback = terminalSession.getScrollback();
+        Long resumeFrom = (Long) session.getAttributes().get(RESUME_FROM_ATTR);
+        long offset = resumeFrom != null ? resumeFrom : -1;
+        synchronized (scrollback) {
+            byte[] missed = scrollback.since(offset);
+            addSubscriber(podName, session);
+            WebSocketSendQueue queue = sendQueue(session);
+            if (missed.length > 0) {
+                WebSocketMessage<?> replay = isBinary(session)
+                    ? new BinaryMessage(missed)
+                    : new TextMessage(new String(missed, StandardCharsets.UTF_8));
+                queue.offer(replay, terminalKind(session));
+                log.info("🔁 Replayed {} bytes of scrollback to {}", missed.length, podName);
+            }
+            // chỉ gửi cho client vừa kết nối, các client khác không cần biết
+            TextMessage ready = eventMessage(podName, "terminal_ready",
+                "Terminal reconnected. You can continue typing.",
+                Map.of("labSessionId", terminalSession.getLabSessionId(), "outputOffset", scrollback.end()));
+            if (ready != null) {
+                queue.offer(ready, WebSocketSendQueue.Kind.CONTROL);
+            }
         }
     }
 
     /**
-     * Extract podName from WebSocket query string
+     * Open, active clients of a pod; closed ones found on the way are dropped
      */
-    private String extractPodNameFromQuery(String query) {
-        if (query == null || query.isEmpty()) {
-            return null;
+    private List<WebSocketSession> subscribers(String podName) {
+        Set<WebSocketSession> sessions = podSessions.get(podName);
+        if (sessions == null) {
+            return List.of();
         }
-        
-        for (String param : query.split("&")) {
-            String[] keyValue = param.split("=");
-            if (keyValue.length == 2 && "podName".equals(keyValue[0])) {
-                return keyValue[1];
+        List<WebSocketSession> open = new ArrayList<>(sessions.size());
+        for (WebSocketSession session : sessions) {
+            if (!session.isOpen()) {
+                log.debug("⚠️ WebSocket session {} is closed for podName: {}", session.getId(), podName);
+                removeSubscriber(podName, session);
+                activeConnections.remove(session.getId());
+                continue;
+            }
+            AtomicBoolean isActive = activeConnections.get(session.getId());
+            if (isActive != null && isActive.get()) {
+                open.add(session);
             }
         }
-        return null;
+        return open;
+    }
+
+    private void addSubscriber(String podName, WebSocketSession session) {
+        podSessions.compute(podName, (key, sessions) -> {
+            Set<WebSocketSession> updated = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            updated.add(session);
+            return updated;
+        });
+    }
+
+    private void removeSubscriber(String podName, WebSocketSession session) {
+        podSessions.computeIfPresent(podName, (key, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * Terminal output never gets dropped; a slow student pauses the SSH reader, but a slow
+     * viewer must not stall the student's terminal, so it is disconnected instead and
+     * catches up from the scrollback when it reconnects
+     */
+    private static WebSocketSendQueue.Kind terminalKind(WebSocketSession session) {
+        return isViewer(session) ? WebSocketSendQueue.Kind.CONTROL : WebSocketSendQueue.Kind.TERMINAL;
+    }
+
+    private static boolean isViewer(WebSocketSession session) {
+        return Boolean.TRUE.equals(session.getAttributes().get(VIEWER_ATTR));
+    }
+
+    /**
+     * Block the terminal's SSH reader while the connected client's send queue is backed up
+     */
+    private void awaitSendCapacity(String podName) {
+        for (WebSocketSession session : subscribers(podName)) {
+            if (!isViewer(session)) {
+                sendQueue(session).awaitCapacity();
+            }
+        }
+    }
+
+    /**
+     * Send queue depth across connected clients plus drops, reader pauses and slow-client closes so far
+     */
+    public Map<String, Object> getSendQueueStats() {
+        return sendCounters.stats(sendQueues());
+    }
+
+    private List<WebSocketSendQueue> sendQueues() {
+        return podSessions.values().stream()
+            .flatMap(Set::stream)
+            .map(PodLogWebSocketHandler::sendQueue)
+            .filter(Objects::nonNull)
+            .toList();
+    }
+
+    private static WebSocketSendQueue sendQueue(WebSocketSession session) {
+        return (WebSocketSendQueue) session.getAttributes().get(SEND_QUEUE_ATTR);
+    }
+
+    private static void closeSendQueue(WebSocketSession session) {
+        WebSocketSendQueue queue = sendQueue(session);
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    private static boolean isBinary(WebSocketSession session) {
+        return BINARY_PROTOCOL.equals(session.getAcceptedProtocol());
+    }
+
+    private static String podName(WebSocketSession session) {
+        return (String) session.getAttributes().get(POD_NAME_ATTR);
+    }
+
+    /**
+     * The active terminal this client types into. Bound when the client attaches or the terminal is
+     * set up; looked up by pod name only if that binding is missing or its terminal has closed.
+     */
+    private TerminalSessionData boundTerminal(WebSocketSession session) {
+        Map<String, Object> attributes = session.getAttributes();
+        TerminalSessionData terminalSession = (TerminalSessionData) attributes.get(TERMINAL_ATTR);
+        if (terminalSession != null && terminalSession.isActive()) {
+            return terminalSession;
+        }
+        String podName = podName(session);
+        terminalSession = podName != null ? terminalSessions.get(podName) : null;
+        if (terminalSession == null || !terminalSession.isActive()) {
+            return null;
+        }
+        attributes.put(TERMINAL_ATTR, terminalSession);
+        return terminalSession;
     }
 
     // ============= INNER CLASS: TERMINAL SESSION DATA =============
@@ -447,17 +929,30 @@ public class PodLogWebSocketHandler extends TextWebSocketHandler {
     private static class TerminalSessionData {
         private String podName;
         private int labSessionId;
-        private boolean active;
+        private volatile boolean active;
         private LocalDateTime createdAt;
-        private LocalDateTime lastActivityAt;
-        
-        // SSH resources
-        private ChannelShell sshChannel;
-        private OutputStream sshOutputStream;
-        private Thread outputReaderThread;
+        // epoch millis, cập nhật mỗi phím gõ nên không tạo LocalDateTime
+        private volatile long lastActivityMillis;
+        // idle reaper: đã cảnh báo client, và shell đã bị đóng (session SSH vẫn giữ)
+        private volatile boolean idleWarned;
+        private volatile boolean suspended;
+        // giữ khi mở/đóng shell và khi ghi input, để idle reaper không đóng shell giữa chừng
+        @lombok.Builder.Default
+        private final ReentrantLock shellLock = new ReentrantLock();
+        
+        // SSH resources: idle reaper thay chúng từ thread khác
+        private volatile SshChannel sshChannel;
+        private volatile OutputStream sshOutputStream;
+        private volatile TerminalRelay outputRelay;
+        private volatile TerminalOutputCoalescer outputCoalescer;
+        private TerminalScrollback scrollback;
+        private volatile TerminalInputCoalescer inputCoalescer;
         
         public void updateLastActivity() {
-            this.lastActivityAt = LocalDateTime.now();
+            this.lastActivityMillis = System.currentTimeMillis();
+            if (idleWarned) {
+                idleWarned = false;
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package com.example.infrastructure_service.handler;
+
+import com.example.infrastructure_service.cluster.ReplicaInfo;
+import com.example.infrastructure_service.cluster.ReplicaOwnership;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays a terminal WebSocket that reached a replica other than the session's owner to the
+ * owner's {@code /ws/pod-logs}, message for message in both directions, text and binary alike. Browsers do not follow
+ * redirects on a WebSocket handshake, so proxying is the only way to keep the student's URL.
+ * The upstream handshake carries {@link #PROXIED_BY_HEADER}, and the owner then serves it locally
+ * even if its own view of ownership disagrees, so a relay never loops.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class TerminalProxy {
+
+    public static final String PROXIED_BY_HEADER = "X-Lab-Proxied-By";
+    /** Handshake attribute holding the {@link ReplicaInfo} a connection must be relayed to. */
+    public static final String PROXY_TARGET_ATTR = "proxyTarget";
+    private static final String UPSTREAM_ATTR = "proxyUpstream";
+
+    private final ReplicaOwnership replicaOwnership;
+    private final StandardWebSocketClient client = new StandardWebSocketClient();
+
+    @Value("${cluster.proxy.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    public boolean isProxied(WebSocketSession session) {
+        return session.getAttributes().containsKey(PROXY_TARGET_ATTR);
+    }
+
+    /** Open the upstream connection to the owner; the client is closed if that fails. */
+    public void open(WebSocketSession downstream) throws IOException {
+        ReplicaInfo owner = (ReplicaInfo) downstream.getAttributes().get(PROXY_TARGET_ATTR);
+        URI target = upstreamUri(owner, downstream.getUri());
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.add(PROXIED_BY_HEADER, replicaOwnership.getReplicaId());
+        // giữ subprotocol đã thỏa thuận với client (binary/text) cho owner
+        if (downstream.getAcceptedProtocol() != null) {
+            headers.setSecWebSocketProtocol(downstream.getAcceptedProtocol());
+        }
+        try {
+            WebSocketSession upstream = client.execute(new Relay(downstream), headers, target)
+                .get(connectTimeoutMs, TimeUnit.MILLISECONDS);
+            downstream.getAttributes().put(UPSTREAM_ATTR, upstream);
+            log.info("🔀 Proxying WebSocket {} to replica {} ({})", downstream.getId(), owner.id(), target);
+        } catch (Exception e) {
+            log.error("❌ Failed to proxy WebSocket {} to replica {}: {}", downstream.getId(), owner.id(), e.getMessage());
+            downstream.close(CloseStatus.SERVICE_RESTARTED);
+        }
+    }
+
+    public void forward(WebSocketSession downstream, WebSocketMessage<?> message) throws IOException {
+        WebSocketSession upstream = (WebSocketSession) downstream.getAttributes().get(UPSTREAM_ATTR);
+        if (upstream == null || !upstream.isOpen()) {
+            log.debug("No upstream for proxied WebSocket {}", downstream.getId());
+            return;
+        }
+        synchronized (upstream) {
+            upstream.sendMessage(message);
+        }
+    }
+
+    public void close(WebSocketSession downstream, CloseStatus status) {
+        WebSocketSession upstream = (WebSocketSession) downstream.getAttributes().remove(UPSTREAM_ATTR);
+        if (upstream != null && upstream.isOpen()) {
+            try {
+                upstream.close(status);
+            } catch (IOException e) {
+                log.debug("Error closing upstream of proxied WebSocket {}: {}", downstream.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private static URI upstreamUri(ReplicaInfo owner, URI original) {
+        String base = owner.url().replaceFirst("^http", "ws");
+        String query = original.getRawQuery();
+        return URI.create(base + original.getRawPath() + (query != null ? "?" + query : ""));
+    }
+
+    /** Owner → client direction; the owner closing ends the client's connection too. */
+    private static final class Relay extends AbstractWebSocketHandler {
+        private final WebSocketSession downstream;
+
+        Relay(WebSocketSession downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void handleMessage(WebSocketSession upstream, WebSocketMessage<?> message) throws Exception {
+            if (!downstream.isOpen()) {
+                return;
+            }
+            synchronized (downstream) {
+                downstream.sendMessage(message);
+            }
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession upstream, CloseStatus status) throws Exception {
+            if (downstream.isOpen()) {
+                downstream.close(status);
+            }
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession upstream, Throwable exception) throws Exception {
+            log.debug("Upstream transport error for proxied WebSocket {}: {}", downstream.getId(), exception.getMessage());
+            if (downstream.isOpen()) {
+                downstream.close(CloseStatus.SERVER_ERROR);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.infrastructure_service.handler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded asynchronous send queue in front of one {@link WebSocketSession}.
+ *
+ * Callers (provisioning workers, the terminal's SSH reader, the output flusher) only enqueue;
+ * a single virtual thread per session drains the queue, so sends never overlap and a slow
+ * client never blocks the caller. When queued bytes pass {@code bufferLimitBytes} the message
+ * kind decides what happens:
+ * <ul>
+ *   <li>{@link Kind#PROGRESS}: queued progress events are stale once newer ones exist, so the
+ *       oldest are dropped to make room, and the new one too if that is not enough.</li>
+ *   <li>{@link Kind#TERMINAL}: never dropped. The terminal reader calls {@link #awaitCapacity()}
+ *       before handing on each read and stops reading while half the limit is queued, which
+ *       pushes back through the SSH window to the shell.</li>
+ *   <li>{@link Kind#CONTROL}: never dropped; if it still does not fit, the client is too slow
+ *       to be useful and the socket is closed so it can reconnect.</li>
+ * </ul>
+ * A single send running longer than {@code sendTimeLimitMs}, or a reader paused that long,
+ * also closes the socket. The drain thread is the one blocked in that send, so a stuck send is
+ * found by the next {@link #offer} or by the handler's periodic {@link Counters#closeStuck} sweep,
+ * whichever comes first: a socket that gets no further messages is closed as well.
+ */
+@Slf4j
+final class WebSocketSendQueue {
+
+    /**
+     * Event types that only report progress; a newer one makes an older one worthless.
+     * step_output is not one of them: each chunk is new output, and dropping one would splice the
+     * step's output, so it is queued as CONTROL.
+     */
+    private static final Set<String> PROGRESS_TYPES = Set.of("info", "progress", "connection");
+
+    enum Kind {
+        PROGRESS, CONTROL, TERMINAL;
+
+        static Kind forEvent(String type) {
+            return PROGRESS_TYPES.contains(type) ? PROGRESS : CONTROL;
+        }
+    }
+
+    /** Totals shared by all queues of one handler. */
+    static final class Counters {
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong readerPauses = new AtomicLong();
+        final AtomicLong slowCloses = new AtomicLong();
+
+        /** Close every queue whose current send has run past its time limit; returns how many. */
+        int closeStuck(Collection<WebSocketSendQueue> queues) {
+            int closed = 0;
+            for (WebSocketSendQueue queue : queues) {
+                if (queue.closeIfSendStuck()) {
+                    closed++;
+                }
+            }
+            return closed;
+        }
+
+        /** Current depth across the given open queues plus the totals so far. */
+        Map<String, Object> stats(Collection<WebSocketSendQueue> queues) {
+            int messages = 0;
+            long bytes = 0;
+            int deepest = 0;
+            for (WebSocketSendQueue queue : queues) {
+                queue.lock.lock();
+                try {
+                    messages += queue.queue.size();
+                    bytes += queue.queuedBytes;
+                    deepest = Math.max(deepest, queue.queuedBytes);
+                } finally {
+                    queue.lock.unlock();
+                }
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("sessions", queues.size());
+            stats.put("queuedMessages", messages);
+            stats.put("queuedBytes", bytes);
+            stats.put("deepestQueueBytes", deepest);
+            stats.put("dropped", dropped.get());
+            stats.put("readerPauses", readerPauses.get());
+            stats.put("slowCloses", slowCloses.get());
+            return stats;
+        }
+    }
+
+    private record Entry(WebSocketMessage<?> message, Kind kind, int size) {
+    }
+
+    private final WebSocketSession session;
+    private final int bufferLimitBytes;
+    private final long sendTimeLimitMs;
+    private final Counters counters;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private int queuedBytes;
+    private int peakQueuedBytes;
+    private boolean draining;
+    private long sendStartedAt;
+    private boolean closed;
+    private long sent;
+
+    WebSocketSendQueue(WebSocketSession session, int bufferLimitBytes, long sendTimeLimitMs, Counters counters) {
+        this.session = session;
+        this.bufferLimitBytes = bufferLimitBytes;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.counters = counters;
+    }
+
+    /** Queue a message without blocking; false if it was dropped or the socket is closing. */
+    boolean offer(WebSocketMessage<?> message, Kind kind) {
+        int size = message.getPayloadLength();
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (isSendStuck()) {
+                closeSlow("send blocked for more than " + sendTimeLimitMs + "ms");
+                return false;
+            }
+            if (kind != Kind.TERMINAL && queuedBytes + size > bufferLimitBytes) {
+                dropProgress(queuedBytes + size - bufferLimitBytes);
+                if (queuedBytes + size > bufferLimitBytes) {
+                    if (kind == Kind.PROGRESS) {
+                        counters.dropped.incrementAndGet();
+                        return false;
+                    }
+                    closeSlow("send queue full (" + queuedBytes + " bytes)");
+                    return false;
+                }
+            }
+            queue.add(new Entry(message, kind, size));
+            queuedBytes += size;
+            peakQueuedBytes = Math.max(peakQueuedBytes, queuedBytes);
+            if (!draining) {
+                draining = true;
+                Thread.ofVirtual().name("ws-send-" + session.getId()).start(this::drain);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block the terminal reader while half the limit is queued; false if the socket was closed
+     * meanwhile (including for staying backed up longer than the send time limit).
+     */
+    boolean awaitCapacity() {
+        lock.lock();
+        try {
+            if (closed || queuedBytes < bufferLimitBytes / 2) {
+                return !closed;
+            }
+            counters.readerPauses.incrementAndGet();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMs);
+            while (!closed && queuedBytes >= bufferLimitBytes / 2) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    closeSlow("terminal output backed up for more than " + sendTimeLimitMs + "ms");
+                    break;
+                }
+                drained.awaitNanos(remaining);
+            }
+            return !closed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Close the socket when the send in progress has run past the time limit. */
+    boolean closeIfSendStuck() {
+        lock.lock();
+        try {
+            if (closed || !isSendStuck()) {
+                return false;
+            }
+            closeSlow("send blocked for more than " + sendTimeLimitMs + "ms");
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stop sending and release a paused reader; called when the socket is gone. */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("queuedMessages", queue.size());
+            stats.put("queuedBytes", queuedBytes);
+            stats.put("peakQueuedBytes", peakQueuedBytes);
+            stats.put("sent", sent);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            lock.lock();
+            try {
+                entry = queue.poll();
+                if (entry == null || closed) {
+                    draining = false;
+                    return;
+                }
+                sendStartedAt = System.currentTimeMillis();
+            } finally {
+                lock.unlock();
+            }
+
+            boolean failed = false;
+            try {
+                session.sendMessage(entry.message());
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Failed to send WebSocket message to {}: {}", session.getId(), e.getMessage());
+                failed = true;
+            }
+
+            lock.lock();
+            try {
+                sendStartedAt = 0;
+                queuedBytes = Math.max(0, queuedBytes - entry.size());
+                sent++;
+                drained.signalAll();
+                if (failed) {
+                    close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Caller holds the lock. */
+    private boolean isSendStuck() {
+        return sendStartedAt != 0 && System.currentTimeMillis() - sendStartedAt > sendTimeLimitMs;
+    }
+
+    /** Caller holds the lock; drops the oldest queued progress events until {@code bytes} are freed. */
+    private void dropProgress(int bytes) {
+        Iterator<Entry> it = queue.iterator();
+        while (bytes > 0 && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.kind() == Kind.PROGRESS) {
+                it.remove();
+                queuedBytes -= entry.size();
+                bytes -= entry.size();
+                counters.dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /** Caller holds the lock; the close itself may block on the socket, so it runs elsewhere. */
+    private void closeSlow(String reason) {
+        log.warn("🐢 Closing slow WebSocket {}: {}", session.getId(), reason);
+        counters.slowCloses.incrementAndGet();
+        close();
+        Thread.startVirtualThread(() -> {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("Error closing slow WebSocket {}: {}", session.getId(), e.getMessage());
+            }
+        });
+    }
+}
@@ -12,10 +12,13 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class LabSessionCleanupConsumer {
 
+    private static final String TOPIC = "lab-session-cleanup-requests";
+
     private final ResourceCleanupService resourceCleanupService;
+    private final SessionRequestRouter sessionRequestRouter;
 
     @KafkaListener(
-            topics = "lab-session-cleanup-requests",
+            topics = TOPIC,
             groupId = "infrastructure-service",
             containerFactory = "cleanupKafkaListenerContainerFactory"
     )
@@ -23,10 +26,29 @@ public class LabSessionCleanupConsumer {
         log.info(" Received cleanup request: labSessionId={}, vmName={}, namespace={}",
                 request.getLabSessionId(), request.getVmName(), request.getNamespace());
 
+        // terminal và SSH session chỉ đóng được trên replica đang giữ chúng
+        if (sessionRequestRouter.forwardToOwner(TOPIC, request.getLabSessionId(), request)) {
+            return;
+        }
+        handleCleanupRequest(request);
+    }
+
+    @KafkaListener(
+            topics = "#{@sessionRequestRouter.directTopic('" + TOPIC + "')}",
+            groupId = "#{@sessionRequestRouter.directGroupId()}",
+            containerFactory = "cleanupKafkaListenerContainerFactory"
+    )
+    public void consumeForwardedCleanupRequest(LabSessionCleanupRequest request) {
+        log.info(" Received forwarded cleanup request: labSessionId={}, vmName={}",
+                request.getLabSessionId(), request.getVmName());
+        handleCleanupRequest(request);
+    }
+
+    private void handleCleanupRequest(LabSessionCleanupRequest request) {
         try {
             resourceCleanupService.handleCleanupRequest(request);
         } catch (Exception e) {
             log.error(" Failed to process cleanup request: {}", e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package com.example.infrastructure_service.kafka;
+
+import com.example.infrastructure_service.cluster.ReplicaInfo;
+import com.example.infrastructure_service.cluster.ReplicaOwnership;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends per-session requests to the replica that holds the session's SSH connection and terminal.
+ *
+ * All replicas share the consumer group of the request topics, so a request can land anywhere.
+ * When another live replica has claimed its session it is republished, keyed by labSessionId, to
+ * that replica's direct topic ({@code <topic>.replica.<replicaId>}), which only the owner consumes
+ * (in its own group). Requests read from a direct topic are always handled where they arrive, so a
+ * request is forwarded at most once even while ownership is moving.
+ */
+@Component
+@Slf4j
+public class SessionRequestRouter {
+
+    private final ReplicaOwnership replicaOwnership;
+    private final KafkaTemplate<String, Object> sessionRequestKafkaTemplate;
+
+    @Value("${cluster.kafka.forward-timeout-ms:5000}")
+    private long forwardTimeoutMs;
+
+    public SessionRequestRouter(ReplicaOwnership replicaOwnership,
+                                @Qualifier("sessionRequestKafkaTemplate") KafkaTemplate<String, Object> sessionRequestKafkaTemplate) {
+        this.replicaOwnership = replicaOwnership;
+        this.sessionRequestKafkaTemplate = sessionRequestKafkaTemplate;
+    }
+
+    /** This replica's direct topic for {@code topic}; used in {@code @KafkaListener} expressions. */
+    public String directTopic(String topic) {
+        return directTopic(topic, replicaOwnership.getReplicaId());
+    }
+
+    /** Consumer group of this replica's direct topics, so every replica reads its own in full. */
+    public String directGroupId() {
+        return "infrastructure-service-" + topicSafe(replicaOwnership.getReplicaId());
+    }
+
+    /**
+     * Republish {@code request} to the owner of {@code labSessionId} when that is another replica.
+     *
+     * @return true when the request was handed to the owner; false when it should be handled here
+     *         (this replica owns it, no live replica has claimed it, or forwarding failed)
+     */
+    public boolean forwardToOwner(String topic, Integer labSessionId, Object request) {
+        if (labSessionId == null) {
+            return false;
+        }
+        // chỉ chuyển khi có replica còn sống đã claim session; không dùng ring vì nó chưa có kết nối SSH
+        ReplicaInfo owner = replicaOwnership.recordedOwner(labSessionId).orElse(null);
+        if (replicaOwnership.isLocal(owner)) {
+            return false;
+        }
+        String target = directTopic(topic, owner.id());
+        try {
+            sessionRequestKafkaTemplate.send(target, String.valueOf(labSessionId), request)
+                .get(forwardTimeoutMs, TimeUnit.MILLISECONDS);
+            log.info("🔀 Forwarded {} for labSessionId={} to replica {}", topic, labSessionId, owner.id());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            // không chuyển được thì xử lý tại đây như trước (mở tunnel mới)
+            log.warn("⚠️ Failed to forward {} for labSessionId={} to replica {}: {}. Handling locally.",
+                topic, labSessionId, owner.id(), e.getMessage());
+            return false;
+        }
+    }
+
+    private static String directTopic(String topic, String replicaId) {
+        return topic + ".replica." + topicSafe(replicaId);
+    }
+
+    private static String topicSafe(String value) {
+        return value.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
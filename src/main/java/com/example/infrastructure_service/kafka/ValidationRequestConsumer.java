@@ -1,5 +1,6 @@
 package com.example.infrastructure_service.kafka;
 
+import com.example.infrastructure_service.dto.ValidationBatchRequest;
 import com.example.infrastructure_service.dto.ValidationRequest;
 import com.example.infrastructure_service.service.ValidationService;
 import lombok.RequiredArgsConstructor;
@@ -12,10 +13,14 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class ValidationRequestConsumer {
     
+    private static final String TOPIC = "lab-validation-requests";
+    private static final String BATCH_TOPIC = "lab-validation-batch-requests";
+
     private final ValidationService validationService;
+    private final SessionRequestRouter sessionRequestRouter;
     
     @KafkaListener(
-        topics = "lab-validation-requests", 
+        topics = TOPIC, 
         groupId = "infrastructure-service",
         containerFactory = "validationKafkaListenerContainerFactory"
     )
@@ -23,10 +28,62 @@ public class ValidationRequestConsumer {
         log.info("📥 Received validation request: labSessionId={}, questionId={}", 
             request.getLabSessionId(), request.getQuestionId());
         
+        if (sessionRequestRouter.forwardToOwner(TOPIC, request.getLabSessionId(), request)) {
+            return;
+        }
+        handleValidationRequest(request);
+    }
+
+    // request được replica khác chuyển tới vì replica này giữ SSH session của lab
+    @KafkaListener(
+        topics = "#{@sessionRequestRouter.directTopic('" + TOPIC + "')}",
+        groupId = "#{@sessionRequestRouter.directGroupId()}",
+        containerFactory = "validationKafkaListenerContainerFactory"
+    )
+    public void consumeForwardedValidationRequest(ValidationRequest request) {
+        log.info("📥 Received forwarded validation request: labSessionId={}, questionId={}", 
+            request.getLabSessionId(), request.getQuestionId());
+        handleValidationRequest(request);
+    }
+    
+    @KafkaListener(
+        topics = BATCH_TOPIC, 
+        groupId = "infrastructure-service",
+        containerFactory = "validationBatchKafkaListenerContainerFactory"
+    )
+    public void consumeValidationBatchRequest(ValidationBatchRequest request) {
+        log.info("📥 Received validation batch request: labSessionId={}, validations={}", 
+            request.getLabSessionId(), request.getValidations() != null ? request.getValidations().size() : 0);
+        
+        if (sessionRequestRouter.forwardToOwner(BATCH_TOPIC, request.getLabSessionId(), request)) {
+            return;
+        }
+        handleValidationBatchRequest(request);
+    }
+
+    @KafkaListener(
+        topics = "#{@sessionRequestRouter.directTopic('" + BATCH_TOPIC + "')}",
+        groupId = "#{@sessionRequestRouter.directGroupId()}",
+        containerFactory = "validationBatchKafkaListenerContainerFactory"
+    )
+    public void consumeForwardedValidationBatchRequest(ValidationBatchRequest request) {
+        log.info("📥 Received forwarded validation batch request: labSessionId={}", request.getLabSessionId());
+        handleValidationBatchRequest(request);
+    }
+
+    private void handleValidationRequest(ValidationRequest request) {
         try {
             validationService.handleValidationRequest(request);
         } catch (Exception e) {
             log.error("❌ Failed to process validation request: {}", e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    private void handleValidationBatchRequest(ValidationBatchRequest request) {
+        try {
+            validationService.handleValidationBatchRequest(request);
+        } catch (Exception e) {
+            log.error("❌ Failed to process validation batch request: {}", e.getMessage(), e);
+        }
+    }
+}
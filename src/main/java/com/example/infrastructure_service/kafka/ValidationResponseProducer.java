@@ -1,5 +1,6 @@
 package com.example.infrastructure_service.kafka;
 
+import com.example.infrastructure_service.dto.ValidationBatchResponse;
 import com.example.infrastructure_service.dto.ValidationResponse;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -16,11 +17,12 @@ public class ValidationResponseProducer {
     private final ObjectMapper objectMapper;
     
     private static final String TOPIC = "lab-validation-responses";
+    private static final String BATCH_TOPIC = "lab-validation-batch-responses";
     
     public void sendValidationResponse(ValidationResponse response) {
         try {
             String message = objectMapper.writeValueAsString(response);
-            kafkaTemplate.send(TOPIC, message);
+            kafkaTemplate.send(TOPIC, String.valueOf(response.getLabSessionId()), message);
             log.info("📤 Sent validation response: labSessionId={}, questionId={}, isCorrect={}", 
                 response.getLabSessionId(), response.getQuestionId(), response.isCorrect());
         } catch (Exception e) {
@@ -28,4 +30,17 @@ public class ValidationResponseProducer {
             throw new RuntimeException("Failed to send validation response", e);
         }
     }
+    
+    public void sendValidationBatchResponse(ValidationBatchResponse response) {
+        try {
+            String message = objectMapper.writeValueAsString(response);
+            kafkaTemplate.send(BATCH_TOPIC, String.valueOf(response.getLabSessionId()), message);
+            log.info("📤 Sent validation batch response: labSessionId={}, results={}, correct={}", 
+                response.getLabSessionId(), response.getResults().size(),
+                response.getResults().stream().filter(ValidationResponse::isCorrect).count());
+        } catch (Exception e) {
+            log.error("❌ Failed to send validation batch response", e);
+            throw new RuntimeException("Failed to send validation batch response", e);
+        }
+    }
 }
\ No newline at end of file
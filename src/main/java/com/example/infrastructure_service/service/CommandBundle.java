@@ -0,0 +1,161 @@
+package com.example.infrastructure_service.service;
+
+import com.example.infrastructure_service.dto.ExecuteCommandResult;
+import com.example.infrastructure_service.ssh.HeadTailCapture;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Several commands for one VM (setup steps, validations) as one shell script, run on a single
+ * exec channel.
+ *
+ * The script is sent on stdin to {@link #COMMAND}, which saves it to a temp dir and runs it.
+ * Each step runs under {@code timeout} with its own stdout/stderr files. The script frames every
+ * step on stdout as:
+ * <pre>
+ * &lt;marker&gt; START &lt;index&gt;
+ * &lt;marker&gt; END &lt;index&gt; &lt;exitCode&gt; &lt;elapsedMs&gt; &lt;timedOut&gt; &lt;stdoutBytes&gt; &lt;stderrBytes&gt;
+ * &lt;stdout bytes&gt;&lt;stderr bytes&gt;
+ * </pre>
+ * The marker carries a random nonce, so step output cannot fake a frame. A step without
+ * {@code continueOnFailure} stops the script when it fails or times out.
+ */
+final class CommandBundle {
+
+    /** Runs the script read from stdin and removes it afterwards. */
+    static final String COMMAND = "d=$(mktemp -d) && cat > \"$d/bundle.sh\" && bash \"$d/bundle.sh\" \"$d\"; "
+        + "rc=$?; rm -rf \"$d\"; exit $rc";
+
+    record Step(int timeoutSeconds, int expectedExitCode, boolean continueOnFailure, String command) {}
+
+    interface Listener {
+        void onStart(int index) throws Exception;
+
+        void onResult(int index, ExecuteCommandResult result, long elapsedMs, boolean timedOut) throws Exception;
+    }
+
+    // thời gian để timeout kill process con trước khi bị SIGKILL
+    private static final int KILL_AFTER_SECONDS = 5;
+    private static final int MAX_HEADER_LENGTH = 512;
+
+    private final List<Step> steps;
+    private final String nonce = UUID.randomUUID().toString().replace("-", "");
+    private final String marker = "@@LAB_STEP_" + nonce;
+
+    CommandBundle(List<Step> steps) {
+        this.steps = steps;
+    }
+
+    byte[] script() {
+        StringBuilder script = new StringBuilder()
+            .append("d=\"$1\"\n")
+            .append("M='").append(marker).append("'\n")
+            .append("now() { date +%s%3N; }\n");
+        for (int i = 0; i < steps.size(); i++) {
+            // heredoc có quote nên lệnh được ghi nguyên văn, không bị shell expand
+            String delimiter = "LAB_STEP_EOF_" + nonce;
+            script.append("cat > \"$d/").append(i).append(".sh\" <<'").append(delimiter).append("'\n")
+                .append(steps.get(i).command()).append('\n')
+                .append(delimiter).append('\n');
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            script.append("printf '%s START %s\\n' \"$M\" ").append(i).append('\n')
+                .append("s=$(now)\n")
+                .append("(cd ~ && timeout -k ").append(KILL_AFTER_SECONDS).append(' ').append(step.timeoutSeconds())
+                .append(" bash \"$d/").append(i).append(".sh\") </dev/null >\"$d/").append(i).append(".out\" 2>\"$d/")
+                .append(i).append(".err\"\n")
+                .append("rc=$?; e=$(( $(now) - s ))\n")
+                // 124: dừng bởi SIGTERM; 137: bỏ qua SIGTERM nên bị SIGKILL sau KILL_AFTER_SECONDS
+                .append("t=0; { [ $rc -eq 124 ] || [ $rc -eq 137 ]; } && [ $e -ge ").append(step.timeoutSeconds() * 1000L).append(" ] && t=1\n")
+                // chụp kích thước trước rồi đọc đúng số byte đó, process nền còn ghi tiếp cũng không làm lệch frame
+                .append("no=$(stat -c %s \"$d/").append(i).append(".out\"); ne=$(stat -c %s \"$d/").append(i).append(".err\")\n")
+                .append("printf '%s END %s %s %s %s %s %s\\n' \"$M\" ").append(i).append(" $rc $e $t $no $ne\n")
+                .append("head -c $no \"$d/").append(i).append(".out\"; head -c $ne \"$d/").append(i).append(".err\"\n")
+                .append("rm -f \"$d/").append(i).append(".out\" \"$d/").append(i).append(".err\"\n");
+            if (!step.continueOnFailure()) {
+                script.append("[ $t -eq 1 ] && exit 0\n")
+                    .append("[ $rc -ne ").append(step.expectedExitCode()).append(" ] && exit 0\n");
+            }
+        }
+        script.append("exit 0\n");
+        return script.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Total time the bundle may take: every step's timeout plus some slack per step. */
+    int timeoutSeconds() {
+        return steps.stream().mapToInt(step -> step.timeoutSeconds() + KILL_AFTER_SECONDS + 2).sum() + 30;
+    }
+
+    /**
+     * Read the framed stdout of the script and report every step to {@code listener} as soon as
+     * its frame arrives. Lines outside a frame are ignored.
+     */
+    void parse(InputStream rawStdout, int captureHeadBytes, int captureTailBytes, Listener listener) throws IOException {
+        InputStream stdout = new BufferedInputStream(rawStdout);
+        String line;
+        while ((line = readLine(stdout)) != null) {
+            if (!line.startsWith(marker + " ")) {
+                continue;
+            }
+            String[] fields = line.substring(marker.length() + 1).split(" ");
+            try {
+                if (fields[0].equals("START") && fields.length == 2) {
+                    listener.onStart(Integer.parseInt(fields[1]));
+                } else if (fields[0].equals("END") && fields.length == 7) {
+                    int index = Integer.parseInt(fields[1]);
+                    int exitCode = Integer.parseInt(fields[2]);
+                    long elapsedMs = Long.parseLong(fields[3]);
+                    boolean timedOut = fields[4].equals("1");
+                    HeadTailCapture out = new HeadTailCapture(captureHeadBytes, captureTailBytes);
+                    HeadTailCapture err = new HeadTailCapture(captureHeadBytes, captureTailBytes);
+                    copy(stdout, Long.parseLong(fields[5]), out);
+                    copy(stdout, Long.parseLong(fields[6]), err);
+                    listener.onResult(index,
+                        new ExecuteCommandResult(exitCode, out.toText().trim(), err.toText().trim()),
+                        elapsedMs, timedOut);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed command bundle frame: " + line, e);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void copy(InputStream in, long length, HeadTailCapture capture) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Command bundle output ended inside a step frame");
+            }
+            capture.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            // dòng ngoài frame (vd. từ .bashrc) có thể dài, chỉ giữ phần đầu để so marker
+            if (line.size() < MAX_HEADER_LENGTH) {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
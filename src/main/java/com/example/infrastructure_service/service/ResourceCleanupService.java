@@ -1,12 +1,16 @@
 package com.example.infrastructure_service.service;
 
+import com.example.infrastructure_service.agent.GuestAgentClient;
 import com.example.infrastructure_service.dto.LabSessionCleanupRequest;
 import com.example.infrastructure_service.handler.PodLogWebSocketHandler;
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+
 @Service
 @Slf4j
 @RequiredArgsConstructor
@@ -15,7 +19,10 @@ public class ResourceCleanupService {
     private final VMService vmService;
     private final TerminalSessionService terminalSessionService;
     private final SshSessionCache sshSessionCache;
+    private final ValidationShellRegistry validationShellRegistry;
     private final PodLogWebSocketHandler podLogWebSocketHandler;
+    private final PortForwardTunnelManager tunnelManager;
+    private final GuestAgentClient agentClient;
 
     private static final long SSH_CLEANUP_DELAY_MS = 2000;
     private static final long K8S_RESOURCE_DELAY_MS = 3000;
@@ -27,11 +34,14 @@ public class ResourceCleanupService {
                 request.getLabSessionId(), request.getVmName(), request.getNamespace());
 
         try {
+            Map<String, String> sessionInfo = terminalSessionService.getSession(request.getLabSessionId());
+            String podName = sessionInfo != null ? sessionInfo.get("podName") : null;
+
             log.info("Step 1: Cleaning up terminal session...");
             cleanupTerminalSession(request);
             sleep(SSH_CLEANUP_DELAY_MS);
             log.info("Step 2: Cleaning up SSH session cache...");
-            cleanupSshSession(request);
+            cleanupSshSession(request, podName);
             sleep(K8S_RESOURCE_DELAY_MS);
             log.info("Step 3: Deleting Kubernetes resources...");
             deleteKubernetesResources(request);
@@ -50,16 +60,27 @@ public class ResourceCleanupService {
             podLogWebSocketHandler.cleanupTerminal(request.getVmName());
             terminalSessionService.removeSession(request.getLabSessionId());
             log.info("Terminal session cleaned up for vmName={}", request.getVmName());
+            log.info("WebSocket send queue stats: {}", podLogWebSocketHandler.getSendQueueStats());
+            log.info("Idle terminal reaper stats: {}", podLogWebSocketHandler.getIdleReaperStats());
         } catch (Exception e) {
             log.warn("Error cleaning up terminal session: {}", e.getMessage());
         }
     }
 
-    private void cleanupSshSession(LabSessionCleanupRequest request) {
+    private void cleanupSshSession(LabSessionCleanupRequest request, String podName) {
         try {
             String cacheKey = "lab-session-" + request.getLabSessionId();
+            validationShellRegistry.close(cacheKey);
+            agentClient.closeSession(request.getLabSessionId());
             sshSessionCache.cleanup(cacheKey);
             log.info("SSH session cache cleaned up for key={}", cacheKey);
+
+            if (podName != null) {
+                tunnelManager.closePodTunnels(request.getNamespace(), podName);
+            }
+            log.info("Port-forward tunnel stats: {}", tunnelManager.getStats());
+            log.info("SSH session cache stats: {}", sshSessionCache.getStats());
+            log.info("Agent connection stats: {}", agentClient.getStats());
         } catch (Exception e) {
             log.warn("Error cleaning up SSH session cache: {}", e.getMessage());
         }
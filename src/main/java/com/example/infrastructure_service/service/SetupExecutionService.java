@@ -1,23 +1,38 @@
 package com.example.infrastructure_service.service;
 
+import com.example.infrastructure_service.agent.GuestAgentClient;
 import com.example.infrastructure_service.dto.ExecuteCommandResult;
 import com.example.infrastructure_service.dto.LabTestRequest;
 import com.example.infrastructure_service.dto.UserLabSessionRequest;
 import com.example.infrastructure_service.handler.AdminTestWebSocketHandler;
-import com.example.infrastructure_service.socket.K8sTunnelSocketFactory;
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import com.example.infrastructure_service.ssh.CommandConnection;
+import com.example.infrastructure_service.ssh.ConnectPolicy;
+import com.example.infrastructure_service.ssh.OutputCoalescer;
+import com.example.infrastructure_service.ssh.RemoteCommandExecutor;
+import com.example.infrastructure_service.ssh.SshConnection;
+import com.example.infrastructure_service.ssh.SshConnector;
+import com.example.infrastructure_service.ssh.SshReadinessProbe;
+import com.example.infrastructure_service.ssh.SshTarget;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jcraft.jsch.*;
-import io.kubernetes.client.openapi.ApiClient;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -25,7 +40,11 @@ import java.util.stream.Collectors;
 public class SetupExecutionService {
     
     private final ObjectMapper objectMapper;
-    private final ApiClient apiClient;
+    private final PortForwardTunnelManager tunnelManager;
+    private final SshConnector sshConnector;
+    private final RemoteCommandExecutor commandExecutor;
+    private final GuestAgentClient agentClient;
+    private final SshReadinessProbe sshReadinessProbe;
     
     private final AdminTestWebSocketHandler adminTestWebSocketHandler;
     private static final Logger executionLogger = LoggerFactory.getLogger("executionLogger");
@@ -35,14 +54,60 @@ public class SetupExecutionService {
 
     @Value("${ssh.default.password}")
     private String defaultPassword;
+
+    @Value("${command.backend:ssh}")
+    private String commandBackend;
+
+    @Value("${setup.bundle.enabled:false}")
+    private boolean setupBundleEnabled;
+
+    @Value("${ssh.exec.capture.head-bytes:32768}")
+    private int captureHeadBytes;
+
+    @Value("${ssh.exec.capture.tail-bytes:32768}")
+    private int captureTailBytes;
+
+    @Value("${agent.probe-budget-ms:20000}")
+    private long agentProbeBudgetMs;
+
+    @Value("${setup.parallelism:4}")
+    private int setupParallelism;
+
+    @Value("${setup.stream.flush-interval-ms:250}")
+    private long streamFlushIntervalMs;
+
+    @Value("${setup.stream.max-chunk-chars:4096}")
+    private int streamMaxChunkChars;
+
+    @Value("${setup.stream.max-bytes-per-second:16384}")
+    private long streamMaxBytesPerSecond;
+
+    // mỗi step chạy trên một virtual thread, số step song song do setup.parallelism giới hạn
+    private final ExecutorService stepRunners = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("setup-step-", 0).factory()
+    );
+
+    // một thread dùng chung để flush output của mọi step đang chạy
+    private final ScheduledExecutorService outputFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "setup-output-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     public SetupExecutionService(
             ObjectMapper objectMapper,
-            @Qualifier("longTimeoutApiClient") ApiClient apiClient, 
+            PortForwardTunnelManager tunnelManager,
+            SshConnector sshConnector,
+            RemoteCommandExecutor commandExecutor,
+            GuestAgentClient agentClient,
+            SshReadinessProbe sshReadinessProbe,
             AdminTestWebSocketHandler adminTestWebSocketHandler) {
         this.objectMapper = objectMapper;
-        this.apiClient = apiClient;
-        this.apiClient.setReadTimeout(0);
+        this.tunnelManager = tunnelManager;
+        this.sshConnector = sshConnector;
+        this.commandExecutor = commandExecutor;
+        this.agentClient = agentClient;
+        this.sshReadinessProbe = sshReadinessProbe;
         this.adminTestWebSocketHandler = adminTestWebSocketHandler;
     }
     
@@ -50,8 +115,7 @@ public class SetupExecutionService {
         log.info("Starting setup steps execution for lab test: {} via K8s SocketFactory", request.getTestVmName());
         
         String vmName = request.getTestVmName();
-        JSch jsch = new JSch();
-        Session sshSession = null;
+        CommandConnection sshSession = null;
         
         try {
             List<Map<String, Object>> setupSteps = objectMapper.readValue(
@@ -71,88 +135,70 @@ public class SetupExecutionService {
 
             adminTestWebSocketHandler.broadcastLog(vmName, "info", 
                 String.format("Found %d setup steps to execute", setupSteps.size()), null);
-            sshSession = connectSshWithRetry(jsch, request.getNamespace(), podName, 20, 5000);
+            sshSession = openCommandConnection(request.getNamespace(), vmName, podName);
             adminTestWebSocketHandler.broadcastLog(vmName, "success", "SSH connected successfully", null);
             
             log.info("[Test VM {}] SSH connected via K8s Tunnel. Executing steps...", request.getTestVmName());
-            int currentStep = 0;
+            // số step thành công (step_success), khác với số step đã chạy
+            AtomicInteger completedSteps = new AtomicInteger();
             int totalSteps = setupSteps.size();
-            for (Map<String, Object> step : setupSteps) {
-                String title = (String) step.get("title");
-                String command = (String) step.get("setupCommand");
-                Integer expectedExitCode = (Integer) step.getOrDefault("expectedExitCode", 0);
-                Integer timeoutSeconds = (Integer) step.getOrDefault("timeoutSeconds", 300);
-                Boolean continueOnFailure = (Boolean) step.getOrDefault("continueOnFailure", false);
-                
-                log.info("[Test VM {}] Executing: {}", request.getTestVmName(), title);
-                
-                adminTestWebSocketHandler.broadcastLog(vmName, "step_start", 
-                    String.format(" [%d/%d] Executing: %s", currentStep, totalSteps, title),
-                    Map.of(
-                        "stepNumber", currentStep,
-                        "totalSteps", totalSteps,
-                        "title", title,
-                        "command", command
-                    ));
-                ExecuteCommandResult result = executeCommandOnSession(
-                    sshSession, 
-                    command, 
-                    timeoutSeconds
-                );
-                
-                
-                logStepResult(request.getTestVmName(), title, result, expectedExitCode);
-                
-                boolean isSuccess = result.getExitCode() == expectedExitCode;
-                 if (isSuccess) {
-                     currentStep++; 
-                    adminTestWebSocketHandler.broadcastLog(vmName, "step_success",
-                        String.format("[%d/%d] Completed: %s", currentStep, totalSteps, title),
-                        Map.of(
-                            "stepNumber", currentStep,
-                            "totalSteps", totalSteps,
-                            "title", title,
-                            "exitCode", result.getExitCode(),
-                            "stdout", truncateOutput(result.getStdout(), 500)
-                        ));
-                } else {
-                    adminTestWebSocketHandler.broadcastLog(vmName, "step_failed",
-                        String.format(" [%d/%d] Failed: %s (exit code: %d)", 
-                            currentStep, totalSteps, title, result.getExitCode()),
-                        Map.of(
-                            "stepNumber", currentStep,
-                            "totalSteps", totalSteps,
-                            "title", title,
-                            "exitCode", result.getExitCode(),
-                            "expectedExitCode", expectedExitCode,
-                            "stdout", truncateOutput(result.getStdout(), 500),
-                            "stderr", truncateOutput(result.getStderr(), 500)
-                        ));
-                    
-                    if (!continueOnFailure) {
-                            adminTestWebSocketHandler.broadcastLog(vmName, "error",
-                            " Setup aborted due to step failure", null);
-                        break;
-                    } else {
-                        adminTestWebSocketHandler.broadcastLog(vmName, "warning",
-                            " Continuing despite failure (continueOnFailure=true)", null);
-                    }
-                }
-                if (result.getExitCode() != expectedExitCode) {
-                    if (!continueOnFailure) {
-                        break;
+            int executedSteps;
+            CommandConnection connection = sshSession;
+            if (useBundle(connection)) {
+                executedSteps = runBundle(vmName, connection, setupSteps,
+                    step -> new CommandBundle.Step(
+                        (Integer) step.getOrDefault("timeoutSeconds", 300),
+                        (Integer) step.getOrDefault("expectedExitCode", 0),
+                        (Boolean) step.getOrDefault("continueOnFailure", false),
+                        (String) step.get("setupCommand")),
+                    new BundledStepListener() {
+                        @Override
+                        public void onStart(int stepNumber, Map<String, Object> step) {
+                            announceTestStep(vmName, step, stepNumber, totalSteps);
+                        }
+
+                        @Override
+                        public void onResult(int stepNumber, Map<String, Object> step, ExecuteCommandResult result) {
+                            // bundle trả output theo từng step, gửi một lần khi step xong
+                            String output = joinOutput(result);
+                            if (!output.isEmpty()) {
+                                adminTestWebSocketHandler.broadcastLog(vmName, "step_output", output, Map.of(
+                                    "stepNumber", stepNumber,
+                                    "totalSteps", totalSteps,
+                                    "title", step.get("title")
+                                ));
+                            }
+                            reportTestStep(vmName, step, result, stepNumber, completedSteps, totalSteps);
+                        }
+                    });
+            } else {
+                executedSteps = runStepGraph(vmName, setupSteps, (stepNumber, step) -> {
+                    // các step song song có số riêng, theo thứ tự trong danh sách
+                    Map<String, Object> stepInfo = announceTestStep(vmName, step, stepNumber, totalSteps);
+                    ExecuteCommandResult result;
+                    // stream output của step về admin theo từng chunk thay vì chờ step chạy xong
+                    try (OutputCoalescer stepOutput = new OutputCoalescer(
+                            outputFlusher, streamFlushIntervalMs, streamMaxChunkChars, streamMaxBytesPerSecond,
+                            chunk -> adminTestWebSocketHandler.broadcastLog(vmName, "step_output", chunk, stepInfo))) {
+                        result = commandExecutor.execute(
+                            connection, 
+                            (String) step.get("setupCommand"), 
+                            (Integer) step.getOrDefault("timeoutSeconds", 300),
+                            stepOutput::append
+                        );
                     }
-                }
+                    return reportTestStep(vmName, step, result, stepNumber, completedSteps, totalSteps);
+                });
             }
             adminTestWebSocketHandler.broadcastLog(vmName, "setup_complete",
-                String.format(" Setup completed: %d/%d steps executed", currentStep, totalSteps),
-                Map.of("executedSteps", currentStep, "totalSteps", totalSteps));
+                String.format(" Setup completed: %d/%d steps succeeded", completedSteps.get(), totalSteps),
+                Map.of("completedSteps", completedSteps.get(), "executedSteps", executedSteps, "totalSteps", totalSteps));
         } catch (Exception e) {
             log.error("Setup failed for test VM {}: {}", request.getTestVmName(), e.getMessage(), e);
             throw e;
         } finally {
             if (sshSession != null && sshSession.isConnected()) {
-                sshSession.disconnect();
+                sshSession.close();
             }
         }
     }
@@ -160,8 +206,7 @@ public class SetupExecutionService {
     public void executeSetupStepsForUserSession(UserLabSessionRequest request, String podName) throws Exception {
         log.info("Starting setup steps execution for user lab session: {} via K8s SocketFactory", request.getVmName());
         
-        JSch jsch = new JSch();
-        Session sshSession = null;
+        CommandConnection sshSession = null;
         
         try {
             List<Map<String, Object>> setupSteps = objectMapper.readValue(
@@ -178,31 +223,36 @@ public class SetupExecutionService {
                 .sorted(Comparator.comparing(step -> (Integer) step.get("stepOrder")))
                 .collect(Collectors.toList());
             
-                // thực hiện khởi tạo connection trước khi thực thi các câu lênh, sau đó tái sử dụng session để thực thi cấc câu lệnh tuần tự 
-            sshSession = connectSshWithRetry(jsch, request.getNamespace(), podName, 20, 5000);
+                // thực hiện khởi tạo connection trước khi thực thi các câu lênh, sau đó tái sử dụng session cho mọi step (mỗi step một exec channel riêng)
+            sshSession = openCommandConnection(request.getNamespace(), request.getVmName(), podName);
             
             log.info("[User Session VM {}] SSH connected via K8s Tunnel. Executing steps...", request.getVmName());
             
-            for (Map<String, Object> step : setupSteps) {
-                Integer stepOrder = (Integer) step.get("stepOrder");
-                String description = (String) step.get("description");
-                
-                
-                String commandScript = (String) step.get("setupCommand");
-                log.info("[User Session VM {}] Executing Step {}: {}", request.getVmName(), stepOrder, description);
-                executionLogger.info("Executing Step {}: {}", stepOrder, description);
-                
-                ExecuteCommandResult result = executeCommandOnSession(sshSession, commandScript, 300);
-                
-                log.info("[User Session VM {}] Step {} completed with exit code: {}", 
-                    request.getVmName(), stepOrder, result.getExitCode());
-                
-                if (result.getExitCode() != 0) {
-                    executionLogger.error("USER_SESSION_VM={}|STEP='{}'|FAILED|Code={}\nOUT: {}",
-                        request.getVmName(), description, result.getExitCode(), result.getStdout());
-                } else {
-                    executionLogger.info("USER_SESSION_VM={}|STEP='{}'|SUCCESS", request.getVmName(), description);
-                }
+            CommandConnection connection = sshSession;
+            String userVmName = request.getVmName();
+            if (useBundle(connection)) {
+                // session của học viên luôn chạy hết các step, lỗi chỉ được ghi log
+                runBundle(userVmName, connection, setupSteps,
+                    step -> new CommandBundle.Step(300, 0, true, (String) step.get("setupCommand")),
+                    new BundledStepListener() {
+                        @Override
+                        public void onStart(int stepNumber, Map<String, Object> step) {
+                            announceUserStep(userVmName, step);
+                        }
+
+                        @Override
+                        public void onResult(int stepNumber, Map<String, Object> step, ExecuteCommandResult result) {
+                            reportUserStep(userVmName, step, result);
+                        }
+                    });
+            } else {
+                runStepGraph(userVmName, setupSteps, (stepNumber, step) -> {
+                    announceUserStep(userVmName, step);
+                    ExecuteCommandResult result = commandExecutor.execute(connection, (String) step.get("setupCommand"), 300);
+                    reportUserStep(userVmName, step, result);
+                    // session của học viên vẫn chạy tiếp các step còn lại dù step này lỗi
+                    return true;
+                });
             }
             
             
@@ -213,79 +263,248 @@ public class SetupExecutionService {
             throw e;
         } finally {
             if (sshSession != null && sshSession.isConnected()) {
-                sshSession.disconnect();
+                sshSession.close();
                 log.info("[User Session VM {}] SSH session disconnected.", request.getVmName());
             }
         }
     }
     
-    private Session connectSshWithRetry(JSch jsch, String namespace, String podName, 
-                                       int maxRetries, long delayMs) throws Exception {
-        for (int i = 0; i < maxRetries; i++) {
-            try {
-                Session session = jsch.getSession(defaultUsername, "localhost", 2222);
-                session.setPassword(defaultPassword);
-                session.setConfig("StrictHostKeyChecking", "no");
-                
-                session.setSocketFactory(new K8sTunnelSocketFactory(apiClient, namespace, podName));
-                
-                session.connect(15000);
-                return session;
-                
-            } catch (JSchException e) {
-                log.warn("SSH connect attempt {}/{} failed: {}. Retrying...", 
-                    i + 1, maxRetries, e.getMessage());
-                if (i == maxRetries - 1) throw e;
-                Thread.sleep(delayMs);
-            }
+    private Map<String, Object> announceTestStep(String vmName, Map<String, Object> step, int stepNumber, int totalSteps) {
+        String title = (String) step.get("title");
+        log.info("[Test VM {}] Executing: {}", vmName, title);
+        
+        adminTestWebSocketHandler.broadcastLog(vmName, "step_start", 
+            String.format(" [%d/%d] Executing: %s", stepNumber, totalSteps, title),
+            Map.of(
+                "stepNumber", stepNumber,
+                "totalSteps", totalSteps,
+                "title", title,
+                "command", step.get("setupCommand")
+            ));
+        return Map.of(
+            "stepNumber", stepNumber,
+            "totalSteps", totalSteps,
+            "title", title
+        );
+    }
+
+    /** Log and broadcast the result of a test step; returns false when the setup must stop. */
+    private boolean reportTestStep(String vmName, Map<String, Object> step, ExecuteCommandResult result,
+                                   int stepNumber, AtomicInteger completedSteps, int totalSteps) {
+        String title = (String) step.get("title");
+        Integer expectedExitCode = (Integer) step.getOrDefault("expectedExitCode", 0);
+        Boolean continueOnFailure = (Boolean) step.getOrDefault("continueOnFailure", false);
+        
+        logStepResult(vmName, title, result, expectedExitCode);
+        
+        boolean isSuccess = result.getExitCode() == expectedExitCode;
+        if (isSuccess) {
+            completedSteps.incrementAndGet();
+            adminTestWebSocketHandler.broadcastLog(vmName, "step_success",
+                String.format("[%d/%d] Completed: %s", stepNumber, totalSteps, title),
+                Map.of(
+                    "stepNumber", stepNumber,
+                    "totalSteps", totalSteps,
+                    "title", title,
+                    "exitCode", result.getExitCode(),
+                    "stdout", truncateOutput(result.getStdout(), 500)
+                ));
+            return true;
         }
-        throw new RuntimeException("Failed to connect SSH after retries");
+        adminTestWebSocketHandler.broadcastLog(vmName, "step_failed",
+            String.format(" [%d/%d] Failed: %s (exit code: %d)", 
+                stepNumber, totalSteps, title, result.getExitCode()),
+            Map.of(
+                "stepNumber", stepNumber,
+                "totalSteps", totalSteps,
+                "title", title,
+                "exitCode", result.getExitCode(),
+                "expectedExitCode", expectedExitCode,
+                "stdout", truncateOutput(result.getStdout(), 500),
+                "stderr", truncateOutput(result.getStderr(), 500)
+            ));
+        
+        if (!continueOnFailure) {
+            adminTestWebSocketHandler.broadcastLog(vmName, "error",
+                " Setup aborted due to step failure", null);
+            return false;
+        }
+        adminTestWebSocketHandler.broadcastLog(vmName, "warning",
+            " Continuing despite failure (continueOnFailure=true)", null);
+        return true;
     }
-    
-    private ExecuteCommandResult executeCommandOnSession(Session session, String command, 
-                                                         int timeoutSeconds) throws Exception {
-        ChannelExec channel = null;
-        StringBuilder outputBuffer = new StringBuilder();
-        int exitCode = -1;
+
+    private void announceUserStep(String vmName, Map<String, Object> step) {
+        Integer stepOrder = (Integer) step.get("stepOrder");
+        String description = (String) step.get("description");
+        log.info("[User Session VM {}] Executing Step {}: {}", vmName, stepOrder, description);
+        executionLogger.info("Executing Step {}: {}", stepOrder, description);
+    }
+
+    private void reportUserStep(String vmName, Map<String, Object> step, ExecuteCommandResult result) {
+        String description = (String) step.get("description");
+        log.info("[User Session VM {}] Step {} completed with exit code: {}", 
+            vmName, step.get("stepOrder"), result.getExitCode());
         
-        try {
-            channel = (ChannelExec) session.openChannel("exec");
-            channel.setCommand(command);
-            InputStream in = channel.getInputStream();
-            InputStream err = channel.getErrStream();
-            channel.connect(5000);
-            
-            byte[] buffer = new byte[1024];
-            long startTime = System.currentTimeMillis();
-            
-            // do cơ chế của jsch là bất đồng bộ nên phải liên tục kiểm tra xem có dữ liệu trả về hay không 
-            while (true) {
-                while (in.available() > 0) {
-                    int i = in.read(buffer, 0, 1024);
-                    if (i < 0) break;
-                    outputBuffer.append(new String(buffer, 0, i));
+        if (result.getExitCode() != 0) {
+            executionLogger.error("USER_SESSION_VM={}|STEP='{}'|FAILED|Code={}\nOUT: {}\nERR: {}",
+                vmName, description, result.getExitCode(), result.getStdout(), result.getStderr());
+        } else {
+            executionLogger.info("USER_SESSION_VM={}|STEP='{}'|SUCCESS", vmName, description);
+        }
+    }
+
+    /** Steps are numbered from 1 in list order, as in {@link StepRunner}, whatever order the bundle runs them in. */
+    private interface BundledStepListener {
+        void onStart(int stepNumber, Map<String, Object> step) throws Exception;
+
+        void onResult(int stepNumber, Map<String, Object> step, ExecuteCommandResult result) throws Exception;
+    }
+
+    private boolean useBundle(CommandConnection connection) {
+        // agent không có stdin và cũng không tốn chi phí mở channel, chỉ bundle khi chạy qua SSH
+        return setupBundleEnabled && connection instanceof SshConnection;
+    }
+
+    /**
+     * Run all steps as one script on a single exec channel (see {@link CommandBundle}), in
+     * dependency order one after another, reporting each step as its frame arrives. A step that
+     * times out fails the setup with the same error as the per-step mode. Returns the number of
+     * steps that ran.
+     */
+    private int runBundle(String vmName, CommandConnection connection, List<Map<String, Object>> steps,
+                           Function<Map<String, Object>, CommandBundle.Step> toBundledStep,
+                           BundledStepListener listener) throws Exception {
+        List<Integer> order = SetupStepGraph.of(steps).sequentialOrder();
+        List<Map<String, Object>> ordered = order.stream().map(steps::get).toList();
+        List<CommandBundle.Step> bundledSteps = ordered.stream().map(toBundledStep).toList();
+        CommandBundle bundle = new CommandBundle(bundledSteps);
+        int[] reported = new int[1];
+        long start = System.currentTimeMillis();
+
+        ExecuteCommandResult result = commandExecutor.execute(connection, CommandBundle.COMMAND, bundle.script(),
+            bundle.timeoutSeconds(),
+            stdout -> bundle.parse(stdout, captureHeadBytes, captureTailBytes, new CommandBundle.Listener() {
+                @Override
+                public void onStart(int index) throws Exception {
+                    listener.onStart(order.get(index) + 1, ordered.get(index));
                 }
-                while (err.available() > 0) {
-                    int i = err.read(buffer, 0, 1024);
-                    if (i < 0) break;
-                    outputBuffer.append(new String(buffer, 0, i));
+
+                @Override
+                public void onResult(int index, ExecuteCommandResult stepResult, long elapsedMs, boolean timedOut)
+                        throws Exception {
+                    if (timedOut) {
+                        throw new IOException("Command timeout after " + bundledSteps.get(index).timeoutSeconds() + " seconds");
+                    }
+                    log.debug("[VM {}] Bundled step {} finished in {} ms", vmName, index, elapsedMs);
+                    reported[0]++;
+                    listener.onResult(order.get(index) + 1, ordered.get(index), stepResult);
                 }
-                if (channel.isClosed()) {
-                    if (in.available() > 0) continue;
-                    exitCode = channel.getExitStatus();
-                    break;
+            }));
+
+        if (result.getExitCode() != 0) {
+            throw new IOException("Setup bundle exited with code " + result.getExitCode() + ": " + result.getStderr());
+        }
+        log.info("[VM {}] {}/{} setup steps ran as one bundle in {} ms",
+            vmName, reported[0], ordered.size(), System.currentTimeMillis() - start);
+        return reported[0];
+    }
+
+    private static String joinOutput(ExecuteCommandResult result) {
+        if (result.getStderr().isEmpty()) {
+            return result.getStdout();
+        }
+        return result.getStdout().isEmpty() ? result.getStderr() : result.getStdout() + "\n" + result.getStderr();
+    }
+
+    @FunctionalInterface
+    private interface StepRunner {
+        /** Run one step (numbered from 1 in list order); return false when the setup must stop starting new steps. */
+        boolean run(int stepNumber, Map<String, Object> step) throws Exception;
+    }
+
+    private record StepDone(int index, boolean proceed) {}
+
+    /**
+     * Run steps as their dependencies complete, at most {@code setup.parallelism} at a time, each
+     * on its own exec channel of the shared connection. Once a step asks to stop (or throws) no
+     * new step is started; steps already running are allowed to finish. Returns the number of
+     * steps that ran.
+     */
+    private int runStepGraph(String vmName, List<Map<String, Object>> steps, StepRunner runner) throws Exception {
+        SetupStepGraph graph = SetupStepGraph.of(steps);
+        int[] pending = new int[graph.size()];
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < graph.size(); i++) {
+            pending[i] = graph.dependenciesOf(i).size();
+            if (pending[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        // setup.parallelism <= 0 sẽ không chạy step nào mà vẫn báo hoàn tất
+        int parallelism = Math.max(1, setupParallelism);
+        CompletionService<StepDone> completions = new ExecutorCompletionService<>(stepRunners);
+        int running = 0;
+        int executed = 0;
+        boolean aborted = false;
+        Exception failure = null;
+
+        while (true) {
+            while (!aborted && running < parallelism && !ready.isEmpty()) {
+                int index = ready.poll();
+                completions.submit(() -> new StepDone(index, runner.run(index + 1, graph.step(index))));
+                running++;
+            }
+            if (running == 0) {
+                break;
+            }
+
+            Future<StepDone> next = completions.take();
+            running--;
+            executed++;
+            StepDone done;
+            try {
+                done = next.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception cause ? cause : e;
                 }
-                if (timeoutSeconds > 0 && 
-                    (System.currentTimeMillis() - startTime) > timeoutSeconds * 1000L) {
-                    throw new IOException("Command timeout");
+                aborted = true;
+                continue;
+            }
+            if (!done.proceed()) {
+                aborted = true;
+                continue;
+            }
+            for (int dependent : graph.dependentsOf(done.index())) {
+                if (--pending[dependent] == 0) {
+                    ready.add(dependent);
                 }
-                Thread.sleep(100);
             }
-        } finally {
-            if (channel != null) channel.disconnect();
         }
-        
-        return new ExecuteCommandResult(exitCode, outputBuffer.toString().trim(), "");
+
+        log.info("[VM {}] {}/{} setup steps ran (parallelism {})", vmName, executed, graph.size(), parallelism);
+        if (failure != null) {
+            throw failure;
+        }
+        return executed;
+    }
+    
+    private CommandConnection openCommandConnection(String namespace, String vmName, String podName) throws Exception {
+        // chờ banner SSH trước, handshake đầy đủ chỉ bắt đầu khi sshd đã chạy
+        sshReadinessProbe.awaitBanner(namespace, podName, 100000);
+        if (GuestAgentClient.BACKEND.equals(commandBackend)) {
+            // VM đã boot: agent (cloud-init) lên gần như cùng lúc, chỉ thử thêm một lúc ngắn
+            try {
+                return agentClient.probe(namespace, vmName, podName, agentProbeBudgetMs);
+            } catch (IOException e) {
+                // VM tạo trước khi có agent trong cloud-init vẫn chạy được qua SSH
+                log.warn("⚠️ Agent unavailable on pod {}, falling back to SSH: {}", podName, e.getMessage());
+            }
+        }
+        SshTarget target = SshTarget.forPod(tunnelManager, namespace, podName, defaultUsername, defaultPassword);
+        return sshConnector.connect(target, ConnectPolicy.booting(60000));
     }
     
     private void logStepResult(String testVmName, String stepTitle, 
@@ -306,4 +525,10 @@ public class SetupExecutionService {
         if (output.length() <= maxLength) return output;
         return output.substring(0, maxLength) + "... [truncated]";
     }
+
+    @PreDestroy
+    public void shutdown() {
+        outputFlusher.shutdownNow();
+        stepRunners.shutdownNow();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package com.example.infrastructure_service.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Dependency graph of setup steps, sorted by {@code stepOrder}.
+ *
+ * A step may list the {@code stepOrder}s it needs in {@code dependsOn}. Without it, a step waits
+ * for the previous stage, where consecutive steps with the same {@code parallelGroup} form one
+ * stage and every other step is a stage of its own. Steps that declare neither therefore run in
+ * order exactly as before.
+ */
+final class SetupStepGraph {
+
+    private final List<Map<String, Object>> steps;
+    private final List<Set<Integer>> dependencies;
+    private final List<List<Integer>> dependents;
+
+    private SetupStepGraph(List<Map<String, Object>> steps, List<Set<Integer>> dependencies) {
+        this.steps = steps;
+        this.dependencies = dependencies;
+        this.dependents = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            for (int dependency : dependencies.get(i)) {
+                dependents.get(dependency).add(i);
+            }
+        }
+    }
+
+    /**
+     * Build the graph for steps already sorted by {@code stepOrder}.
+     *
+     * @throws IllegalArgumentException when {@code dependsOn} names an unknown step or forms a cycle
+     */
+    static SetupStepGraph of(List<Map<String, Object>> sortedSteps) {
+        List<Set<Integer>> dependencies = new ArrayList<>();
+        List<Integer> previousStage = List.of();
+        List<Integer> currentStage = new ArrayList<>();
+        Object currentGroup = null;
+
+        for (int i = 0; i < sortedSteps.size(); i++) {
+            Map<String, Object> step = sortedSteps.get(i);
+            Object group = step.get("parallelGroup");
+            boolean sameStage = group != null && !currentStage.isEmpty()
+                && Objects.equals(String.valueOf(group), String.valueOf(currentGroup));
+            if (!sameStage && !currentStage.isEmpty()) {
+                previousStage = currentStage;
+                currentStage = new ArrayList<>();
+            }
+            currentStage.add(i);
+            currentGroup = group;
+
+            Object dependsOn = step.get("dependsOn");
+            dependencies.add(dependsOn != null
+                ? resolve(sortedSteps, i, dependsOn)
+                : new LinkedHashSet<>(previousStage));
+        }
+
+        SetupStepGraph graph = new SetupStepGraph(sortedSteps, dependencies);
+        if (graph.sequentialOrder().size() != sortedSteps.size()) {
+            throw new IllegalArgumentException("Setup steps have a dependency cycle");
+        }
+        return graph;
+    }
+
+    int size() {
+        return steps.size();
+    }
+
+    Map<String, Object> step(int index) {
+        return steps.get(index);
+    }
+
+    Set<Integer> dependenciesOf(int index) {
+        return dependencies.get(index);
+    }
+
+    List<Integer> dependentsOf(int index) {
+        return dependents.get(index);
+    }
+
+    private static Set<Integer> resolve(List<Map<String, Object>> steps, int index, Object dependsOn) {
+        Collection<?> orders = dependsOn instanceof Collection<?> list ? list : List.of(dependsOn);
+        Set<Integer> resolved = new LinkedHashSet<>();
+        for (Object order : orders) {
+            boolean found = false;
+            for (int j = 0; j < steps.size(); j++) {
+                if (j != index && Objects.equals(String.valueOf(steps.get(j).get("stepOrder")), String.valueOf(order))) {
+                    resolved.add(j);
+                    found = true;
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("Setup step " + steps.get(index).get("stepOrder")
+                    + " depends on unknown step " + order);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Step indexes in an order that respects every dependency, preferring lower {@code stepOrder}.
+     * Shorter than {@link #size()} only when the graph has a cycle.
+     */
+    List<Integer> sequentialOrder() {
+        int[] pending = new int[steps.size()];
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < steps.size(); i++) {
+            pending[i] = dependencies.get(i).size();
+            if (pending[i] == 0) {
+                ready.add(i);
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            int next = ready.poll();
+            order.add(next);
+            for (int dependent : dependents.get(next)) {
+                if (--pending[dependent] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -1,59 +1,311 @@
 package com.example.infrastructure_service.service;
 
-import com.jcraft.jsch.Session;
+import com.example.infrastructure_service.ssh.SshConnection;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Cache of authenticated SSH sessions per lab session.
+ *
+ * A background task sends keepalives and evicts sessions that are dead, idle longer than
+ * {@code ssh.cache.idle-ttl-ms} or older than {@code ssh.cache.max-age-ms}. Sessions put with a
+ * {@link Reconnector} are reconnected instead of dropped when they die. Leased sessions (an open
+ * terminal) are never evicted for idleness. Evicted sessions are closed and reported to the
+ * registered {@link EvictionListener}s; explicit removal and replacement only close them.
+ */
 @Service
 @Slf4j
 public class SshSessionCache {
-    
-    private final Map<String, Session> sessionCache = new ConcurrentHashMap<>();
-    
-    public void put(String key, Session session) {
-        // Cleanup old session if exists
-        Session oldSession = sessionCache.get(key);
-        if (oldSession != null && oldSession.isConnected()) {
-            try {
-                oldSession.disconnect();
-                log.debug("🔌 Disconnected old SSH session for key: {}", key);
-            } catch (Exception e) {
-                log.debug("Error disconnecting old session: {}", e.getMessage());
-            }
+
+    @FunctionalInterface
+    public interface Reconnector {
+        SshConnection reconnect() throws IOException, InterruptedException;
+    }
+
+    @FunctionalInterface
+    public interface EvictionListener {
+        void onEviction(String key, String reason);
+    }
+
+    private static final class Entry {
+        final SshConnection connection;
+        final Reconnector reconnector;
+        final long createdAt = System.currentTimeMillis();
+        final AtomicInteger leases;
+        // reconnect là I/O mạng dài: ReentrantLock để không giữ chặt carrier của virtual thread
+        final ReentrantLock healLock = new ReentrantLock();
+        volatile long lastAccessAt = createdAt;
+
+        Entry(SshConnection connection, Reconnector reconnector, AtomicInteger leases) {
+            this.connection = connection;
+            this.reconnector = reconnector;
+            this.leases = leases;
+        }
+    }
+
+    private final Map<String, Entry> sessionCache = new ConcurrentHashMap<>();
+    private final List<EvictionListener> evictionListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong reconnectFailures = new AtomicLong();
+    private final AtomicLong keepAliveFailures = new AtomicLong();
+
+    @Value("${ssh.cache.max-size:500}")
+    private int maxSize;
+
+    @Value("${ssh.cache.idle-ttl-ms:1800000}")
+    private long idleTtlMs;
+
+    @Value("${ssh.cache.max-age-ms:43200000}")
+    private long maxAgeMs;
+
+    @Value("${ssh.cache.keepalive-interval-ms:30000}")
+    private long keepAliveIntervalMs;
+
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ssh-cache-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void startMaintenance() {
+        maintenance.scheduleWithFixedDelay(this::maintain, keepAliveIntervalMs, keepAliveIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void put(String key, SshConnection session) {
+        put(key, session, null);
+    }
+
+    /**
+     * Cache {@code session}, atomically replacing and closing any previous session for the key.
+     * When {@code reconnector} is given a dead session is replaced by a fresh one instead of evicted.
+     */
+    public void put(String key, SshConnection session, Reconnector reconnector) {
+        Entry[] replaced = new Entry[1];
+        sessionCache.compute(key, (k, previous) -> {
+            replaced[0] = previous;
+            // lease của terminal vẫn giữ khi thay session
+            return new Entry(session, reconnector, previous != null ? previous.leases : new AtomicInteger());
+        });
+        if (replaced[0] != null && replaced[0].connection != session) {
+            closeQuietly(key, replaced[0]);
         }
-        
-        sessionCache.put(key, session);
         log.info("💾 Cached SSH session for key: {}", key);
+        enforceMaxSize();
     }
-    
-    public Session get(String key) {
-        Session session = sessionCache.get(key);
-        
-        if (session != null && !session.isConnected()) {
-            log.warn("⚠️ Cached session for key {} is disconnected, removing", key);
-            sessionCache.remove(key);
+
+    public SshConnection get(String key) {
+        Entry entry = sessionCache.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
             return null;
         }
-        
-        return session;
+        if (!entry.connection.isConnected()) {
+            log.warn("⚠️ Cached session for key {} is disconnected", key);
+            entry = heal(key, entry);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        entry.lastAccessAt = System.currentTimeMillis();
+        hits.incrementAndGet();
+        return entry.connection;
     }
-    
-    public void remove(String key) {
-        Session session = sessionCache.remove(key);
-        if (session != null && session.isConnected()) {
-            try {
-                session.disconnect();
-                log.info("🔌 Disconnected and removed SSH session for key: {}", key);
-            } catch (Exception e) {
-                log.debug("Error disconnecting session: {}", e.getMessage());
+
+    /**
+     * Like {@link #get(String)}, and marks the session as in use until {@link #release(String)}
+     * so that it is not evicted while idle.
+     */
+    public SshConnection acquire(String key) {
+        SshConnection connection = get(key);
+        if (connection != null) {
+            Entry entry = sessionCache.get(key);
+            if (entry != null) {
+                entry.leases.incrementAndGet();
             }
         }
+        return connection;
     }
-    
+
+    public void release(String key) {
+        Entry entry = sessionCache.get(key);
+        if (entry != null) {
+            entry.leases.updateAndGet(count -> Math.max(0, count - 1));
+            entry.lastAccessAt = System.currentTimeMillis();
+        }
+    }
+
+    public void remove(String key) {
+        Entry entry = sessionCache.remove(key);
+        if (entry != null) {
+            closeQuietly(key, entry);
+            log.info("🔌 Disconnected and removed SSH session for key: {}", key);
+        }
+    }
+
     public void cleanup(String key) {
         remove(key);
     }
-}
\ No newline at end of file
+
+    public void addEvictionListener(EvictionListener listener) {
+        evictionListeners.add(listener);
+    }
+
+    public int size() {
+        return sessionCache.size();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", sessionCache.size());
+        stats.put("maxSize", maxSize);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("reconnects", reconnects.get());
+        stats.put("reconnectFailures", reconnectFailures.get());
+        stats.put("keepAliveFailures", keepAliveFailures.get());
+        return stats;
+    }
+
+    void maintain() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> mapEntry : sessionCache.entrySet()) {
+            String key = mapEntry.getKey();
+            Entry entry = mapEntry.getValue();
+            try {
+                if (now - entry.createdAt > maxAgeMs) {
+                    evict(key, entry, "max-age");
+                } else if (entry.leases.get() == 0 && now - entry.lastAccessAt > idleTtlMs) {
+                    evict(key, entry, "idle");
+                } else if (!entry.connection.isConnected()) {
+                    heal(key, entry);
+                } else {
+                    keepAlive(key, entry);
+                }
+            } catch (RuntimeException e) {
+                log.warn("SSH cache maintenance failed for key {}: {}", key, e.getMessage());
+            }
+        }
+        log.debug("SSH session cache stats: {}", getStats());
+    }
+
+    private void keepAlive(String key, Entry entry) {
+        try {
+            entry.connection.sendKeepAlive();
+        } catch (IOException e) {
+            keepAliveFailures.incrementAndGet();
+            log.warn("💔 Keepalive failed for SSH session {}: {}", key, e.getMessage());
+            heal(key, entry);
+        }
+    }
+
+    /**
+     * Replace a dead entry with a reconnected one, or evict it when it cannot reconnect.
+     * Returns the entry now cached for the key, or null.
+     */
+    private Entry heal(String key, Entry dead) {
+        if (dead.reconnector == null) {
+            evict(key, dead, "disconnected");
+            return null;
+        }
+        // chỉ một thread reconnect cho mỗi entry, các thread khác chờ rồi dùng kết quả
+        dead.healLock.lock();
+        try {
+            Entry current = sessionCache.get(key);
+            if (current != dead) {
+                return current;
+            }
+            try {
+                SshConnection fresh = dead.reconnector.reconnect();
+                Entry replacement = new Entry(fresh, dead.reconnector, dead.leases);
+                if (sessionCache.replace(key, dead, replacement)) {
+                    reconnects.incrementAndGet();
+                    dead.connection.close();
+                    log.info("🔁 Reconnected cached SSH session for key: {}", key);
+                    return replacement;
+                }
+                fresh.close();
+                return sessionCache.get(key);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reconnectFailures.incrementAndGet();
+                evict(key, dead, "reconnect-failed");
+                return null;
+            } catch (IOException | RuntimeException e) {
+                reconnectFailures.incrementAndGet();
+                log.warn("Reconnect failed for SSH session {}: {}", key, e.getMessage());
+                evict(key, dead, "reconnect-failed");
+                return null;
+            }
+        } finally {
+            dead.healLock.unlock();
+        }
+    }
+
+    private void enforceMaxSize() {
+        int excess = sessionCache.size() - maxSize;
+        if (excess <= 0) {
+            return;
+        }
+        // bỏ các session ít được dùng gần đây nhất, ưu tiên session không có terminal đang mở
+        sessionCache.entrySet().stream()
+            .sorted(Comparator.<Map.Entry<String, Entry>>comparingInt(e -> e.getValue().leases.get() > 0 ? 1 : 0)
+                .thenComparingLong(e -> e.getValue().lastAccessAt))
+            .limit(excess)
+            .toList()
+            .forEach(e -> evict(e.getKey(), e.getValue(), "max-size"));
+    }
+
+    private void evict(String key, Entry entry, String reason) {
+        if (!sessionCache.remove(key, entry)) {
+            return;
+        }
+        evictions.incrementAndGet();
+        log.info("🗑️ Evicted SSH session {} ({})", key, reason);
+        closeQuietly(key, entry);
+        for (EvictionListener listener : evictionListeners) {
+            try {
+                listener.onEviction(key, reason);
+            } catch (RuntimeException e) {
+                log.warn("SSH cache eviction listener failed for {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    private void closeQuietly(String key, Entry entry) {
+        try {
+            entry.connection.close();
+        } catch (Exception e) {
+            log.debug("Error disconnecting session {}: {}", key, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenance.shutdownNow();
+        sessionCache.keySet().forEach(this::remove);
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.infrastructure_service.service;
 
+import com.example.infrastructure_service.cluster.ReplicaOwnership;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -9,8 +11,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class TerminalSessionService {
 
+    private final ReplicaOwnership replicaOwnership;
+
     private final Map<Integer, Map<String, String>> sessionCache = new ConcurrentHashMap<>();
 
     public void registerSession(Integer labSessionId, String vmName, String namespace, String podName) {
@@ -20,6 +25,7 @@ public class TerminalSessionService {
         sessionInfo.put("podName", podName);
         
         sessionCache.put(labSessionId, sessionInfo);
+        replicaOwnership.claim(labSessionId, vmName);
         
         log.info("✅ Terminal session registered: labSessionId={} -> VM={}, namespace={}, pod={}", 
             labSessionId, vmName, namespace, podName);
@@ -37,6 +43,7 @@ public class TerminalSessionService {
 
     public void removeSession(Integer labSessionId) {
         Map<String, String> removed = sessionCache.remove(labSessionId);
+        replicaOwnership.release(labSessionId);
         
         if (removed != null) {
             log.info("🧹 Terminal session removed: labSessionId={} -> VM={}", 
@@ -16,6 +16,7 @@ import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileCopyUtils;
 
+import com.example.infrastructure_service.agent.GuestAgentClient;
 import com.example.infrastructure_service.dto.LabTestRequest;
 import com.example.infrastructure_service.dto.UserLabSessionRequest;
 import com.example.infrastructure_service.handler.PodLogWebSocketHandler;
@@ -35,6 +36,7 @@ public class VMService {
     private final NetworkingV1Api networkingApi;
     private static final String NETWORK_POLICY_NAME = "lab-vm-secure-policy";
     private final CoreV1Api coreApi;
+    private final GuestAgentClient agentClient;
     
     @Value("${KUBEVIRT_GROUP}")
     private String KUBEVIRT_GROUP;
@@ -53,6 +55,9 @@ public class VMService {
     
     @Value("${CDI_VERSION}")
     private String CDI_VERSION;
+
+    @Value("${agent.port:7070}")
+    private String agentPort;
     
     public void createKubernetesResourcesForTest(LabTestRequest request) throws IOException, ApiException {
         String vmName = request.getTestVmName();
@@ -214,7 +219,9 @@ public class VMService {
                 "NAME", vmName,
                 "NAMESPACE", namespace,
                 "MEMORY", memory,
-                "CPU", cpu
+                "CPU", cpu,
+                "AGENT_TOKEN", agentClient.tokenFor(namespace, vmName),
+                "AGENT_PORT", agentPort
         );
         
         webSocketHandler.broadcastLogToPod(vmName, "info", 
@@ -105,6 +105,7 @@ public class VMTestService {
             log.info("Test VM Name: {}", vmName);
             log.info("Pod Name: {}", podName);
             log.info("========================================");
+            log.info("📊 Admin WebSocket send queue stats: {}", adminTestHandler.getSendQueueStats());
             
         } catch (Exception e) {
             log.error("Error during lab test: {}", e.getMessage(), e);
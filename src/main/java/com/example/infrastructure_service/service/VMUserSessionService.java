@@ -1,6 +1,7 @@
 package com.example.infrastructure_service.service;
 
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.time.OffsetDateTime;
@@ -8,19 +9,21 @@ import java.time.ZoneOffset;
 
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import com.example.infrastructure_service.cluster.ReplicaOwnership;
 import com.example.infrastructure_service.dto.LabSessionReadyEvent;
 import com.example.infrastructure_service.dto.UserLabSessionRequest;
 import com.example.infrastructure_service.handler.PodLogWebSocketHandler;
 import com.example.infrastructure_service.kafka.LabSessionReadyProducer;
-import com.example.infrastructure_service.socket.K8sTunnelSocketFactory;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import com.example.infrastructure_service.ssh.ConnectPolicy;
+import com.example.infrastructure_service.ssh.SshConnection;
+import com.example.infrastructure_service.ssh.SshConnector;
+import com.example.infrastructure_service.ssh.SshReadinessProbe;
+import com.example.infrastructure_service.ssh.SshTarget;
 
-import io.kubernetes.client.openapi.ApiClient;
 import io.kubernetes.client.openapi.models.V1Pod;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 
 @Service
@@ -35,9 +38,10 @@ public class VMUserSessionService {
     private final TerminalSessionService terminalSessionService;
     private final SshSessionCache sshSessionCache;
     private final LabSessionReadyProducer labSessionReadyProducer;
-    
-    @Qualifier("longTimeoutApiClient")
-    private final ApiClient apiClient;
+    private final PortForwardTunnelManager tunnelManager;
+    private final SshReadinessProbe sshReadinessProbe;
+    private final SshConnector sshConnector;
+    private final ReplicaOwnership replicaOwnership;
     
     @Value("${ssh.default.username}")
     private String defaultUsername;
@@ -46,8 +50,9 @@ public class VMUserSessionService {
     private String defaultPassword;
     
     private static final int WEBSOCKET_TIMEOUT_SECONDS = 30;
-    private static final int SSH_MAX_RETRIES = 20;
-    private static final long SSH_RETRY_DELAY_MS = 3000;
+    private static final long SSH_READY_TIMEOUT_MS = 240000;
+    // banner đã có trước khi handshake nên chỉ cần đủ thời gian cho cloud-init bật đăng nhập mật khẩu
+    private static final long SSH_CONNECT_DEADLINE_MS = 60000;
     
     @Async
     public void handleUserLabSessionRequest(UserLabSessionRequest request) {
@@ -63,6 +68,9 @@ public class VMUserSessionService {
             log.info("VM Name: {}", vmName);
             log.info("========================================");
             
+            // nhận ownership trước khi chờ WebSocket để replica khác proxy terminal của VM này về đây
+            replicaOwnership.claim(request.getLabSessionId(), vmName);
+
             currentStep = 0;
             broadcastProgress(vmName, currentStep, totalSteps, "Waiting for WebSocket client to connect...");
             
@@ -149,59 +157,25 @@ public class VMUserSessionService {
     private void preConnectAndCacheSSH(String vmName, String namespace, String podName, int labSessionId) {
         log.info("Starting SSH pre-connection to VM: {}", vmName);
         
-        JSch jsch = new JSch();
         String cacheKey = "lab-session-" + labSessionId;
-        
-        for (int attempt = 1; attempt <= SSH_MAX_RETRIES; attempt++) {
-            Session sshSession = null;
-            try {
-                log.info("[{}] SSH pre-connection attempt {}/{}", vmName, attempt, SSH_MAX_RETRIES);
-                webSocketHandler.broadcastLogToPod(vmName, "info", 
-                    String.format("SSH connection attempt %d/%d", attempt, SSH_MAX_RETRIES), null);
-                
-                sshSession = jsch.getSession(defaultUsername, vmName, 22);
-                sshSession.setPassword(defaultPassword);
-                sshSession.setConfig("StrictHostKeyChecking", "no");
-                
-                K8sTunnelSocketFactory socketFactory = new K8sTunnelSocketFactory(
-                    apiClient, 
-                    namespace, 
-                    podName
-                );
-                sshSession.setSocketFactory(socketFactory);
-                sshSession.setTimeout(10000);
-                sshSession.connect(10000);
-                
-                log.info("[{}] SSH pre-connected successfully on attempt {}", vmName, attempt);
-                
-                sshSessionCache.put(cacheKey, sshSession);
-                log.info("[{}] SSH session cached with key: {}", vmName, cacheKey);
-                
-                return;
-                
-            } catch (Exception e) {
-                log.warn("[{}] SSH pre-connection attempt {}/{} failed: {}", 
-                    vmName, attempt, SSH_MAX_RETRIES, e.getMessage());
-                
-                if (sshSession != null && sshSession.isConnected()) {
-                    try {
-                        sshSession.disconnect();
-                    } catch (Exception ex) {
-                        log.debug("Error disconnecting failed session: {}", ex.getMessage());
-                    }
-                }
-                
-                if (attempt >= SSH_MAX_RETRIES) {
-                    throw new RuntimeException("SSH pre-connection failed after " + SSH_MAX_RETRIES + " attempts");
-                }
-                
-                try {
-                    Thread.sleep(SSH_RETRY_DELAY_MS);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("SSH pre-connection interrupted", ie);
-                }
-            }
+        SshTarget target = SshTarget.forPod(tunnelManager, namespace, podName, defaultUsername, defaultPassword);
+
+        webSocketHandler.broadcastLogToPod(vmName, "info", "Waiting for SSH service on VM...", null);
+        try {
+            sshReadinessProbe.awaitBanner(namespace, podName, SSH_READY_TIMEOUT_MS);
+
+            webSocketHandler.broadcastLogToPod(vmName, "info", "SSH service is up, connecting...", null);
+            SshConnection sshSession = sshConnector.connect(target, ConnectPolicy.booting(SSH_CONNECT_DEADLINE_MS));
+            log.info("[{}] SSH pre-connected successfully", vmName);
+
+            // reconnect qua connector để có backoff và hedging như lần kết nối đầu
+            sshSessionCache.put(cacheKey, sshSession, () -> sshConnector.connect(target, ConnectPolicy.running()));
+            log.info("[{}] SSH session cached with key: {}", vmName, cacheKey);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("SSH pre-connection interrupted", e);
+        } catch (IOException e) {
+            throw new RuntimeException("SSH pre-connection failed: " + e.getMessage(), e);
         }
     }
     
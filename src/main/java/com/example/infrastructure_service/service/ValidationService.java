@@ -1,26 +1,36 @@
 package com.example.infrastructure_service.service;
 
+import com.example.infrastructure_service.agent.GuestAgentClient;
 import com.example.infrastructure_service.dto.ExecuteCommandResult;
+import com.example.infrastructure_service.dto.ValidationBatchRequest;
+import com.example.infrastructure_service.dto.ValidationBatchResponse;
 import com.example.infrastructure_service.dto.ValidationRequest;
 import com.example.infrastructure_service.dto.ValidationResponse;
 import com.example.infrastructure_service.kafka.ValidationResponseProducer;
-import com.example.infrastructure_service.socket.K8sTunnelSocketFactory;
-import com.jcraft.jsch.ChannelExec;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
-import io.kubernetes.client.openapi.ApiClient;
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import com.example.infrastructure_service.ssh.CommandConnection;
+import com.example.infrastructure_service.ssh.ConnectPolicy;
+import com.example.infrastructure_service.ssh.PersistentShell;
+import com.example.infrastructure_service.ssh.RemoteCommandExecutor;
+import com.example.infrastructure_service.ssh.SshConnection;
+import com.example.infrastructure_service.ssh.SshConnector;
+import com.example.infrastructure_service.ssh.SshTarget;
 import io.kubernetes.client.openapi.ApiException;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.models.V1Pod;
 import io.kubernetes.client.openapi.models.V1PodList;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Service
 @Slf4j
@@ -28,8 +38,13 @@ public class ValidationService {
     
     private final ValidationResponseProducer validationResponseProducer;
     private final CoreV1Api coreApi;
-    private final ApiClient apiClient;
+    private final PortForwardTunnelManager tunnelManager;
+    private final SshConnector sshConnector;
+    private final RemoteCommandExecutor commandExecutor;
     private final TerminalSessionService terminalSessionService;
+    private final SshSessionCache sshSessionCache;
+    private final GuestAgentClient agentClient;
+    private final ValidationShellRegistry validationShellRegistry;
     
     
     @Value("${ssh.default.username:ubuntu}")
@@ -37,20 +52,36 @@ public class ValidationService {
     
     @Value("${ssh.default.password:ubuntu}")
     private String defaultPassword;
+
+    @Value("${command.backend:ssh}")
+    private String commandBackend;
+
+    // giới hạn output giữ lại cho mỗi lệnh trong batch (nửa đầu + nửa cuối)
+    @Value("${validation.batch.output-bytes:8192}")
+    private int batchOutputBytes;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 30;
     
     
-    private static final int MAX_RETRIES = 3;
-    private static final long RETRY_DELAY_MS = 2000;
-    
     public ValidationService(
             ValidationResponseProducer validationResponseProducer,
             CoreV1Api coreApi,
-            @Qualifier("longTimeoutApiClient") ApiClient apiClient,
-            TerminalSessionService terminalSessionService) {
+            PortForwardTunnelManager tunnelManager,
+            SshConnector sshConnector,
+            RemoteCommandExecutor commandExecutor,
+            TerminalSessionService terminalSessionService,
+            SshSessionCache sshSessionCache,
+            GuestAgentClient agentClient,
+            ValidationShellRegistry validationShellRegistry) {
         this.validationResponseProducer = validationResponseProducer;
         this.coreApi = coreApi;
-        this.apiClient = apiClient;
+        this.tunnelManager = tunnelManager;
+        this.sshConnector = sshConnector;
+        this.commandExecutor = commandExecutor;
         this.terminalSessionService = terminalSessionService;
+        this.sshSessionCache = sshSessionCache;
+        this.agentClient = agentClient;
+        this.validationShellRegistry = validationShellRegistry;
     }
     
     public void handleValidationRequest(ValidationRequest request) {
@@ -58,54 +89,15 @@ public class ValidationService {
             request.getLabSessionId(), request.getQuestionId(), request.getVmName(), 
             request.getNamespace(), request.getPodName());
         
-        JSch jsch = new JSch();
-        Session sshSession = null;
+        SessionConnection session = null;
         
         try {
+            session = openConnection(request.getLabSessionId(), request.getNamespace(), request.getVmName(),
+                request.getPodName());
             
-            String actualPodName = null;
-            
-            Map<String, String> cachedSession = terminalSessionService.getSession(request.getLabSessionId());
-            if (cachedSession != null && cachedSession.get("podName") != null) {
-                actualPodName = cachedSession.get("podName");
-                log.info("📍 Found cached pod name from TerminalSessionService: {}", actualPodName);
-            }
-            
-            
-            if (actualPodName == null) {
-                log.info("🔍 Pod name not in cache, resolving from K8s API...");
-                actualPodName = resolveActualPodName(request.getNamespace(), request.getVmName());
-            }
-            
-            if (actualPodName == null) {
-                throw new RuntimeException("Pod not found for vmName: " + request.getVmName() + 
-                    " in namespace: " + request.getNamespace() + 
-                    ". The VM may have been terminated or not yet created.");
-            }
-            
-            log.info("📍 Using pod name: {} (vmName: {})", actualPodName, request.getVmName());
-            
-            
-            sshSession = connectSshWithRetry(jsch, request.getNamespace(), actualPodName);
-            
-            
-            ExecuteCommandResult result = executeCommand(sshSession, request.getValidationCommand(), 30);
-            
-            
-            boolean isCorrect = (result.getExitCode() == 0);
-            
-            log.info("Validation completed: labSessionId={}, questionId={}, isCorrect={}, exitCode={}", 
-                request.getLabSessionId(), request.getQuestionId(), isCorrect, result.getExitCode());
-            
-            
-            ValidationResponse response = ValidationResponse.builder()
-                .labSessionId(request.getLabSessionId())
-                .questionId(request.getQuestionId())
-                .isCorrect(isCorrect)
-                .output(result.getStdout())
-                .error(result.getStderr())
-                .build();
+            ExecuteCommandResult result = execute(request.getLabSessionId(), session, request.getValidationCommand());
             
+            ValidationResponse response = toResponse(request.getLabSessionId(), request.getQuestionId(), result);
             validationResponseProducer.sendValidationResponse(response);
             
         } catch (Exception e) {
@@ -113,24 +105,255 @@ public class ValidationService {
                 request.getLabSessionId(), request.getQuestionId(), e.getMessage(), e);
             
             
-            ValidationResponse errorResponse = ValidationResponse.builder()
-                .labSessionId(request.getLabSessionId())
-                .questionId(request.getQuestionId())
-                .isCorrect(false)
-                .output("")
-                .error("Validation error: " + e.getMessage())
-                .build();
-            
+            ValidationResponse errorResponse = errorResponse(request.getLabSessionId(), request.getQuestionId(),
+                e.getMessage());
             validationResponseProducer.sendValidationResponse(errorResponse);
             
         } finally {
-            if (sshSession != null && sshSession.isConnected()) {
-                sshSession.disconnect();
-                log.debug("SSH session disconnected for validation");
+            closeIfOwned(session);
+        }
+    }
+    
+    /**
+     * Check all validations of a batch in one remote invocation and answer with one result per
+     * question. Over SSH the commands run as one {@link CommandBundle} on a single exec channel,
+     * each in its own subshell with a timeout and capped output; over the guest agent they run
+     * concurrently on the agent connection.
+     */
+    public void handleValidationBatchRequest(ValidationBatchRequest request) {
+        List<ValidationBatchRequest.Item> items = request.getValidations() != null ? request.getValidations() : List.of();
+        log.info("🔧 Processing validation batch: labSessionId={}, validations={}, vmName={}, namespace={}", 
+            request.getLabSessionId(), items.size(), request.getVmName(), request.getNamespace());
+        
+        List<ValidationResponse> results = new ArrayList<>();
+        SessionConnection session = null;
+        long start = System.currentTimeMillis();
+        
+        try {
+            if (!items.isEmpty()) {
+                session = openConnection(request.getLabSessionId(), request.getNamespace(), request.getVmName(),
+                    request.getPodName());
+                results = session.connection() instanceof SshConnection
+                    ? runBundled(request.getLabSessionId(), session.connection(), items)
+                    : runConcurrently(request.getLabSessionId(), session.connection(), items);
             }
+            log.info("Validation batch completed: labSessionId={}, validations={}, correct={} in {} ms", 
+                request.getLabSessionId(), items.size(),
+                results.stream().filter(ValidationResponse::isCorrect).count(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error(" Validation batch failed: labSessionId={}, error={}", 
+                request.getLabSessionId(), e.getMessage(), e);
+            results = items.stream()
+                .map(item -> errorResponse(request.getLabSessionId(), item.getQuestionId(), e.getMessage()))
+                .toList();
+        } finally {
+            closeIfOwned(session);
+        }
+        
+        validationResponseProducer.sendValidationBatchResponse(ValidationBatchResponse.builder()
+            .labSessionId(request.getLabSessionId())
+            .results(results)
+            .build());
+    }
+    
+    private List<ValidationResponse> runBundled(Integer labSessionId, CommandConnection connection,
+                                                List<ValidationBatchRequest.Item> items) throws Exception {
+        // mỗi lệnh chạy độc lập: một lệnh lỗi hay timeout không dừng các lệnh sau
+        CommandBundle bundle = new CommandBundle(items.stream()
+            .map(item -> new CommandBundle.Step(VALIDATION_TIMEOUT_SECONDS, 0, true, item.getValidationCommand()))
+            .toList());
+        ValidationResponse[] responses = new ValidationResponse[items.size()];
+        
+        ExecuteCommandResult result = commandExecutor.execute(connection, CommandBundle.COMMAND, bundle.script(),
+            bundle.timeoutSeconds(),
+            stdout -> bundle.parse(stdout, batchOutputBytes / 2, batchOutputBytes / 2, new CommandBundle.Listener() {
+                @Override
+                public void onStart(int index) {
+                }
+
+                @Override
+                public void onResult(int index, ExecuteCommandResult stepResult, long elapsedMs, boolean timedOut) {
+                    Integer questionId = items.get(index).getQuestionId();
+                    responses[index] = timedOut
+                        ? errorResponse(labSessionId, questionId, "Command timeout after " + VALIDATION_TIMEOUT_SECONDS + " seconds")
+                        : toResponse(labSessionId, questionId, stepResult);
+                }
+            }));
+        if (result.getExitCode() != 0) {
+            log.warn("⚠️ Validation bundle for labSessionId={} exited with code {}: {}", 
+                labSessionId, result.getExitCode(), result.getStderr());
+        }
+        
+        List<ValidationResponse> results = new ArrayList<>();
+        for (int i = 0; i < responses.length; i++) {
+            results.add(responses[i] != null ? responses[i]
+                : errorResponse(labSessionId, items.get(i).getQuestionId(), "validation did not run"));
+        }
+        return results;
+    }
+    
+    private List<ValidationResponse> runConcurrently(Integer labSessionId, CommandConnection connection,
+                                                     List<ValidationBatchRequest.Item> items) throws InterruptedException {
+        // agent ghép nhiều lệnh trên cùng một kết nối nên chạy song song không tốn thêm handshake
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<ValidationResponse>> futures = new ArrayList<>();
+            for (ValidationBatchRequest.Item item : items) {
+                futures.add(workers.submit(() -> {
+                    try {
+                        ExecuteCommandResult result = commandExecutor.execute(connection, item.getValidationCommand(),
+                            VALIDATION_TIMEOUT_SECONDS);
+                        return toResponse(labSessionId, item.getQuestionId(), result);
+                    } catch (IOException e) {
+                        return errorResponse(labSessionId, item.getQuestionId(), e.getMessage());
+                    }
+                }));
+            }
+            List<ValidationResponse> results = new ArrayList<>();
+            for (Future<ValidationResponse> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    results.add(errorResponse(labSessionId, items.get(results.size()).getQuestionId(),
+                        e.getCause().getMessage()));
+                }
+            }
+            return results;
+        }
+    }
+    
+    /**
+     * Run one validation command: in the session's persistent validation shell when enabled and
+     * the terminal's SSH session is reused, otherwise (or when that shell is busy or broke) on a
+     * fresh exec channel.
+     */
+    private ExecuteCommandResult execute(Integer labSessionId, SessionConnection session, String command)
+            throws IOException, InterruptedException {
+        if (!session.owned() && validationShellRegistry.isEnabled()) {
+            try {
+                ExecuteCommandResult result = validationShellRegistry.execute("lab-session-" + labSessionId,
+                    session.connection(), command, VALIDATION_TIMEOUT_SECONDS);
+                if (result != null) {
+                    return result;
+                }
+                log.debug("Validation shell busy for labSessionId={}, using exec channel", labSessionId);
+            } catch (PersistentShell.BrokenShellException e) {
+                log.warn("⚠️ Validation shell broke for labSessionId={}, using exec channel: {}", labSessionId, e.getMessage());
+            }
+        }
+        return commandExecutor.execute(session.connection(), command, VALIDATION_TIMEOUT_SECONDS);
+    }
+    
+    private ValidationResponse toResponse(Integer labSessionId, Integer questionId, ExecuteCommandResult result) {
+        boolean isCorrect = (result.getExitCode() == 0);
+        
+        log.info("Validation completed: labSessionId={}, questionId={}, isCorrect={}, exitCode={}", 
+            labSessionId, questionId, isCorrect, result.getExitCode());
+        
+        return ValidationResponse.builder()
+            .labSessionId(labSessionId)
+            .questionId(questionId)
+            .isCorrect(isCorrect)
+            .output(result.getStdout())
+            .error(result.getStderr())
+            .build();
+    }
+    
+    private static ValidationResponse errorResponse(Integer labSessionId, Integer questionId, String message) {
+        return ValidationResponse.builder()
+            .labSessionId(labSessionId)
+            .questionId(questionId)
+            .isCorrect(false)
+            .output("")
+            .error("Validation error: " + message)
+            .build();
+    }
+    
+    private record SessionConnection(CommandConnection connection, boolean owned) {}
+    
+    /**
+     * Connection to run validations for a lab session on: the guest agent when enabled, else the
+     * terminal's cached SSH session, else a new SSH connection. Only connections opened here are owned.
+     * {@code podNameHint} is the pod named in the request, used when it is still running.
+     */
+    private SessionConnection openConnection(Integer labSessionId, String namespace, String vmName,
+                                             String podNameHint) throws Exception {
+        if (GuestAgentClient.BACKEND.equals(commandBackend)) {
+            CommandConnection agent = connectAgent(labSessionId, namespace, vmName, podNameHint);
+            if (agent != null) {
+                log.info("🤖 Running validation through guest agent for labSessionId={}", labSessionId);
+                // kết nối agent dùng chung cho cả lab session, đóng khi cleanup
+                return new SessionConnection(agent, false);
+            }
+        }
+        // Ưu tiên dùng lại SSH session của terminal: chỉ mở thêm một exec channel, không tạo tunnel mới
+        CommandConnection cached = sshSessionCache.get("lab-session-" + labSessionId);
+        if (cached != null) {
+            log.info("♻️ Reusing cached SSH session for labSessionId={}", labSessionId);
+            return new SessionConnection(cached, false);
         }
+        return new SessionConnection(connectSsh(namespace, resolvePodName(labSessionId, namespace, vmName, podNameHint)), true);
     }
     
+    private void closeIfOwned(SessionConnection session) {
+        if (session != null && session.owned() && session.connection().isConnected()) {
+            session.connection().close();
+            log.debug("SSH session disconnected for validation");
+        }
+    }
+    
+    private CommandConnection connectAgent(Integer labSessionId, String namespace, String vmName, String podNameHint) {
+        try {
+            return agentClient.sessionConnection(labSessionId, namespace, vmName,
+                () -> resolvePodName(labSessionId, namespace, vmName, podNameHint));
+        } catch (Exception e) {
+            log.warn("⚠️ Agent unavailable for labSessionId={}, using SSH: {}", labSessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    private String resolvePodName(Integer labSessionId, String namespace, String vmName, String podNameHint) {
+        String actualPodName = null;
+        
+        Map<String, String> cachedSession = terminalSessionService.getSession(labSessionId);
+        if (cachedSession != null && cachedSession.get("podName") != null) {
+            actualPodName = cachedSession.get("podName");
+            log.info("📍 Found cached pod name from TerminalSessionService: {}", actualPodName);
+        }
+        
+        // pod trong request có thể đã cũ (VM restart tạo pod mới): chỉ dùng khi pod đó còn chạy,
+        // một lần đọc pod rẻ hơn nhiều so với list theo label
+        if (actualPodName == null && podNameHint != null && !podNameHint.isBlank()
+                && isPodRunning(namespace, podNameHint)) {
+            actualPodName = podNameHint;
+            log.info("📍 Using pod name from request: {}", actualPodName);
+        }
+        
+        
+        if (actualPodName == null) {
+            log.info("🔍 Pod name not in cache, resolving from K8s API...");
+            actualPodName = resolveActualPodName(namespace, vmName);
+        }
+        
+        if (actualPodName == null) {
+            throw new RuntimeException("Pod not found for vmName: " + vmName + 
+                " in namespace: " + namespace + 
+                ". The VM may have been terminated or not yet created.");
+        }
+        
+        log.info("📍 Using pod name: {} (vmName: {})", actualPodName, vmName);
+        return actualPodName;
+    }
+    
+    
+    private boolean isPodRunning(String namespace, String podName) {
+        try {
+            V1Pod pod = coreApi.readNamespacedPod(podName, namespace, null);
+            return pod.getStatus() != null && "Running".equals(pod.getStatus().getPhase());
+        } catch (ApiException e) {
+            log.debug("Pod {} from request not usable (code: {})", podName, e.getCode());
+            return false;
+        }
+    }
     
     private String resolveActualPodName(String namespace, String vmName) {
         try {
@@ -214,103 +437,10 @@ public class ValidationService {
     }
     
     
-    private Session connectSshWithRetry(JSch jsch, String namespace, String podName) throws Exception {
-        Exception lastException = null;
-        
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            try {
-                log.info(" SSH connection attempt {}/{} to pod: {}", attempt, MAX_RETRIES, podName);
-                
-                Session session = jsch.getSession(defaultUsername, "localhost", 2222);
-                session.setPassword(defaultPassword);
-                session.setConfig("StrictHostKeyChecking", "no");
-                session.setSocketFactory(new K8sTunnelSocketFactory(apiClient, namespace, podName));
-                session.connect(15000);
-                
-                log.info("SSH connected successfully to pod: {}", podName);
-                return session;
-                
-            } catch (JSchException e) {
-                lastException = e;
-                log.warn(" SSH connection attempt {}/{} failed: {}", attempt, MAX_RETRIES, e.getMessage());
-                
-                if (attempt < MAX_RETRIES) {
-                    Thread.sleep(RETRY_DELAY_MS);
-                }
-            }
-        }
-        
-        throw new RuntimeException("SSH connection failed after " + MAX_RETRIES + " attempts", lastException);
-    }
-    
-    private ExecuteCommandResult executeCommand(Session session, String command, int timeoutSeconds) throws Exception {
-        ChannelExec channel = null;
-        StringBuilder stdout = new StringBuilder();
-        StringBuilder stderr = new StringBuilder();
-        int exitCode = -1;
-        
-        try {
-            channel = (ChannelExec) session.openChannel("exec");
-            channel.setCommand(command);
-            
-            InputStream in = channel.getInputStream();
-            InputStream err = channel.getErrStream();
-            channel.connect(5000);
-            
-            byte[] buffer = new byte[1024];
-            long startTime = System.currentTimeMillis();
-            long timeoutMs = timeoutSeconds * 1000L;
-            
-            while (!channel.isClosed()) {
-                // Read stdout
-                while (in.available() > 0) {
-                    int read = in.read(buffer);
-                    if (read > 0) {
-                        stdout.append(new String(buffer, 0, read));
-                    }
-                }
-                
-                // Read stderr
-                while (err.available() > 0) {
-                    int read = err.read(buffer);
-                    if (read > 0) {
-                        stderr.append(new String(buffer, 0, read));
-                    }
-                }
-                
-                // Check timeout
-                if (System.currentTimeMillis() - startTime > timeoutMs) {
-                    throw new RuntimeException("Command execution timeout after " + timeoutSeconds + " seconds");
-                }
-                
-                Thread.sleep(100);
-            }
-            
-            // Read remaining output
-            while (in.available() > 0) {
-                int read = in.read(buffer);
-                if (read > 0) {
-                    stdout.append(new String(buffer, 0, read));
-                }
-            }
-            while (err.available() > 0) {
-                int read = err.read(buffer);
-                if (read > 0) {
-                    stderr.append(new String(buffer, 0, read));
-                }
-            }
-            
-            exitCode = channel.getExitStatus();
-            
-        } finally {
-            if (channel != null) {
-                channel.disconnect();
-            }
-        }
-        
-        return new ExecuteCommandResult(exitCode, stdout.toString().trim(), stderr.toString().trim());
+    private SshConnection connectSsh(String namespace, String podName) throws Exception {
+        SshTarget target = SshTarget.forPod(tunnelManager, namespace, podName, defaultUsername, defaultPassword);
+        // VM đã chạy sẵn: deadline ngắn, sai mật khẩu hay pod không còn thì dừng ngay
+        return sshConnector.connect(target, ConnectPolicy.running());
     }
     
-    
-    
 }
\ No newline at end of file
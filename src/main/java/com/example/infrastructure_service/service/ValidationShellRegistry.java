@@ -0,0 +1,110 @@
+package com.example.infrastructure_service.service;
+
+import com.example.infrastructure_service.dto.ExecuteCommandResult;
+import com.example.infrastructure_service.ssh.CommandConnection;
+import com.example.infrastructure_service.ssh.PersistentShell;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link PersistentShell} per lab session, reserved for validations and opened on the
+ * session's cached SSH connection. A shell is replaced when its connection changes, after a
+ * timeout or protocol error, and closed when the session's SSH connection is evicted or cleaned up.
+ */
+@Service
+@Slf4j
+public class ValidationShellRegistry {
+
+    private final SshSessionCache sshSessionCache;
+    private final Map<String, PersistentShell> shells = new ConcurrentHashMap<>();
+
+    @Value("${validation.shell.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ssh.exec.capture.head-bytes:32768}")
+    private int captureHeadBytes;
+
+    @Value("${ssh.exec.capture.tail-bytes:32768}")
+    private int captureTailBytes;
+
+    public ValidationShellRegistry(SshSessionCache sshSessionCache) {
+        this.sshSessionCache = sshSessionCache;
+    }
+
+    @PostConstruct
+    public void registerEvictionListener() {
+        sshSessionCache.addEvictionListener((key, reason) -> close(key));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Run {@code command} in the session's validation shell, opening one on {@code connection}
+     * if needed. Returns null when the shell is busy with another validation, so the caller can
+     * use a plain exec channel instead.
+     *
+     * @throws PersistentShell.BrokenShellException when the shell broke; it has been discarded
+     */
+    public ExecuteCommandResult execute(String key, CommandConnection connection, String command, int timeoutSeconds)
+            throws IOException, InterruptedException {
+        PersistentShell shell = shellFor(key, connection);
+        try {
+            return shell.tryExecute(command, timeoutSeconds);
+        } catch (IOException e) {
+            // timeout hoặc lỗi framing: bỏ shell này, lần sau mở shell mới
+            discard(key, shell);
+            throw e;
+        }
+    }
+
+    public void close(String key) {
+        PersistentShell shell = shells.remove(key);
+        if (shell != null) {
+            shell.close();
+            log.info("🐚 Closed validation shell for key: {}", key);
+        }
+    }
+
+    public int size() {
+        return shells.size();
+    }
+
+    private PersistentShell shellFor(String key, CommandConnection connection) throws IOException {
+        PersistentShell shell = shells.get(key);
+        if (shell != null && shell.isUsableWith(connection)) {
+            return shell;
+        }
+        if (shell != null) {
+            discard(key, shell);
+        }
+        PersistentShell opened = PersistentShell.open(connection, captureHeadBytes, captureTailBytes);
+        PersistentShell raced = shells.putIfAbsent(key, opened);
+        if (raced != null) {
+            opened.close();
+            return raced;
+        }
+        log.info("🐚 Opened validation shell for key: {}", key);
+        return opened;
+    }
+
+    private void discard(String key, PersistentShell shell) {
+        if (shells.remove(key, shell)) {
+            log.info("♻️ Recycling validation shell for key: {}", key);
+        }
+        shell.close();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shells.keySet().forEach(this::close);
+    }
+}
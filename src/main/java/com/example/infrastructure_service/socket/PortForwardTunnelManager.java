@@ -0,0 +1,213 @@
+package com.example.infrastructure_service.socket;
+
+import io.kubernetes.client.PortForward;
+import io.kubernetes.client.openapi.ApiClient;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns every port-forward tunnel opened against the Kubernetes API server.
+ *
+ * A port-forward data stream carries exactly one TCP connection into the pod, so a
+ * byte-stream protocol like SSH cannot interleave two clients on it. Sharing therefore
+ * happens one level up: callers keep one SSH session per pod (see SshSessionCache) and
+ * open many channels over it, and this manager makes sure that each pod only holds the
+ * tunnels that are actually in use, closes them together when the pod goes away and
+ * reports how many are open and how long they live.
+ */
+@Component
+@Slf4j
+public class PortForwardTunnelManager {
+
+    private final ApiClient apiClient;
+
+    // "namespace/podName" -> open tunnels for that pod
+    private final Map<String, Set<TunnelSocket>> tunnelsByPod = new ConcurrentHashMap<>();
+
+    private final AtomicLong tunnelsOpened = new AtomicLong();
+    private final AtomicLong tunnelsClosed = new AtomicLong();
+    private final AtomicLong tunnelsFailed = new AtomicLong();
+    private final AtomicLong totalLifetimeMs = new AtomicLong();
+    private final AtomicLong maxLifetimeMs = new AtomicLong();
+
+    public PortForwardTunnelManager(@Qualifier("longTimeoutApiClient") ApiClient apiClient) {
+        this.apiClient = apiClient;
+    }
+
+    /**
+     * Open a tunnel to the given port of the pod and return it as a socket.
+     * Closing the socket tears the tunnel down and records its lifetime.
+     */
+    public TunnelSocket openSocket(String namespace, String podName, int port) throws IOException {
+        String podKey = podKey(namespace, podName);
+        try {
+            PortForward forward = new PortForward(apiClient);
+            PortForward.PortForwardResult result = forward.forward(
+                namespace, podName, Collections.singletonList(port)
+            );
+
+            // chỉ đăng ký khi socket đã tạo xong: closePodTunnels không bao giờ thấy tunnel chưa có socket
+            TunnelSocket socket = new TunnelSocket(result.getInputStream(port), result.getOutboundStream(port),
+                podKey, port, System.currentTimeMillis());
+            tunnelsByPod.compute(podKey, (k, tunnels) -> {
+                Set<TunnelSocket> podTunnels = tunnels != null ? tunnels : ConcurrentHashMap.newKeySet();
+                podTunnels.add(socket);
+                return podTunnels;
+            });
+            tunnelsOpened.incrementAndGet();
+
+            log.debug("🔗 Opened port-forward tunnel to {}:{} ({} open for this pod)",
+                podKey, port, countForPod(podKey));
+
+            return socket;
+        } catch (Exception e) {
+            tunnelsFailed.incrementAndGet();
+            throw new IOException("Failed to create K8s tunnel to " + podKey + ":" + port + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Close every tunnel still open to the pod, e.g. when its lab session is cleaned up.
+     */
+    public int closePodTunnels(String namespace, String podName) {
+        Set<TunnelSocket> tunnels = tunnelsByPod.remove(podKey(namespace, podName));
+        if (tunnels == null) {
+            return 0;
+        }
+
+        int closed = 0;
+        for (TunnelSocket tunnel : new ArrayList<>(tunnels)) {
+            try {
+                tunnel.close();
+                closed++;
+            } catch (IOException e) {
+                log.debug("Error closing tunnel to {}: {}", tunnel.podKey, e.getMessage());
+            }
+        }
+
+        log.info("🧹 Closed {} port-forward tunnels for pod {}/{}", closed, namespace, podName);
+        return closed;
+    }
+
+    public int getOpenTunnelCount() {
+        return tunnelsByPod.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * Snapshot of tunnel counters, in the same shape the other services log their stats.
+     */
+    public Map<String, Object> getStats() {
+        long closed = tunnelsClosed.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("openTunnels", getOpenTunnelCount());
+        stats.put("podsWithTunnels", tunnelsByPod.size());
+        stats.put("tunnelsOpened", tunnelsOpened.get());
+        stats.put("tunnelsClosed", closed);
+        stats.put("tunnelsFailed", tunnelsFailed.get());
+        stats.put("avgLifetimeMs", closed == 0 ? 0 : totalLifetimeMs.get() / closed);
+        stats.put("maxLifetimeMs", maxLifetimeMs.get());
+        return stats;
+    }
+
+    /**
+     * Age in milliseconds of every tunnel currently open to the pod.
+     */
+    public List<Long> getTunnelAgesMs(String namespace, String podName) {
+        Set<TunnelSocket> tunnels = tunnelsByPod.get(podKey(namespace, podName));
+        if (tunnels == null) {
+            return List.of();
+        }
+        long now = System.currentTimeMillis();
+        return tunnels.stream().map(t -> now - t.openedAt).toList();
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        log.info("Application shutdown - closing {} port-forward tunnels", getOpenTunnelCount());
+        for (String podKey : new ArrayList<>(tunnelsByPod.keySet())) {
+            String[] parts = podKey.split("/", 2);
+            closePodTunnels(parts[0], parts[1]);
+        }
+        log.info("Port-forward tunnel stats at shutdown: {}", getStats());
+    }
+
+    private void release(TunnelSocket tunnel) {
+        tunnelsByPod.computeIfPresent(tunnel.podKey, (k, tunnels) -> {
+            tunnels.remove(tunnel);
+            return tunnels.isEmpty() ? null : tunnels;
+        });
+
+        long lifetime = System.currentTimeMillis() - tunnel.openedAt;
+        tunnelsClosed.incrementAndGet();
+        totalLifetimeMs.addAndGet(lifetime);
+        maxLifetimeMs.accumulateAndGet(lifetime, Math::max);
+
+        log.debug("🔌 Closed port-forward tunnel to {}:{} after {} ms", tunnel.podKey, tunnel.port, lifetime);
+    }
+
+    private int countForPod(String podKey) {
+        Set<TunnelSocket> tunnels = tunnelsByPod.get(podKey);
+        return tunnels == null ? 0 : tunnels.size();
+    }
+
+    private static String podKey(String namespace, String podName) {
+        return namespace + "/" + podName;
+    }
+
+    /**
+     * Socket view of a single tunnel; closing it releases the tunnel exactly once.
+     */
+    public class TunnelSocket extends VirtualSocket {
+        private final String podKey;
+        private final long openedAt;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        @Getter
+        private final int port;
+
+        TunnelSocket(InputStream in, OutputStream out, String podKey, int port, long openedAt) {
+            super(in, out);
+            this.podKey = podKey;
+            this.port = port;
+            this.openedAt = openedAt;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !closed.get();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                super.close();
+            } finally {
+                release(this);
+            }
+        }
+    }
+}
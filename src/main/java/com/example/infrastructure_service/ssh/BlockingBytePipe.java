@@ -0,0 +1,175 @@
+package com.example.infrastructure_service.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-memory pipe between an SSH engine's I/O thread (writer) and one reader.
+ *
+ * Replaces {@link java.io.PipedInputStream}, which JSch uses for channel streams: that class
+ * waits inside {@code synchronized} methods, which pins the carrier of a virtual thread blocked
+ * in {@code read()}. Here both sides wait on a {@link ReentrantLock} condition. Like JSch's pipe
+ * the buffer starts small and doubles up to {@code maxCapacity}; after that the writer blocks
+ * until the reader catches up.
+ */
+final class BlockingBytePipe {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int maxCapacity;
+    private byte[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int readPos;
+    private int count;
+    private boolean writerClosed;
+    private boolean readerClosed;
+
+    private final InputStream source = new Source();
+    private final OutputStream sink = new Sink();
+
+    BlockingBytePipe(int maxCapacity) {
+        this.maxCapacity = maxCapacity;
+        this.buffer = new byte[Math.min(INITIAL_CAPACITY, maxCapacity)];
+    }
+
+    InputStream source() {
+        return source;
+    }
+
+    OutputStream sink() {
+        return sink;
+    }
+
+    private final class Source extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                while (count == 0) {
+                    if (writerClosed || readerClosed) {
+                        return -1;
+                    }
+                    notEmpty.await();
+                }
+                int n = Math.min(len, count);
+                int first = Math.min(n, buffer.length - readPos);
+                System.arraycopy(buffer, readPos, b, off, first);
+                System.arraycopy(buffer, 0, b, off + first, n - first);
+                readPos = (readPos + n) % buffer.length;
+                count -= n;
+                notFull.signalAll();
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading SSH channel");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                count = 0;
+                notFull.signalAll();
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final class Sink extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    if (count + len > buffer.length && buffer.length < maxCapacity) {
+                        grow(count + len);
+                    }
+                    while (count == buffer.length && !readerClosed) {
+                        notFull.await();
+                    }
+                    if (readerClosed) {
+                        throw new IOException("Pipe closed by reader");
+                    }
+                    if (writerClosed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    int writePos = (readPos + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                    System.arraycopy(b, off, buffer, writePos, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    notEmpty.signalAll();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing SSH channel data");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Caller holds the lock; unwraps the ring into a larger array. */
+        private void grow(int needed) {
+            int capacity = buffer.length;
+            while (capacity < needed && capacity < maxCapacity) {
+                capacity = Math.min(capacity * 2, maxCapacity);
+            }
+            byte[] grown = new byte[capacity];
+            int first = Math.min(count, buffer.length - readPos);
+            System.arraycopy(buffer, readPos, grown, 0, first);
+            System.arraycopy(buffer, 0, grown, first, count - first);
+            buffer = grown;
+            readPos = 0;
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
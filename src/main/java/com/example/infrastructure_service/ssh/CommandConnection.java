@@ -0,0 +1,20 @@
+package com.example.infrastructure_service.ssh;
+
+import java.io.IOException;
+
+/**
+ * A connection to a guest that can run non-interactive commands, either over SSH
+ * or through the in-guest agent.
+ */
+public interface CommandConnection extends AutoCloseable {
+
+    boolean isConnected();
+
+    /**
+     * Start {@code command} on the guest; the returned channel is already running.
+     */
+    SshChannel openExec(String command) throws IOException;
+
+    @Override
+    void close();
+}
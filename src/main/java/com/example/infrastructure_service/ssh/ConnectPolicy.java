@@ -0,0 +1,54 @@
+package com.example.infrastructure_service.ssh;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Retry budget for {@link SshConnector}: attempts back off exponentially with jitter
+ * until {@code deadlineMs} has elapsed since the first attempt.
+ */
+@Getter
+@Builder
+public class ConnectPolicy {
+
+    /** End-to-end budget for all attempts and backoff sleeps. */
+    @Builder.Default
+    private final long deadlineMs = 30000;
+
+    /** Timeout handed to the transport for one attempt, cut to what is left of the deadline. */
+    @Builder.Default
+    private final int attemptTimeoutMs = 15000;
+
+    @Builder.Default
+    private final long initialBackoffMs = 500;
+
+    @Builder.Default
+    private final long maxBackoffMs = 8000;
+
+    /** Start a second attempt once the first runs longer than the observed p95 connect time. */
+    @Builder.Default
+    private final boolean hedged = true;
+
+    /**
+     * Keep retrying rejected credentials. Only for freshly booted guests, where cloud-init
+     * enables password login a few seconds after sshd is already up.
+     */
+    @Builder.Default
+    private final boolean retryAuthFailures = false;
+
+    /** Guest still booting: allow for a slow cloud-init. */
+    public static ConnectPolicy booting(long deadlineMs) {
+        return ConnectPolicy.builder()
+            .deadlineMs(deadlineMs)
+            .retryAuthFailures(true)
+            .build();
+    }
+
+    /** Guest already up (validation, reconnects): fail fast. */
+    public static ConnectPolicy running() {
+        return ConnectPolicy.builder()
+            .deadlineMs(20000)
+            .attemptTimeoutMs(10000)
+            .build();
+    }
+}
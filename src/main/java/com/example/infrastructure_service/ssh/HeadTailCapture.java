@@ -0,0 +1,119 @@
+package com.example.infrastructure_service.ssh;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the first {@code headLimit} and the last {@code tailLimit} bytes of a stream and
+ * only counts what falls in between, so memory per command is fixed regardless of how
+ * much the guest prints.
+ */
+public class HeadTailCapture {
+
+    private final byte[] head;
+    private final byte[] tail;
+    private int headSize;
+    // tail là ring buffer: tailStart là vị trí byte cũ nhất
+    private int tailStart;
+    private int tailSize;
+    private long totalBytes;
+
+    public HeadTailCapture(int headLimit, int tailLimit) {
+        this.head = new byte[Math.max(0, headLimit)];
+        this.tail = new byte[Math.max(0, tailLimit)];
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        totalBytes += length;
+
+        int toHead = Math.min(length, head.length - headSize);
+        if (toHead > 0) {
+            System.arraycopy(bytes, offset, head, headSize, toHead);
+            headSize += toHead;
+            offset += toHead;
+            length -= toHead;
+        }
+        if (length == 0 || tail.length == 0) {
+            return;
+        }
+
+        // chỉ những byte cuối cùng còn có thể nằm trong tail
+        if (length >= tail.length) {
+            System.arraycopy(bytes, offset + length - tail.length, tail, 0, tail.length);
+            tailStart = 0;
+            tailSize = tail.length;
+            return;
+        }
+        int writePos = (tailStart + tailSize) % tail.length;
+        int firstPart = Math.min(length, tail.length - writePos);
+        System.arraycopy(bytes, offset, tail, writePos, firstPart);
+        System.arraycopy(bytes, offset + firstPart, tail, 0, length - firstPart);
+
+        int overflow = tailSize + length - tail.length;
+        if (overflow > 0) {
+            tailStart = (tailStart + overflow) % tail.length;
+            tailSize = tail.length;
+        } else {
+            tailSize += length;
+        }
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getDroppedBytes() {
+        return totalBytes - headSize - tailSize;
+    }
+
+    /**
+     * Captured output as text. When bytes were dropped the head and tail are cut back to
+     * whole UTF-8 characters and joined by a note with the number of omitted bytes.
+     */
+    public String toText() {
+        byte[] tailBytes = orderedTail();
+        long dropped = getDroppedBytes();
+        if (dropped == 0) {
+            byte[] all = new byte[headSize + tailBytes.length];
+            System.arraycopy(head, 0, all, 0, headSize);
+            System.arraycopy(tailBytes, 0, all, headSize, tailBytes.length);
+            return new String(all, StandardCharsets.UTF_8);
+        }
+
+        int headEnd = completeSequenceEnd(head, headSize);
+        int tailBegin = firstSequenceStart(tailBytes);
+        long omitted = dropped + (headSize - headEnd) + tailBegin;
+        return new String(head, 0, headEnd, StandardCharsets.UTF_8)
+            + "\n[... " + omitted + " bytes omitted ...]\n"
+            + new String(tailBytes, tailBegin, tailBytes.length - tailBegin, StandardCharsets.UTF_8);
+    }
+
+    private byte[] orderedTail() {
+        byte[] ordered = new byte[tailSize];
+        int firstPart = Math.min(tailSize, tail.length - tailStart);
+        System.arraycopy(tail, tailStart, ordered, 0, firstPart);
+        System.arraycopy(tail, 0, ordered, firstPart, tailSize - firstPart);
+        return ordered;
+    }
+
+    // Bỏ chuỗi UTF-8 bị cắt dở ở cuối head
+    private static int completeSequenceEnd(byte[] bytes, int size) {
+        for (int back = 1; back <= 4 && back <= size; back++) {
+            int b = bytes[size - back] & 0xFF;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int needed = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return needed > back ? size - back : size;
+        }
+        return size;
+    }
+
+    // Bỏ các byte tiếp nối (continuation) ở đầu tail
+    private static int firstSequenceStart(byte[] bytes) {
+        int start = 0;
+        while (start < bytes.length && start < 3 && (bytes[start] & 0xC0) == 0x80) {
+            start++;
+        }
+        return start;
+    }
+}
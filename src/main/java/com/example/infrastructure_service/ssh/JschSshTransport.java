@@ -0,0 +1,217 @@
+package com.example.infrastructure_service.ssh;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelShell;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SocketFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Default engine backed by JSch 0.1.55.
+ */
+@Component
+@ConditionalOnProperty(name = "ssh.transport.engine", havingValue = JschSshTransport.ENGINE, matchIfMissing = true)
+@Slf4j
+public class JschSshTransport implements SshTransport {
+
+    public static final String ENGINE = "jsch";
+
+    private static final int CHANNEL_CONNECT_TIMEOUT_MS = 5000;
+    private static final long EXIT_STATUS_POLL_MS = 5;
+    // bằng kích thước tối đa pipe của JSch
+    private static final int CHANNEL_PIPE_BYTES = 32 * 1024;
+
+    private final JSch jsch = new JSch();
+
+    @Override
+    public String getEngine() {
+        return ENGINE;
+    }
+
+    @Override
+    public SshConnection connect(SshTarget target, int timeoutMs) throws IOException {
+        Session session = null;
+        try {
+            session = jsch.getSession(target.getUsername(), target.getHost(), target.getPort());
+            session.setPassword(target.getPassword());
+            session.setConfig("StrictHostKeyChecking", "no");
+            if (target.getSocketOpener() != null) {
+                session.setSocketFactory(new OpenerSocketFactory(target.getSocketOpener()));
+            }
+            session.connect(timeoutMs);
+            return new JschConnection(session);
+        } catch (JSchException e) {
+            if (session != null && session.isConnected()) {
+                session.disconnect();
+            }
+            String message = "SSH connect to " + target.getLabel() + " failed: " + e.getMessage();
+            // JSch chỉ báo lỗi xác thực qua message "Auth fail" / "Auth cancel"
+            if (e.getMessage() != null && e.getMessage().startsWith("Auth ")) {
+                throw new SshAuthException(message, e);
+            }
+            throw new IOException(message, e);
+        }
+    }
+
+    private static class OpenerSocketFactory implements SocketFactory {
+        private final SshTarget.SocketOpener opener;
+
+        OpenerSocketFactory(SshTarget.SocketOpener opener) {
+            this.opener = opener;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return opener.open();
+        }
+
+        @Override
+        public InputStream getInputStream(Socket socket) throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream(Socket socket) throws IOException {
+            return socket.getOutputStream();
+        }
+    }
+
+    private static class JschConnection implements SshConnection {
+        private final Session session;
+
+        JschConnection(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public String getEngine() {
+            return ENGINE;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return session.isConnected();
+        }
+
+        @Override
+        public SshChannel openExec(String command) throws IOException {
+            try {
+                ChannelExec channel = (ChannelExec) session.openChannel("exec");
+                channel.setCommand(command);
+                // JSch yêu cầu gắn stream trước khi connect channel
+                JschChannel wrapped = new JschChannel(channel, true);
+                channel.connect(CHANNEL_CONNECT_TIMEOUT_MS);
+                return wrapped;
+            } catch (JSchException e) {
+                throw new IOException("Failed to open exec channel: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public SshChannel openShell(String ptyType, int columns, int rows) throws IOException {
+            try {
+                ChannelShell channel = (ChannelShell) session.openChannel("shell");
+                channel.setPtyType(ptyType);
+                channel.setPtySize(columns, rows, columns * 8, rows * 20);
+                JschChannel wrapped = new JschChannel(channel, false);
+                channel.connect();
+                return wrapped;
+            } catch (JSchException e) {
+                throw new IOException("Failed to open shell channel: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void sendKeepAlive() throws IOException {
+            try {
+                session.sendKeepAliveMsg();
+            } catch (Exception e) {
+                throw new IOException("Keepalive failed: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (session.isConnected()) {
+                session.disconnect();
+            }
+        }
+    }
+
+    private static class JschChannel implements SshChannel {
+        private final Channel channel;
+        private final InputStream in;
+        private final InputStream err;
+        private final OutputStream out;
+
+        /**
+         * Output is written by the JSch session thread into {@link BlockingBytePipe}s instead of
+         * JSch's own piped streams, so readers on virtual threads do not pin their carrier.
+         */
+        JschChannel(Channel channel, boolean separateErr) throws IOException {
+            this.channel = channel;
+            BlockingBytePipe stdout = new BlockingBytePipe(CHANNEL_PIPE_BYTES);
+            channel.setOutputStream(stdout.sink());
+            this.in = stdout.source();
+            if (separateErr) {
+                BlockingBytePipe stderr = new BlockingBytePipe(CHANNEL_PIPE_BYTES);
+                channel.setExtOutputStream(stderr.sink());
+                this.err = stderr.source();
+            } else {
+                this.err = null;
+            }
+            this.out = channel.getOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public InputStream getErrStream() {
+            return err;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return channel.isClosed();
+        }
+
+        @Override
+        public int getExitStatus() {
+            return channel.getExitStatus();
+        }
+
+        @Override
+        public int waitForExitStatus(long timeoutMs) throws InterruptedException {
+            // JSch không có callback cho exit-status; chỉ gọi sau khi stdout đã EOF nên vòng chờ rất ngắn
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (channel.getExitStatus() == -1 && !channel.isClosed()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(EXIT_STATUS_POLL_MS);
+            }
+            return channel.getExitStatus();
+        }
+
+        @Override
+        public void close() {
+            channel.disconnect();
+        }
+    }
+}
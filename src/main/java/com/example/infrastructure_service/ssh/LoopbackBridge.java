@@ -0,0 +1,125 @@
+package com.example.infrastructure_service.ssh;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Exposes a tunnel socket on a one-shot loopback port so that engines which can
+ * only dial TCP (MINA sshd) can still run over a Kubernetes port-forward.
+ */
+@Slf4j
+class LoopbackBridge implements AutoCloseable {
+
+    private static final int ACCEPT_TIMEOUT_MS = 30000;
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final String label;
+
+    @Getter
+    private final String host;
+    @Getter
+    private final int port;
+
+    private final Socket remote;
+    private volatile Socket local;
+    private volatile boolean closed;
+
+    private LoopbackBridge(ServerSocket serverSocket, Socket remote, String label) {
+        this.serverSocket = serverSocket;
+        this.remote = remote;
+        this.label = label;
+        this.host = serverSocket.getInetAddress().getHostAddress();
+        this.port = serverSocket.getLocalPort();
+    }
+
+    static LoopbackBridge open(SshTarget.SocketOpener opener, String label) throws IOException {
+        // mở tunnel trước để lỗi (vd. pod không còn) trả về cho caller thay vì chỉ thấy kết nối bị đóng
+        Socket remote = opener.open();
+        ServerSocket serverSocket;
+        try {
+            serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MS);
+        } catch (IOException e) {
+            closeQuietly(remote);
+            throw e;
+        }
+        LoopbackBridge bridge = new LoopbackBridge(serverSocket, remote, label);
+
+        Thread acceptor = new Thread(bridge::acceptAndPump, "ssh-bridge-" + label);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return bridge;
+    }
+
+    private void acceptAndPump() {
+        try {
+            local = serverSocket.accept();
+            local.setTcpNoDelay(true);
+            serverSocket.close();
+
+            Thread upstream = new Thread(() -> pump(local, remote), "ssh-bridge-up-" + label);
+            upstream.setDaemon(true);
+            upstream.start();
+
+            pump(remote, local);
+        } catch (SocketTimeoutException e) {
+            log.warn("No SSH client attached to loopback bridge for {} within {} ms", label, ACCEPT_TIMEOUT_MS);
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("Loopback bridge for {} failed: {}", label, e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void pump(Socket from, Socket to) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("Loopback bridge stream for {} ended: {}", label, e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeQuietly(serverSocket);
+        closeQuietly(local);
+        closeQuietly(remote);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.trace("Error closing bridge resource: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.infrastructure_service.ssh;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.ClientBuilder;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelShell;
+import org.apache.sshd.client.channel.ClientChannel;
+import org.apache.sshd.client.channel.ClientChannelEvent;
+import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.SshException;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.cipher.Cipher;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.kex.KexProposalOption;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Engine backed by Apache MINA sshd, negotiating curve25519 key exchange and
+ * AES-GCM / chacha20-poly1305 ciphers first. Enable with {@code ssh.transport.engine=mina}.
+ * AES-GCM is preferred over chacha20 because the JDK runs it on AES-NI intrinsics.
+ */
+@Component
+@ConditionalOnProperty(name = "ssh.transport.engine", havingValue = MinaSshTransport.ENGINE)
+@Slf4j
+public class MinaSshTransport implements SshTransport {
+
+    public static final String ENGINE = "mina";
+
+    private static final Duration CHANNEL_OPEN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final SshClient client;
+
+    public MinaSshTransport() {
+        this.client = createClient();
+        this.client.start();
+    }
+
+    /**
+     * Client preferring modern algorithms, with the older ones kept last so that
+     * guests running an old sshd can still negotiate.
+     */
+    public static SshClient createClient() {
+        SshClient client = SshClient.setUpDefaultClient();
+        client.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
+
+        client.setKeyExchangeFactories(NamedFactory.setUpTransformedFactories(false, List.of(
+            BuiltinDHFactories.curve25519,
+            BuiltinDHFactories.curve25519_libssh,
+            BuiltinDHFactories.ecdhp256,
+            BuiltinDHFactories.dhg14_256
+        ), ClientBuilder.DH2KEX));
+
+        List<NamedFactory<Cipher>> ciphers = new ArrayList<>(NamedFactory.setUpBuiltinFactories(false, List.of(
+            BuiltinCiphers.aes128gcm,
+            BuiltinCiphers.aes256gcm,
+            BuiltinCiphers.cc20p1305_openssh,
+            BuiltinCiphers.aes128ctr,
+            BuiltinCiphers.aes256ctr
+        )));
+        client.setCipherFactories(ciphers);
+        return client;
+    }
+
+    @Override
+    public String getEngine() {
+        return ENGINE;
+    }
+
+    @Override
+    public SshConnection connect(SshTarget target, int timeoutMs) throws IOException {
+        LoopbackBridge bridge = null;
+        ClientSession session = null;
+        try {
+            String host = target.getHost();
+            int port = target.getPort();
+            if (target.getSocketOpener() != null) {
+                // MINA chỉ kết nối qua socket thật, nên tunnel được nối vào một cổng loopback tạm
+                bridge = LoopbackBridge.open(target.getSocketOpener(), target.getLabel());
+                host = bridge.getHost();
+                port = bridge.getPort();
+            }
+
+            session = client.connect(target.getUsername(), host, port)
+                .verify(timeoutMs)
+                .getSession();
+            session.addPasswordIdentity(target.getPassword());
+            try {
+                session.auth().verify(timeoutMs);
+            } catch (SshException e) {
+                // timeout của verify cũng là SshException, chỉ lỗi từ chối xác thực mới là auth failure
+                if (e.getMessage() == null || !e.getMessage().contains("authentication methods")) {
+                    throw e;
+                }
+                closeQuietly(session, bridge);
+                throw new SshAuthException("SSH authentication to " + target.getLabel() + " failed: " + e.getMessage(), e);
+            }
+
+            log.debug("MINA SSH connected to {} (cipher: {}, kex: {})", target.getLabel(),
+                session.getNegotiatedKexParameter(KexProposalOption.C2SENC),
+                session.getNegotiatedKexParameter(KexProposalOption.ALGORITHMS));
+            return new MinaConnection(session, bridge);
+        } catch (SshAuthException e) {
+            throw e;
+        } catch (IOException e) {
+            closeQuietly(session, bridge);
+            throw new IOException("SSH connect to " + target.getLabel() + " failed: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            closeQuietly(session, bridge);
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        client.stop();
+    }
+
+    private static void closeQuietly(ClientSession session, LoopbackBridge bridge) {
+        if (session != null) {
+            session.close(true);
+        }
+        if (bridge != null) {
+            bridge.close();
+        }
+    }
+
+    private static class MinaConnection implements SshConnection {
+        private final ClientSession session;
+        private final LoopbackBridge bridge;
+
+        MinaConnection(ClientSession session, LoopbackBridge bridge) {
+            this.session = session;
+            this.bridge = bridge;
+        }
+
+        @Override
+        public String getEngine() {
+            return ENGINE;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return session.isOpen() && session.isAuthenticated();
+        }
+
+        @Override
+        public SshChannel openExec(String command) throws IOException {
+            ClientChannel channel = session.createExecChannel(command);
+            channel.open().verify(CHANNEL_OPEN_TIMEOUT);
+            return new MinaChannel(channel);
+        }
+
+        @Override
+        public SshChannel openShell(String ptyType, int columns, int rows) throws IOException {
+            ChannelShell channel = session.createShellChannel();
+            channel.setPtyType(ptyType);
+            channel.setPtyColumns(columns);
+            channel.setPtyLines(rows);
+            channel.open().verify(CHANNEL_OPEN_TIMEOUT);
+            return new MinaChannel(channel);
+        }
+
+        @Override
+        public void sendKeepAlive() throws IOException {
+            session.sendIgnoreMessage(new byte[0]);
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(session, bridge);
+        }
+    }
+
+    private static class MinaChannel implements SshChannel {
+        private final ClientChannel channel;
+
+        MinaChannel(ClientChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return channel.getInvertedOut();
+        }
+
+        @Override
+        public InputStream getErrStream() {
+            return channel.getInvertedErr();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return channel.getInvertedIn();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return channel.isClosed();
+        }
+
+        @Override
+        public int getExitStatus() {
+            Integer status = channel.getExitStatus();
+            return status != null ? status : -1;
+        }
+
+        @Override
+        public int waitForExitStatus(long timeoutMs) {
+            channel.waitFor(EnumSet.of(ClientChannelEvent.EXIT_STATUS, ClientChannelEvent.CLOSED), timeoutMs);
+            return getExitStatus();
+        }
+
+        @Override
+        public void close() {
+            channel.close(false);
+        }
+    }
+}
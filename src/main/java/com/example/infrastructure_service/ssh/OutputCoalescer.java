@@ -0,0 +1,106 @@
+package com.example.infrastructure_service.ssh;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merges many small output chunks into fewer, larger ones for a downstream sink.
+ *
+ * Text is flushed every {@code flushIntervalMs}, or immediately once {@code maxChunkChars}
+ * are pending. At most {@code maxBytesPerSecond} UTF-8 bytes are forwarded per second;
+ * anything above that is dropped and reported in the next flush as a skipped-bytes note.
+ */
+public class OutputCoalescer implements AutoCloseable {
+
+    private final int maxChunkChars;
+    private final long maxBytesPerSecond;
+    private final Consumer<String> sink;
+    private final ScheduledFuture<?> ticker;
+
+    private final StringBuilder pending = new StringBuilder();
+    private long windowStart = System.currentTimeMillis();
+    private long windowBytes;
+    private long droppedBytes;
+    private long totalDroppedBytes;
+    private boolean closed;
+
+    public OutputCoalescer(ScheduledExecutorService scheduler, long flushIntervalMs,
+                           int maxChunkChars, long maxBytesPerSecond, Consumer<String> sink) {
+        this.maxChunkChars = maxChunkChars;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.sink = sink;
+        this.ticker = scheduler.scheduleAtFixedRate(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Chunks are handed to the sink while holding the lock so they arrive in order
+    public synchronized void append(String text) {
+        if (closed || text.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= 1000) {
+            windowStart = now;
+            windowBytes = 0;
+        }
+
+        long bytes = utf8Length(text);
+        if (windowBytes + bytes > maxBytesPerSecond) {
+            droppedBytes += bytes;
+            totalDroppedBytes += bytes;
+            return;
+        }
+        windowBytes += bytes;
+        pending.append(text);
+
+        if (pending.length() >= maxChunkChars) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() {
+        if (pending.length() == 0 && droppedBytes == 0) {
+            return;
+        }
+        if (droppedBytes > 0) {
+            pending.append("\n[... ").append(droppedBytes).append(" bytes skipped (rate limit) ...]\n");
+            droppedBytes = 0;
+        }
+        String chunk = pending.toString();
+        pending.setLength(0);
+        sink.accept(chunk);
+    }
+
+    public synchronized long getTotalDroppedBytes() {
+        return totalDroppedBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        ticker.cancel(false);
+        flush();
+        closed = true;
+    }
+
+    static long utf8Length(CharSequence text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
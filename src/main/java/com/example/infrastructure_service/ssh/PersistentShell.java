@@ -0,0 +1,235 @@
+package com.example.infrastructure_service.ssh;
+
+import com.example.infrastructure_service.dto.ExecuteCommandResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A long-lived, non-interactive shell on one exec channel that runs commands without opening a
+ * channel per command.
+ *
+ * Each command is written to the shell's stdin base64-encoded and run as
+ * {@code timeout N $SHELL -c <command>}, so quoting, {@code cd} or {@code exit} in the command do
+ * not affect the shell. That is how sshd runs an exec channel's command, so a command sees the
+ * same non-login environment either way: the user's shell, started as a first-level shell
+ * ({@code SHLVL=0}), reads the same startup files it would for a one-off exec. After it the shell prints a sentinel line with a per-shell nonce, the
+ * command's sequence number and (on stdout) its exit code; both streams are read up to their
+ * sentinel. One command runs at a time. A timeout or any framing problem marks the shell
+ * broken, and the owner is expected to close it and open a new one.
+ */
+@Slf4j
+public class PersistentShell implements AutoCloseable {
+
+    // sh chỉ đọc từng dòng và in sentinel; bản thân lệnh chạy bằng shell của user như exec channel
+    private static final String SHELL_COMMAND = "exec sh";
+    private static final int KILL_AFTER_SECONDS = 5;
+    private static final long RESULT_GRACE_MS = (KILL_AFTER_SECONDS + 2) * 1000L;
+    private static final int TIMEOUT_EXIT_CODE = 124;
+
+    /** The shell can no longer be trusted (lost sentinel, closed channel, garbled frame). */
+    public static class BrokenShellException extends IOException {
+        BrokenShellException(String message) {
+            super(message);
+        }
+    }
+
+    private final CommandConnection connection;
+    private final SshChannel channel;
+    private final OutputStream stdin;
+    private final String marker = "@@LAB_SHELL_" + UUID.randomUUID().toString().replace("-", "");
+    private final SentinelReader stdout;
+    private final SentinelReader stderr;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long sequence;
+    private volatile boolean broken;
+
+    private PersistentShell(CommandConnection connection, SshChannel channel, int captureHeadBytes, int captureTailBytes) {
+        this.connection = connection;
+        this.channel = channel;
+        this.stdin = channel.getOutputStream();
+        byte[] markerBytes = marker.getBytes(StandardCharsets.US_ASCII);
+        this.stdout = new SentinelReader(channel.getInputStream(), markerBytes, captureHeadBytes, captureTailBytes);
+        this.stderr = new SentinelReader(channel.getErrStream(), markerBytes, captureHeadBytes, captureTailBytes);
+        Thread.ofVirtual().name("persistent-shell-out").start(stdout);
+        Thread.ofVirtual().name("persistent-shell-err").start(stderr);
+    }
+
+    public static PersistentShell open(CommandConnection connection, int captureHeadBytes, int captureTailBytes)
+            throws IOException {
+        return new PersistentShell(connection, connection.openExec(SHELL_COMMAND), captureHeadBytes, captureTailBytes);
+    }
+
+    /** True while the shell is alive and still belongs to {@code current}. */
+    public boolean isUsableWith(CommandConnection current) {
+        return !broken && connection == current && connection.isConnected() && !channel.isClosed();
+    }
+
+    /**
+     * Run {@code command} in the shell, or return null without waiting when another command is
+     * still running in it.
+     *
+     * @throws BrokenShellException when the shell stopped answering in the expected framing
+     * @throws IOException          when the command timed out (the shell is then broken as well)
+     */
+    public ExecuteCommandResult tryExecute(String command, int timeoutSeconds) throws IOException, InterruptedException {
+        if (!lock.tryLock()) {
+            return null;
+        }
+        try {
+            if (broken) {
+                throw new BrokenShellException("Shell is broken");
+            }
+            long seq = ++sequence;
+            long start = System.currentTimeMillis();
+            String encoded = Base64.getEncoder().encodeToString(command.getBytes(StandardCharsets.UTF_8));
+            // \n trước sentinel để sentinel luôn nằm đầu dòng dù output không kết thúc bằng newline
+            String line = "SHLVL=0 timeout -k " + KILL_AFTER_SECONDS + " " + timeoutSeconds
+                + " \"${SHELL:-/bin/sh}\" -c \"$(printf %s " + encoded + " | base64 -d)\" </dev/null; "
+                + "printf '\\n%s %d %d\\n' '" + marker + "' " + seq + " $?; "
+                + "printf '\\n%s %d\\n' '" + marker + "' " + seq + " >&2\n";
+            try {
+                stdin.write(line.getBytes(StandardCharsets.US_ASCII));
+                stdin.flush();
+            } catch (IOException e) {
+                throw broken("Failed to write to shell: " + e.getMessage());
+            }
+
+            long deadline = start + timeoutSeconds * 1000L + RESULT_GRACE_MS;
+            Frame out = stdout.await(deadline);
+            Frame err = stderr.await(deadline);
+            if (out == null || err == null) {
+                broken = true;
+                throw new IOException("Command timeout after " + timeoutSeconds + " seconds");
+            }
+            if (out.sequence() != seq || err.sequence() != seq || out.exitCode() == null) {
+                throw broken("Unexpected shell frame " + out.sequence() + "/" + err.sequence() + ", expected " + seq);
+            }
+            if (out.exitCode() == TIMEOUT_EXIT_CODE && System.currentTimeMillis() - start >= timeoutSeconds * 1000L) {
+                // process con bị kill có thể để lại process nền còn ghi ra shell, thay shell mới cho chắc
+                broken = true;
+                throw new IOException("Command timeout after " + timeoutSeconds + " seconds");
+            }
+            return new ExecuteCommandResult(out.exitCode(), out.output().toText().trim(), err.output().toText().trim());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private BrokenShellException broken(String message) {
+        broken = true;
+        return new BrokenShellException(message);
+    }
+
+    @Override
+    public void close() {
+        broken = true;
+        channel.close();
+    }
+
+    record Frame(long sequence, Integer exitCode, HeadTailCapture output) {}
+
+    private static final Frame END_OF_STREAM = new Frame(-1, null, null);
+
+    /**
+     * Splits one stream of the shell into per-command frames: everything up to a sentinel line
+     * belongs to the command named by that sentinel.
+     */
+    static final class SentinelReader implements Runnable {
+        private static final int MAX_SENTINEL_TAIL = 64;
+
+        private final InputStream in;
+        private final byte[] marker;
+        private final int captureHeadBytes;
+        private final int captureTailBytes;
+        private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+        private final byte[] single = new byte[1];
+        private HeadTailCapture current;
+
+        SentinelReader(InputStream in, byte[] marker, int captureHeadBytes, int captureTailBytes) {
+            this.in = in != null ? new BufferedInputStream(in) : InputStream.nullInputStream();
+            this.marker = marker;
+            this.captureHeadBytes = captureHeadBytes;
+            this.captureTailBytes = captureTailBytes;
+            this.current = new HeadTailCapture(captureHeadBytes, captureTailBytes);
+        }
+
+        /** Next frame, or null when none arrived before {@code deadline}. */
+        Frame await(long deadline) throws InterruptedException, BrokenShellException {
+            Frame frame = frames.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (frame == END_OF_STREAM) {
+                frames.add(END_OF_STREAM);
+                throw new BrokenShellException("Shell closed");
+            }
+            return frame;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+                boolean lineStart = true;
+                int b;
+                while ((b = in.read()) != -1) {
+                    if (!lineStart) {
+                        write(b);
+                        lineStart = b == '\n';
+                        continue;
+                    }
+                    // đầu dòng: giữ lại các byte còn khớp với marker, lệch thì trả về output
+                    prefix.write(b);
+                    byte[] candidate = prefix.toByteArray();
+                    if (!Arrays.equals(candidate, 0, candidate.length, marker, 0, candidate.length)) {
+                        current.write(candidate, 0, candidate.length);
+                        prefix.reset();
+                        lineStart = b == '\n';
+                    } else if (candidate.length == marker.length) {
+                        frames.add(parseSentinel(readRestOfLine()));
+                        current = new HeadTailCapture(captureHeadBytes, captureTailBytes);
+                        prefix.reset();
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("Persistent shell stream closed: {}", e.getMessage());
+            }
+            frames.add(END_OF_STREAM);
+        }
+
+        private void write(int b) {
+            single[0] = (byte) b;
+            current.write(single, 0, 1);
+        }
+
+        private String readRestOfLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n' && line.size() < MAX_SENTINEL_TAIL) {
+                line.write(b);
+            }
+            return line.toString(StandardCharsets.US_ASCII).trim();
+        }
+
+        private Frame parseSentinel(String fields) {
+            String[] parts = fields.split(" ");
+            try {
+                long sequence = Long.parseLong(parts[0]);
+                Integer exitCode = parts.length > 1 ? Integer.parseInt(parts[1]) : null;
+                return new Frame(sequence, exitCode, current);
+            } catch (NumberFormatException e) {
+                return new Frame(-1, null, current);
+            }
+        }
+    }
+}
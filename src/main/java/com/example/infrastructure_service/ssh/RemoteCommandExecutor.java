@@ -0,0 +1,182 @@
+package com.example.infrastructure_service.ssh;
+
+import com.example.infrastructure_service.dto.ExecuteCommandResult;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs one command on an exec channel and collects its output.
+ *
+ * stdout and stderr are drained with blocking reads on virtual threads, so a command
+ * completes as soon as the remote side sends EOF and its exit status, and an idle
+ * command costs no platform thread. The caller only waits on the result with the timeout.
+ * Each stream keeps only its first and last {@code ssh.exec.capture.*} bytes (see {@link HeadTailCapture}).
+ */
+@Component
+@Slf4j
+public class RemoteCommandExecutor {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final long EXIT_STATUS_WAIT_MS = 2000;
+
+    private final ExecutorService readers = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("ssh-exec-reader-", 0).factory()
+    );
+
+    private final int captureHeadBytes;
+    private final int captureTailBytes;
+
+    public RemoteCommandExecutor(
+            @Value("${ssh.exec.capture.head-bytes:32768}") int captureHeadBytes,
+            @Value("${ssh.exec.capture.tail-bytes:32768}") int captureTailBytes) {
+        this.captureHeadBytes = captureHeadBytes;
+        this.captureTailBytes = captureTailBytes;
+    }
+
+    public ExecuteCommandResult execute(CommandConnection connection, String command, int timeoutSeconds)
+            throws IOException, InterruptedException {
+        return execute(connection, command, timeoutSeconds, null);
+    }
+
+    /**
+     * Same as {@link #execute(CommandConnection, String, int)}, additionally handing every decoded
+     * stdout/stderr chunk to {@code outputListener} as it arrives. The listener is called from
+     * the reader threads and must be thread-safe.
+     */
+    public ExecuteCommandResult execute(CommandConnection connection, String command, int timeoutSeconds,
+                                        Consumer<String> outputListener)
+            throws IOException, InterruptedException {
+        SshChannel channel = connection.openExec(command);
+        try {
+            CompletableFuture<HeadTailCapture> stdout = readAsync(channel.getInputStream(), outputListener);
+            CompletableFuture<HeadTailCapture> stderr = readAsync(channel.getErrStream(), outputListener);
+
+            try {
+                CompletableFuture.allOf(stdout, stderr).get(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new IOException("Command timeout after " + timeoutSeconds + " seconds");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to read command output: " + e.getCause().getMessage(), e.getCause());
+            }
+
+            int exitCode = channel.waitForExitStatus(EXIT_STATUS_WAIT_MS);
+            HeadTailCapture out = stdout.join();
+            HeadTailCapture err = stderr.join();
+            if (out.getDroppedBytes() > 0 || err.getDroppedBytes() > 0) {
+                log.debug("Output of '{}' truncated: stdout {}/{} bytes dropped, stderr {}/{} bytes dropped",
+                    command, out.getDroppedBytes(), out.getTotalBytes(), err.getDroppedBytes(), err.getTotalBytes());
+            }
+            return new ExecuteCommandResult(exitCode, out.toText().trim(), err.toText().trim());
+        } finally {
+            // đóng channel cũng giải phóng các reader còn đang chặn khi timeout
+            channel.close();
+        }
+    }
+
+    /** Reads a command's raw stdout as it arrives. */
+    @FunctionalInterface
+    public interface StdoutHandler {
+        void handle(InputStream stdout) throws IOException;
+    }
+
+    /**
+     * Run {@code command}, write {@code stdin} to it and close stdin, and hand the raw stdout
+     * stream to {@code stdoutHandler} on a reader thread instead of capturing it. The returned
+     * result carries the exit code and the captured stderr; its stdout is empty.
+     */
+    public ExecuteCommandResult execute(CommandConnection connection, String command, byte[] stdin,
+                                        int timeoutSeconds, StdoutHandler stdoutHandler)
+            throws IOException, InterruptedException {
+        SshChannel channel = connection.openExec(command);
+        try {
+            CompletableFuture<Void> stdout = CompletableFuture.runAsync(() -> {
+                try {
+                    stdoutHandler.handle(channel.getInputStream());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, readers);
+            CompletableFuture<HeadTailCapture> stderr = readAsync(channel.getErrStream(), null);
+
+            try (OutputStream in = channel.getOutputStream()) {
+                in.write(stdin);
+            }
+
+            try {
+                CompletableFuture.allOf(stdout, stderr).get(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                throw new IOException("Command timeout after " + timeoutSeconds + " seconds");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof UncheckedIOException io ? io.getCause() : e.getCause();
+                throw cause instanceof IOException io ? io : new IOException("Failed to read command output: " + cause.getMessage(), cause);
+            }
+
+            int exitCode = channel.waitForExitStatus(EXIT_STATUS_WAIT_MS);
+            return new ExecuteCommandResult(exitCode, "", stderr.join().toText().trim());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private CompletableFuture<HeadTailCapture> readAsync(InputStream in, Consumer<String> listener) {
+        if (in == null) {
+            return CompletableFuture.completedFuture(new HeadTailCapture(0, 0));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return readToEnd(in, listener);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, readers);
+    }
+
+    private HeadTailCapture readToEnd(InputStream in, Consumer<String> listener) throws IOException {
+        HeadTailCapture capture = new HeadTailCapture(captureHeadBytes, captureTailBytes);
+        // chỉ decode khi có listener, phần capture giữ byte thô
+        Utf8StreamDecoder decoder = listener != null ? new Utf8StreamDecoder() : null;
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            capture.write(buffer, 0, read);
+            if (decoder != null) {
+                emit(listener, decoder.decode(buffer, 0, read));
+            }
+        }
+        if (decoder != null) {
+            emit(listener, decoder.finish());
+        }
+        return capture;
+    }
+
+    private static void emit(Consumer<String> listener, String chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            listener.accept(chunk);
+        } catch (RuntimeException e) {
+            // listener lỗi không được làm hỏng việc thu output của lệnh
+            log.debug("Output listener failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readers.shutdownNow();
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.infrastructure_service.ssh;
+
+import java.io.IOException;
+
+/**
+ * The server rejected the credentials. Retrying with the same credentials only helps while
+ * the guest is still being provisioned.
+ */
+public class SshAuthException extends IOException {
+
+    public SshAuthException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.infrastructure_service.ssh;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One exec or shell channel of an {@link SshConnection}.
+ */
+public interface SshChannel extends AutoCloseable {
+
+    /** Remote stdout. */
+    InputStream getInputStream();
+
+    /** Remote stderr; shells with a pty merge it into stdout. */
+    InputStream getErrStream();
+
+    /** Remote stdin. */
+    OutputStream getOutputStream();
+
+    boolean isClosed();
+
+    /** Exit status of the remote command, or -1 while it is still running. */
+    int getExitStatus();
+
+    /**
+     * Block until the remote side has reported an exit status or closed the channel,
+     * at most {@code timeoutMs}. Returns the exit status, or -1 if none arrived.
+     */
+    int waitForExitStatus(long timeoutMs) throws InterruptedException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,18 @@
+package com.example.infrastructure_service.ssh;
+
+import java.io.IOException;
+
+/**
+ * An authenticated SSH session. Channels opened from it share the same tunnel.
+ */
+public interface SshConnection extends CommandConnection {
+
+    String getEngine();
+
+    /**
+     * Open an interactive shell with a pseudo terminal of the given size.
+     */
+    SshChannel openShell(String ptyType, int columns, int rows) throws IOException;
+
+    void sendKeepAlive() throws IOException;
+}
@@ -0,0 +1,244 @@
+package com.example.infrastructure_service.ssh;
+
+import io.kubernetes.client.openapi.ApiException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one place that retries SSH connects, for every caller.
+ *
+ * Attempts back off exponentially with jitter inside an end-to-end deadline, and errors that
+ * cannot succeed on retry (rejected credentials, pod gone) end the loop at once. When an attempt
+ * takes longer than the p95 of recent successful connects, a single hedged attempt is started
+ * next to it and whichever finishes first wins; the other connection is closed.
+ */
+@Component
+@Slf4j
+public class SshConnector {
+
+    private static final int LATENCY_WINDOW = 128;
+    // cần đủ mẫu thì p95 mới có nghĩa, trước đó không hedge
+    private static final int MIN_SAMPLES_FOR_HEDGE = 20;
+    private static final long RESULT_GRACE_MS = 2000;
+
+    private final SshTransport transport;
+    private final ExecutorService attempts = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("ssh-connect-", 0).factory()
+    );
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private int latencyNext;
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong hedgedAttempts = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public SshConnector(SshTransport transport) {
+        this.transport = transport;
+    }
+
+    public SshConnection connect(SshTarget target, ConnectPolicy policy) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + policy.getDeadlineMs();
+        long backoff = policy.getInitialBackoffMs();
+        IOException lastFailure = null;
+
+        for (int attempt = 1; ; attempt++) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException("SSH connect to " + target.getLabel() + " failed after " + (attempt - 1)
+                    + " attempts in " + policy.getDeadlineMs() + " ms: "
+                    + (lastFailure != null ? lastFailure.getMessage() : "deadline exceeded"), lastFailure);
+            }
+
+            try {
+                SshConnection connection = attempt(target, (int) Math.min(policy.getAttemptTimeoutMs(), remaining), policy.isHedged());
+                connects.incrementAndGet();
+                log.info("SSH connected to {} on attempt {} in {} ms", target.getLabel(), attempt,
+                    System.currentTimeMillis() - start);
+                return connection;
+            } catch (IOException e) {
+                lastFailure = e;
+                failedAttempts.incrementAndGet();
+                if (!isRetryable(e, policy)) {
+                    log.warn("SSH connect to {} failed permanently: {}", target.getLabel(), e.getMessage());
+                    throw e;
+                }
+                log.warn("SSH connect attempt {} to {} failed: {}", attempt, target.getLabel(), e.getMessage());
+            }
+
+            // equal jitter: ngủ trong khoảng [backoff/2, backoff] để các caller không retry cùng lúc
+            long sleep = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            sleep = Math.min(sleep, deadline - System.currentTimeMillis());
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+            backoff = Math.min(backoff * 2, policy.getMaxBackoffMs());
+        }
+    }
+
+    private SshConnection attempt(SshTarget target, int timeoutMs, boolean hedged)
+            throws IOException, InterruptedException {
+        CompletableFuture<SshConnection> primary = startAttempt(target, timeoutMs);
+        long hedgeAfter = hedged ? p95LatencyMs() : -1;
+        if (hedgeAfter <= 0 || hedgeAfter >= timeoutMs) {
+            return await(primary, timeoutMs + RESULT_GRACE_MS);
+        }
+
+        try {
+            return primary.get(hedgeAfter, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // attempt chính chậm hơn p95, chạy thêm đúng một attempt song song
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            closeWhenDone(primary);
+            throw e;
+        }
+
+        hedgedAttempts.incrementAndGet();
+        log.debug("SSH connect to {} slower than p95 ({} ms), starting hedged attempt", target.getLabel(), hedgeAfter);
+        CompletableFuture<SshConnection> hedge = startAttempt(target, (int) (timeoutMs - hedgeAfter));
+        CompletableFuture<SshConnection> winner = firstSuccessful(primary, hedge);
+        SshConnection connection = await(winner, timeoutMs - hedgeAfter + RESULT_GRACE_MS);
+        if (hedge.isDone() && hedge.getNow(null) == connection) {
+            hedgeWins.incrementAndGet();
+        }
+        return connection;
+    }
+
+    private CompletableFuture<SshConnection> startAttempt(SshTarget target, int timeoutMs) {
+        return CompletableFuture.supplyAsync(() -> {
+            long started = System.nanoTime();
+            try {
+                SshConnection connection = transport.connect(target, timeoutMs);
+                recordLatency((System.nanoTime() - started) / 1_000_000);
+                return connection;
+            } catch (IOException e) {
+                throw new AttemptFailure(e);
+            }
+        }, attempts);
+    }
+
+    /**
+     * Completes with the first connection to succeed and closes the one that arrives later;
+     * fails only when both attempts fail.
+     */
+    private static CompletableFuture<SshConnection> firstSuccessful(CompletableFuture<SshConnection> first,
+                                                                    CompletableFuture<SshConnection> second) {
+        CompletableFuture<SshConnection> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<SshConnection> candidate : Arrays.asList(first, second)) {
+            candidate.whenComplete((connection, error) -> {
+                if (error == null) {
+                    if (!result.complete(connection)) {
+                        connection.close();
+                    }
+                } else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+        return result;
+    }
+
+    private static SshConnection await(CompletableFuture<SshConnection> future, long timeoutMs)
+            throws IOException, InterruptedException {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new AttemptTimeoutException(timeoutMs);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            if (!future.isDone()) {
+                // attempt bị bỏ (timeout) vẫn có thể kết nối xong sau đó, phải đóng lại
+                closeWhenDone(future);
+            }
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause() instanceof AttemptFailure failure ? failure.getCause() : e.getCause();
+        return cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+    }
+
+    private static void closeWhenDone(CompletableFuture<SshConnection> future) {
+        future.thenAccept(SshConnection::close);
+    }
+
+    private static boolean isRetryable(IOException failure, ConnectPolicy policy) {
+        if (failure instanceof SshAuthException) {
+            return policy.isRetryAuthFailures();
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException api && (api.getCode() == 404 || api.getCode() == 401 || api.getCode() == 403)) {
+                return false;
+            }
+            String message = cause.getMessage();
+            if (message != null && message.contains("pods \"") && message.contains("not found")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void recordLatency(long millis) {
+        latencies[latencyNext] = millis;
+        latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+    }
+
+    synchronized long p95LatencyMs() {
+        if (latencyCount < MIN_SAMPLES_FOR_HEDGE) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.95 * latencyCount) - 1];
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connects", connects.get());
+        stats.put("failedAttempts", failedAttempts.get());
+        stats.put("hedgedAttempts", hedgedAttempts.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("p95ConnectMs", p95LatencyMs());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        attempts.shutdownNow();
+    }
+
+    private static class AttemptFailure extends RuntimeException {
+        AttemptFailure(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private static class AttemptTimeoutException extends IOException {
+        AttemptTimeoutException(long timeoutMs) {
+            super("SSH connect attempt did not finish within " + timeoutMs + " ms");
+        }
+    }
+}
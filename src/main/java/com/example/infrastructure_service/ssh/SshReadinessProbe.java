@@ -0,0 +1,123 @@
+package com.example.infrastructure_service.ssh;
+
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for a guest's sshd to come up by opening a tunnel to port 22 and reading only the
+ * server's version banner ({@code SSH-2.0-...}), without key exchange or authentication.
+ * Attempts are retried with a growing delay, so a fast-booting guest is detected quickly
+ * and a slow one is not hammered.
+ */
+@Component
+@Slf4j
+public class SshReadinessProbe {
+
+    private static final long INITIAL_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = 5000;
+    private static final double BACKOFF_FACTOR = 1.5;
+    private static final long ATTEMPT_TIMEOUT_MS = 3000;
+    // RFC 4253: server có thể gửi vài dòng trước banner, mỗi dòng tối đa 255 byte
+    private static final int MAX_LINE_LENGTH = 255;
+    private static final int MAX_PRE_BANNER_LINES = 20;
+
+    private final PortForwardTunnelManager tunnelManager;
+    private final ExecutorService readers = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("ssh-probe-", 0).factory()
+    );
+
+    public SshReadinessProbe(PortForwardTunnelManager tunnelManager) {
+        this.tunnelManager = tunnelManager;
+    }
+
+    /**
+     * Block until sshd on the pod answers with its banner, at most {@code timeoutMs}.
+     * Returns the banner line.
+     */
+    public String awaitBanner(String namespace, String podName, long timeoutMs) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMs;
+        long delay = INITIAL_DELAY_MS;
+        int attempt = 0;
+        IOException lastFailure = null;
+
+        while (true) {
+            attempt++;
+            long remaining = deadline - System.currentTimeMillis();
+            try {
+                String banner = readBanner(namespace, podName, Math.min(ATTEMPT_TIMEOUT_MS, Math.max(remaining, 1)));
+                log.info("🔎 SSH ready on pod {} after {} probe(s) in {} ms: {}",
+                    podName, attempt, System.currentTimeMillis() - start, banner);
+                return banner;
+            } catch (IOException e) {
+                lastFailure = e;
+                log.debug("SSH probe {} on pod {} failed: {}", attempt, podName, e.getMessage());
+            }
+
+            remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException("SSH on pod " + podName + " not ready after " + attempt
+                    + " probes in " + timeoutMs + " ms", lastFailure);
+            }
+            Thread.sleep(Math.min(delay, remaining));
+            delay = Math.min((long) (delay * BACKOFF_FACTOR), MAX_DELAY_MS);
+        }
+    }
+
+    private String readBanner(String namespace, String podName, long timeoutMs) throws IOException, InterruptedException {
+        Socket socket = tunnelManager.openSocket(namespace, podName, SshTarget.SSH_PORT);
+        try {
+            // socket của tunnel không hỗ trợ SO_TIMEOUT nên đọc trên virtual thread và chờ có hạn
+            Future<String> banner = readers.submit(() -> readVersionLine(socket.getInputStream()));
+            return banner.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("No SSH banner within " + timeoutMs + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+        } finally {
+            // đóng socket cũng giải phóng reader còn đang chặn
+            socket.close();
+        }
+    }
+
+    private static String readVersionLine(InputStream in) throws IOException {
+        for (int line = 0; line < MAX_PRE_BANNER_LINES; line++) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (buffer.size() >= MAX_LINE_LENGTH) {
+                    throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes before SSH banner");
+                }
+                buffer.write(b);
+            }
+            if (b == -1) {
+                throw new IOException("Connection closed before SSH banner");
+            }
+            String text = buffer.toString(StandardCharsets.US_ASCII).trim();
+            if (text.startsWith("SSH-")) {
+                return text;
+            }
+        }
+        throw new IOException("No SSH banner in the first " + MAX_PRE_BANNER_LINES + " lines");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readers.shutdownNow();
+    }
+}
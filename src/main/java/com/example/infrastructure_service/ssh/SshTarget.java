@@ -0,0 +1,45 @@
+package com.example.infrastructure_service.ssh;
+
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Where and as whom to connect. When a {@link SocketOpener} is set the engine talks
+ * SSH over the socket it returns (e.g. a port-forward tunnel) instead of dialing host:port.
+ */
+@Getter
+@Builder
+public class SshTarget {
+
+    public static final int SSH_PORT = 22;
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final SocketOpener socketOpener;
+
+    // Dùng cho log: tên pod hoặc host
+    private final String label;
+
+    public static SshTarget forPod(PortForwardTunnelManager tunnelManager, String namespace, String podName,
+                                   String username, String password) {
+        return SshTarget.builder()
+            .host("localhost")
+            .port(SSH_PORT)
+            .username(username)
+            .password(password)
+            .socketOpener(() -> tunnelManager.openSocket(namespace, podName, SSH_PORT))
+            .label(podName)
+            .build();
+    }
+
+    @FunctionalInterface
+    public interface SocketOpener {
+        Socket open() throws IOException;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.infrastructure_service.ssh;
+
+import java.io.IOException;
+
+/**
+ * SSH engine used for every connection to a lab VM.
+ * The active engine is picked with {@code ssh.transport.engine} (jsch | mina).
+ */
+public interface SshTransport {
+
+    String getEngine();
+
+    /**
+     * Connect and authenticate against the target, failing after {@code timeoutMs}.
+     */
+    SshConnection connect(SshTarget target, int timeoutMs) throws IOException;
+}
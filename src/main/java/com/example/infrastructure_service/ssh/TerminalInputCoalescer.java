@@ -0,0 +1,232 @@
+package com.example.infrastructure_service.ssh;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Merges a terminal's keystrokes into fewer writes to its SSH shell channel.
+ *
+ * Both engines' channel streams send one SSH packet (one encryption and MAC) per {@code flush()},
+ * so writing each WebSocket message on its own turns pastes and key repeat into packet storms.
+ * Input arriving after a quiet period is written at once, so a single keystroke is not delayed.
+ * Input that follows within {@code flushWindowMicros} of the last packet is held and written
+ * together when the window ends, or as soon as {@code maxPacketBytes} are pending. Input with a
+ * key that sends a signal or ends input (Ctrl-C, Ctrl-D, Ctrl-Z, Ctrl-\) is written immediately,
+ * together with whatever was held before it.
+ */
+@Slf4j
+public class TerminalInputCoalescer implements AutoCloseable {
+
+    private static final int INITIAL_BUFFER_BYTES = 256;
+
+    private final ScheduledExecutorService scheduler;
+    private final long flushWindowNanos;
+    private final int maxPacketBytes;
+    private final OutputStream out;
+    // lock thay cho synchronized: ghi vào channel có thể chờ, không giữ chặt carrier của virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private byte[] pending = new byte[INITIAL_BUFFER_BYTES];
+    private int pendingLength;
+    private long lastFlushAt;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    private long writes;
+    private long bytes;
+    private long packets;
+    private long urgentFlushes;
+
+    public TerminalInputCoalescer(ScheduledExecutorService scheduler, long flushWindowMicros, int maxPacketBytes, OutputStream out) {
+        this.scheduler = scheduler;
+        this.flushWindowNanos = TimeUnit.MICROSECONDS.toNanos(flushWindowMicros);
+        this.maxPacketBytes = Math.max(maxPacketBytes, 4);
+        this.out = out;
+        this.lastFlushAt = System.nanoTime() - flushWindowNanos;
+    }
+
+    /** One input message of raw bytes. */
+    public void write(ByteBuffer input) throws IOException {
+        lock.lock();
+        try {
+            boolean quiet = beginWrite(input.remaining());
+            boolean urgent = false;
+            while (input.hasRemaining()) {
+                if (pendingLength == maxPacketBytes) {
+                    sendPending();
+                }
+                int n = Math.min(input.remaining(), maxPacketBytes - pendingLength);
+                ensureCapacity(pendingLength + n);
+                input.get(pending, pendingLength, n);
+                for (int i = pendingLength; i < pendingLength + n; i++) {
+                    urgent |= isUrgent(pending[i]);
+                }
+                pendingLength += n;
+            }
+            endWrite(quiet, urgent);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** One input message of text, encoded as UTF-8 straight into the pending buffer. */
+    public void write(CharSequence input) throws IOException {
+        lock.lock();
+        try {
+            boolean quiet = beginWrite(0);
+            boolean urgent = false;
+            int start = pendingLength;
+            for (int i = 0; i < input.length(); i++) {
+                if (pendingLength > maxPacketBytes - 4) {
+                    bytes += pendingLength - start;
+                    sendPending();
+                    start = 0;
+                }
+                ensureCapacity(pendingLength + 4);
+                char c = input.charAt(i);
+                if (c < 0x80) {
+                    urgent |= isUrgent((byte) c);
+                    pending[pendingLength++] = (byte) c;
+                } else if (c < 0x800) {
+                    pending[pendingLength++] = (byte) (0xC0 | c >> 6);
+                    pending[pendingLength++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < input.length()
+                        && Character.isLowSurrogate(input.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, input.charAt(++i));
+                    pending[pendingLength++] = (byte) (0xF0 | codePoint >> 18);
+                    pending[pendingLength++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    pending[pendingLength++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    pending[pendingLength++] = (byte) (0x80 | codePoint & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    // surrogate lẻ: như String.getBytes
+                    pending[pendingLength++] = '?';
+                } else {
+                    pending[pendingLength++] = (byte) (0xE0 | c >> 12);
+                    pending[pendingLength++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    pending[pendingLength++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            bytes += pendingLength - start;
+            endWrite(quiet, urgent);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            sendPending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Writes what is still held; later input is rejected. The channel stream is left open. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            try {
+                sendPending();
+            } catch (IOException e) {
+                log.debug("Failed to write pending terminal input: {}", e.getMessage());
+            }
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Input messages, bytes, SSH packets written, and packets per message (1.0 without coalescing). */
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("writes", writes);
+            stats.put("bytes", bytes);
+            stats.put("packets", packets);
+            stats.put("urgentFlushes", urgentFlushes);
+            stats.put("packetsPerWrite", writes == 0 ? 0.0 : Math.round(packets * 1000.0 / writes) / 1000.0);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ctrl-C, Ctrl-D, Ctrl-Z and Ctrl-\: the shell should see them without waiting for the window. */
+    private static boolean isUrgent(byte b) {
+        return b == 0x03 || b == 0x04 || b == 0x1A || b == 0x1C;
+    }
+
+    private boolean beginWrite(int length) throws IOException {
+        if (closed) {
+            throw new IOException("Terminal input is closed");
+        }
+        writes++;
+        bytes += length;
+        return pendingLength == 0 && System.nanoTime() - lastFlushAt >= flushWindowNanos;
+    }
+
+    private void endWrite(boolean quiet, boolean urgent) throws IOException {
+        if (urgent) {
+            urgentFlushes++;
+        }
+        if (quiet || urgent) {
+            sendPending();
+        } else if (pendingLength > 0 && scheduledFlush == null) {
+            // ghi ở virtual thread để một channel đang chờ không giữ thread của scheduler
+            scheduledFlush = scheduler.schedule(() -> Thread.startVirtualThread(this::flushQuietly),
+                flushWindowNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.debug("Failed to write terminal input: {}", e.getMessage());
+        }
+    }
+
+    private void sendPending() throws IOException {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        lastFlushAt = System.nanoTime();
+        if (pendingLength == 0) {
+            return;
+        }
+        int length = pendingLength;
+        pendingLength = 0;
+        packets++;
+        out.write(pending, 0, length);
+        out.flush();
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= pending.length) {
+            return;
+        }
+        int capacity = pending.length;
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        byte[] grown = new byte[capacity];
+        System.arraycopy(pending, 0, grown, 0, pendingLength);
+        pending = grown;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.infrastructure_service.ssh;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Turns a terminal's raw SSH output into fewer, larger frames of bytes.
+ *
+ * Output arriving after a quiet period is sent at once, so a keystroke echo is not delayed.
+ * Output that follows within {@code flushWindowMs} of the last frame is held and sent together
+ * when the window ends, or as soon as {@code maxFrameBytes} are pending. Frames end on a UTF-8
+ * character boundary: the bytes of a character split across reads wait for the rest, so every
+ * frame can be sent as-is in a binary message or decoded on its own for a text one, and stays
+ * within {@code maxFrameBytes}. Unlike {@link OutputCoalescer} nothing is ever dropped: a
+ * terminal screen with missing bytes is corrupt.
+ */
+@Slf4j
+public class TerminalOutputCoalescer implements TerminalRelay.Sink {
+
+    private static final int INITIAL_BUFFER_BYTES = 512;
+
+    /**
+     * Receives the coalesced frames, in order. {@code frame} is the coalescer's own buffer and
+     * is reused once the call returns.
+     */
+    public interface FrameSink {
+        void send(byte[] frame, int offset, int length) throws IOException;
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long flushWindowMs;
+    private final int maxFrameBytes;
+    private final FrameSink sink;
+    // lock thay cho synchronized: sink gửi ra WebSocket có thể chờ, không giữ chặt carrier của virtual thread.
+    // sink vẫn được gọi khi giữ lock để frame đi đúng thứ tự và buffer không bị ghi đè khi đang gửi
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private byte[] pending = new byte[0];
+    private int pendingLength;
+    private long lastFlushAt;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    private long reads;
+    private long bytes;
+    private long frames;
+
+    public TerminalOutputCoalescer(ScheduledExecutorService scheduler, long flushWindowMs, int maxFrameBytes, FrameSink sink) {
+        this.scheduler = scheduler;
+        this.flushWindowMs = flushWindowMs;
+        this.maxFrameBytes = maxFrameBytes;
+        this.sink = sink;
+    }
+
+    @Override
+    public void onOutput(byte[] buffer, int offset, int length) {
+        lock.lock();
+        try {
+            append(buffer, offset, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() {
+        lock.lock();
+        try {
+            flushPending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onClosed() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            flushPending();
+            // byte lẻ cuối stream: gửi nguyên, phía text sẽ thành ký tự thay thế
+            send(pendingLength);
+            pendingLength = 0;
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Reads from SSH, bytes, frames sent, and frames saved compared with one frame per read. */
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("reads", reads);
+            stats.put("bytes", bytes);
+            stats.put("frames", frames);
+            stats.put("framesSaved", reads - frames);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(byte[] buffer, int offset, int length) {
+        if (closed) {
+            return;
+        }
+        reads++;
+        bytes += length;
+        boolean quiet = pendingLength == 0 && System.currentTimeMillis() - lastFlushAt >= flushWindowMs;
+        while (length > 0) {
+            int n = Math.min(length, maxFrameBytes - pendingLength);
+            ensureCapacity(pendingLength + n);
+            System.arraycopy(buffer, offset, pending, pendingLength, n);
+            pendingLength += n;
+            offset += n;
+            length -= n;
+            if (pendingLength == maxFrameBytes) {
+                flushPending();
+            }
+        }
+        if (quiet) {
+            flushPending();
+        } else if (pendingLength > 0 && scheduledFlush == null) {
+            // gửi ở virtual thread để một client chậm không giữ thread của scheduler
+            scheduledFlush = scheduler.schedule(() -> Thread.startVirtualThread(this::flush),
+                flushWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPending() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        lastFlushAt = System.currentTimeMillis();
+        if (pendingLength == 0) {
+            return;
+        }
+        int cut = completeLength(pending, pendingLength);
+        send(cut);
+        // phần ký tự còn dở (tối đa 3 byte) chờ các byte tiếp theo
+        System.arraycopy(pending, cut, pending, 0, pendingLength - cut);
+        pendingLength -= cut;
+    }
+
+    /** Length of the prefix of {@code buffer} that ends on a UTF-8 character boundary. */
+    static int completeLength(byte[] buffer, int length) {
+        for (int i = length - 1; i >= Math.max(0, length - 4); i--) {
+            int b = buffer[i] & 0xFF;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int size = b < 0x80 ? 1 : (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 1;
+            return i + size > length ? i : length;
+        }
+        // không tìm thấy byte đầu ký tự: dữ liệu lỗi, gửi nguyên
+        return length;
+    }
+
+    private void send(int length) {
+        if (length == 0) {
+            return;
+        }
+        frames++;
+        try {
+            sink.send(pending, 0, length);
+        } catch (IOException e) {
+            log.debug("Failed to send terminal frame: {}", e.getMessage());
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= pending.length) {
+            return;
+        }
+        int capacity = Math.max(pending.length, INITIAL_BUFFER_BYTES);
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        byte[] grown = new byte[Math.min(capacity, maxFrameBytes)];
+        System.arraycopy(pending, 0, grown, 0, pendingLength);
+        pending = grown;
+    }
+}
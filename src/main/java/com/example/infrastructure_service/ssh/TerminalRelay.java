@@ -0,0 +1,76 @@
+package com.example.infrastructure_service.ssh;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pumps the output of one terminal's SSH shell channel to a sink on a virtual thread.
+ *
+ * A terminal spends nearly all its life blocked in {@code read()}; on a virtual thread that costs
+ * a small heap-allocated stack instead of a platform thread, so thousands of open terminals no
+ * longer need thousands of OS threads. Both engines' channel streams block on
+ * {@code java.util.concurrent} locks (see {@link BlockingBytePipe} for JSch), so a blocked reader
+ * releases its carrier.
+ */
+@Slf4j
+public final class TerminalRelay implements AutoCloseable {
+
+    private static final int READ_BUFFER_BYTES = 4096;
+
+    /** Receives the terminal's output; called only from the relay's thread. */
+    public interface Sink {
+        void onOutput(byte[] buffer, int offset, int length) throws IOException;
+
+        /** The shell's output ended (remote exit, channel closed or relay closed). */
+        default void onClosed() {
+        }
+    }
+
+    private final String name;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private TerminalRelay(String name, InputStream in, Sink sink) {
+        this.name = name;
+        this.thread = Thread.ofVirtual().name("ssh-reader-" + name).unstarted(() -> pump(in, sink));
+    }
+
+    public static TerminalRelay start(String name, SshChannel channel, Sink sink) {
+        TerminalRelay relay = new TerminalRelay(name, channel.getInputStream(), sink);
+        relay.thread.start();
+        return relay;
+    }
+
+    public boolean isRunning() {
+        return thread.isAlive();
+    }
+
+    private void pump(InputStream in, Sink sink) {
+        log.info(" Starting SSH output reader for: {}", name);
+        byte[] buffer = new byte[READ_BUFFER_BYTES];
+        try {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                sink.onOutput(buffer, 0, bytesRead);
+            }
+            log.info(" SSH output stream ended for: {}", name);
+        } catch (IOException e) {
+            if (closed || Thread.currentThread().isInterrupted()) {
+                log.debug("SSH output reader interrupted for: {}", name);
+            } else {
+                log.debug("SSH output reader stopped for {}: {}", name, e.getMessage());
+            }
+        } finally {
+            sink.onClosed();
+        }
+    }
+
+    /** Stop reading; the channel itself is closed by its owner. */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+}
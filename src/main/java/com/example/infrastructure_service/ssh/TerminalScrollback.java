@@ -0,0 +1,101 @@
+package com.example.infrastructure_service.ssh;
+
+import java.util.Arrays;
+
+/**
+ * The last {@code capacity} bytes of a terminal's output, replayed to a client that reconnects.
+ *
+ * Positions are absolute offsets into the terminal's whole output, so a client that counts the
+ * bytes it received can ask for exactly what it missed. The ring starts empty and doubles up to
+ * {@code capacity} as output arrives: a terminal nobody types into costs almost nothing, and
+ * only busy ones reach the full size.
+ */
+public final class TerminalScrollback {
+
+    private static final int INITIAL_BYTES = 1024;
+
+    private final int capacity;
+    private byte[] ring = new byte[0];
+    private int head;
+    private int size;
+    /** Total bytes ever appended; the ring holds offsets [end - size, end). */
+    private long end;
+
+    public TerminalScrollback(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void append(byte[] buffer, int offset, int length) {
+        if (length > capacity) {
+            // chỉ giữ phần cuối
+            offset += length - capacity;
+            end += length - capacity;
+            length = capacity;
+        }
+        if (length == 0) {
+            return;
+        }
+        ensureCapacity(Math.min(size + length, capacity));
+        int writePos = (head + size) % ring.length;
+        int first = Math.min(length, ring.length - writePos);
+        System.arraycopy(buffer, offset, ring, writePos, first);
+        System.arraycopy(buffer, offset + first, ring, 0, length - first);
+        int overflow = size + length - ring.length;
+        if (overflow > 0) {
+            head = (head + overflow) % ring.length;
+            size = ring.length;
+        } else {
+            size += length;
+        }
+        end += length;
+    }
+
+    /** Offset just past the last byte of output. */
+    public synchronized long end() {
+        return end;
+    }
+
+    /**
+     * Output from {@code offset} on, or everything still held if {@code offset} is unknown
+     * (negative, already overwritten, or from another terminal). When the oldest output has been
+     * overwritten the replay begins at the next line, so it does not open mid-character or
+     * mid-escape sequence.
+     */
+    public synchronized byte[] since(long offset) {
+        long start = end - size;
+        boolean resumable = offset >= start && offset <= end;
+        long from = resumable ? offset : start;
+        byte[] out = new byte[(int) (end - from)];
+        if (out.length > 0) {
+            int readPos = (int) ((head + (from - start)) % ring.length);
+            int first = Math.min(out.length, ring.length - readPos);
+            System.arraycopy(ring, readPos, out, 0, first);
+            System.arraycopy(ring, 0, out, first, out.length - first);
+        }
+        if (resumable || start == 0) {
+            return out;
+        }
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] == '\n') {
+                return Arrays.copyOfRange(out, i + 1, out.length);
+            }
+        }
+        return out;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= ring.length) {
+            return;
+        }
+        int grown = Math.max(ring.length, INITIAL_BYTES);
+        while (grown < needed) {
+            grown *= 2;
+        }
+        byte[] next = new byte[Math.min(grown, capacity)];
+        int first = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, next, 0, first);
+        System.arraycopy(ring, 0, next, first, size - first);
+        ring = next;
+        head = 0;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.infrastructure_service.ssh;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a UTF-8 byte stream chunk by chunk. A multi-byte character split across two
+ * reads is held back (at most 3 bytes) and completed by the next chunk instead of being
+ * turned into replacement characters. Not thread-safe: one instance per stream.
+ */
+public class Utf8StreamDecoder {
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final byte[] carry = new byte[4];
+    private int carryLength;
+
+    public String decode(byte[] bytes, int offset, int length) {
+        ByteBuffer in;
+        if (carryLength > 0) {
+            in = ByteBuffer.allocate(carryLength + length);
+            in.put(carry, 0, carryLength).put(bytes, offset, length).flip();
+        } else {
+            in = ByteBuffer.wrap(bytes, offset, length);
+        }
+
+        // UTF-8 never yields more chars than bytes
+        CharBuffer out = CharBuffer.allocate(in.remaining());
+        decoder.decode(in, out, false);
+
+        carryLength = in.remaining();
+        in.get(carry, 0, carryLength);
+
+        out.flip();
+        return out.toString();
+    }
+
+    /**
+     * End of stream: emit whatever is still held back (as replacement characters if incomplete).
+     */
+    public String finish() {
+        ByteBuffer in = ByteBuffer.wrap(carry, 0, carryLength);
+        CharBuffer out = CharBuffer.allocate(carryLength + 1);
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        decoder.reset();
+        carryLength = 0;
+
+        out.flip();
+        return out.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.infrastructure_service.agent;
+
+import com.example.infrastructure_service.dto.ExecuteCommandResult;
+import com.example.infrastructure_service.ssh.RemoteCommandExecutor;
+import com.example.infrastructure_service.ssh.SshChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class AgentConnectionTest {
+
+    private static final String TOKEN = "test-token";
+
+    private LocalGuestAgent agent;
+    private AgentConnection connection;
+    private final RemoteCommandExecutor executor = new RemoteCommandExecutor(32768, 32768);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        agent = new LocalGuestAgent(TOKEN);
+        connection = AgentConnection.open(agent.connect(), TOKEN, "local", 5000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connection.close();
+        agent.close();
+        executor.shutdown();
+    }
+
+    @Test
+    void runsCommandWithSeparateStreamsAndExitCode() throws Exception {
+        ExecuteCommandResult result = executor.execute(connection,
+            "printf 'xin ch\\303\\240o\\n'; echo oops >&2; exit 3", 10);
+
+        assertEquals(3, result.getExitCode());
+        assertEquals("xin chào", result.getStdout());
+        assertEquals("oops", result.getStderr());
+    }
+
+    @Test
+    void pipelinesConcurrentCommandsOnOneConnection() throws Exception {
+        List<CompletableFuture<ExecuteCommandResult>> results = new ArrayList<>();
+        ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            String command = "sleep 0.3; echo " + i;
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return executor.execute(connection, command, 10);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, callers));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(String.valueOf(i), results.get(i).get().getStdout());
+        }
+        // 8 lệnh sleep 0.3s chạy song song chứ không nối tiếp
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 2000);
+        callers.shutdown();
+    }
+
+    @Test
+    void timeoutCancelsCommandAndKeepsConnectionUsable() throws Exception {
+        IOException timeout = assertThrows(IOException.class, () -> executor.execute(connection, "sleep 30", 1));
+        assertTrue(timeout.getMessage().contains("timeout"));
+
+        assertEquals("still here", executor.execute(connection, "echo still here", 10).getStdout());
+        assertEquals(0, connection.getActiveChannelCount());
+    }
+
+    @Test
+    void rejectsWrongToken() throws IOException {
+        assertThrows(IOException.class, () -> AgentConnection.open(agent.connect(), "wrong", "local", 5000));
+    }
+
+    @Test
+    void failsOpenChannelsWhenConnectionDrops() throws Exception {
+        SshChannel channel = connection.openExec("sleep 30");
+        connection.close();
+
+        assertEquals(-1, channel.waitForExitStatus(5000));
+        assertTrue(channel.isClosed());
+        assertFalse(connection.isConnected());
+    }
+}
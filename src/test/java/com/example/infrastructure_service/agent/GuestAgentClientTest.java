@@ -0,0 +1,86 @@
+package com.example.infrastructure_service.agent;
+
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class GuestAgentClientTest {
+
+    private final AtomicInteger sockets = new AtomicInteger();
+    private LocalGuestAgent agent;
+    // thay port-forward bằng socket tới agent local (null: VM không có agent)
+    private final GuestAgentClient client = new GuestAgentClient(mock(PortForwardTunnelManager.class)) {
+        @Override
+        Socket openSocket(String namespace, String podName) throws IOException {
+            sockets.incrementAndGet();
+            if (agent == null) {
+                throw new IOException("connection refused");
+            }
+            return agent.connect();
+        }
+    };
+
+    GuestAgentClientTest() {
+        ReflectionTestUtils.setField(client, "tokenSecret", "secret");
+        ReflectionTestUtils.setField(client, "handshakeTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(client, "unavailableRetryMs", 60_000L);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.closeAll();
+        if (agent != null) {
+            agent.close();
+        }
+    }
+
+    @Test
+    void eachVmHasItsOwnToken() throws Exception {
+        agent = new LocalGuestAgent(client.tokenFor("lab", "vm-1"));
+
+        assertNotEquals(client.tokenFor("lab", "vm-1"), client.tokenFor("lab", "vm-2"));
+        client.connect("lab", "vm-1", "pod-1").close();
+        assertThrows(IOException.class, () -> client.connect("lab", "vm-2", "pod-1"));
+    }
+
+    @Test
+    void validationsOfASessionShareOneConnectionUntilItDies() throws Exception {
+        agent = new LocalGuestAgent(client.tokenFor("lab", "vm-1"));
+
+        AgentConnection first = client.sessionConnection(7, "lab", "vm-1", () -> "pod-1");
+        assertSame(first, client.sessionConnection(7, "lab", "vm-1", () -> "pod-1"));
+        assertEquals(1, sockets.get());
+
+        first.close();
+        AgentConnection second = client.sessionConnection(7, "lab", "vm-1", () -> "pod-1");
+        assertNotSame(first, second);
+        assertTrue(second.isConnected());
+
+        client.closeSession(7);
+        assertFalse(second.isConnected());
+    }
+
+    @Test
+    void sessionWithoutAgentIsNotRetriedOnEveryValidation() throws Exception {
+        assertThrows(IOException.class, () -> client.sessionConnection(7, "lab", "vm-1", () -> "pod-1"));
+        assertThrows(IOException.class, () -> client.sessionConnection(7, "lab", "vm-1", () -> "pod-1"));
+        assertEquals(1, sockets.get());
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.infrastructure_service.agent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Test double of the in-guest agent: speaks {@link AgentProtocol} on a loopback port and runs
+ * commands with the local {@code /bin/bash}, like lab-agent.py does inside the VM.
+ */
+class LocalGuestAgent implements AutoCloseable {
+
+    private final String token;
+    private final ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    LocalGuestAgent(String token) throws IOException {
+        this.token = token;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().name("local-agent-accept").start(this::acceptLoop);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    Socket connect() throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), getPort());
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().start(() -> new Session(socket).serve());
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+
+    private class Session {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final Map<Integer, Process> processes = new ConcurrentHashMap<>();
+
+        Session(Socket socket) {
+            this.socket = socket;
+            try {
+                this.out = new DataOutputStream(socket.getOutputStream());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void serve() {
+            try (socket) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                AgentProtocol.Frame hello = AgentProtocol.readFrame(in);
+                if (hello == null || hello.type() != AgentProtocol.HELLO
+                        || !token.equals(new String(hello.payload(), StandardCharsets.UTF_8))) {
+                    send(AgentProtocol.ERROR, AgentProtocol.CONTROL_STREAM, "unauthorized".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                send(AgentProtocol.HELLO, AgentProtocol.CONTROL_STREAM, AgentProtocol.intPayload(AgentProtocol.VERSION));
+
+                AgentProtocol.Frame frame;
+                while ((frame = AgentProtocol.readFrame(in)) != null) {
+                    int streamId = frame.streamId();
+                    switch (frame.type()) {
+                        case AgentProtocol.EXEC -> {
+                            String command = new String(frame.payload(), StandardCharsets.UTF_8);
+                            Thread.ofVirtual().start(() -> run(streamId, command));
+                        }
+                        case AgentProtocol.CANCEL -> kill(streamId);
+                        case AgentProtocol.PING -> send(AgentProtocol.PONG, AgentProtocol.CONTROL_STREAM, null);
+                        default -> { }
+                    }
+                }
+            } catch (IOException e) {
+                // client đã đóng kết nối
+            } finally {
+                processes.keySet().forEach(this::kill);
+            }
+        }
+
+        private void run(int streamId, String command) {
+            try {
+                Process process = new ProcessBuilder("/bin/bash", "-c", command).start();
+                processes.put(streamId, process);
+                process.getOutputStream().close();
+                Thread err = Thread.ofVirtual().start(() -> pump(process.getErrorStream(), AgentProtocol.STDERR, streamId));
+                pump(process.getInputStream(), AgentProtocol.STDOUT, streamId);
+                err.join();
+                int exitCode = process.waitFor();
+                send(AgentProtocol.EXIT, streamId, AgentProtocol.intPayload(exitCode));
+            } catch (IOException e) {
+                try {
+                    send(AgentProtocol.ERROR, streamId, e.getMessage().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ignored) {
+                    // kết nối đã đóng
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                processes.remove(streamId);
+            }
+        }
+
+        private void pump(InputStream in, byte type, int streamId) {
+            byte[] buffer = new byte[8192];
+            try (in) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    byte[] chunk = new byte[read];
+                    System.arraycopy(buffer, 0, chunk, 0, read);
+                    send(type, streamId, chunk);
+                }
+            } catch (IOException e) {
+                // process bị huỷ hoặc kết nối đã đóng
+            }
+        }
+
+        private void kill(int streamId) {
+            Process process = processes.get(streamId);
+            if (process != null) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+        }
+
+        private void send(byte type, int streamId, byte[] payload) throws IOException {
+            synchronized (out) {
+                AgentProtocol.writeFrame(out, type, streamId, payload);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.infrastructure_service.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicaOwnershipTest {
+
+    @TempDir
+    Path registryDir;
+
+    private ReplicaOwnership first;
+    private ReplicaOwnership second;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        first = new ReplicaOwnership(new FileSessionRegistry(registryDir.toString(), objectMapper),
+            "replica-a", "http://10.0.0.1:8081", 8081, 60000);
+        second = new ReplicaOwnership(new FileSessionRegistry(registryDir.toString(), objectMapper),
+            "replica-b", "http://10.0.0.2:8081", 8081, 60000);
+        first.start();
+        second.start();
+        // replica đầu tiên chỉ thấy replica kia ở lần heartbeat sau
+        first.heartbeat();
+    }
+
+    @AfterEach
+    void tearDown() {
+        first.shutdown();
+        second.shutdown();
+    }
+
+    @Test
+    void replicasAgreeOnHashOwnerAndSpreadSessions() {
+        int ownedByFirst = 0;
+        for (int labSessionId = 1; labSessionId <= 200; labSessionId++) {
+            ReplicaInfo owner = first.ownerOf(labSessionId);
+            assertEquals(owner.id(), second.ownerOf(labSessionId).id());
+            if (first.isLocal(owner)) {
+                ownedByFirst++;
+            }
+        }
+        assertTrue(ownedByFirst > 50 && ownedByFirst < 150, "unbalanced ring: " + ownedByFirst);
+    }
+
+    @Test
+    void claimedSessionIsRoutedToClaimingReplica() {
+        int labSessionId = 42;
+        ReplicaOwnership claimer = first.isLocal(labSessionId) ? second : first;
+        assertTrue(first.recordedOwner(labSessionId).isEmpty());
+        claimer.claim(labSessionId, "vm-42");
+
+        assertEquals(claimer.getReplicaId(), first.ownerOf(labSessionId).id());
+        assertEquals(claimer.getReplicaId(), first.recordedOwner(labSessionId).orElseThrow().id());
+        assertEquals(claimer.getReplicaId(), second.ownerOfVm("vm-42").orElseThrow().id());
+
+        claimer.release(labSessionId);
+        assertTrue(first.ownerOfVm("vm-42").isEmpty());
+        assertTrue(first.recordedOwner(labSessionId).isEmpty());
+    }
+
+    @Test
+    void ringMovesOnlyKeysOfRemovedNode() {
+        ConsistentHashRing three = new ConsistentHashRing(List.of("a", "b", "c"), 128);
+        ConsistentHashRing two = new ConsistentHashRing(List.of("a", "b"), 128);
+        for (int i = 0; i < 1000; i++) {
+            String key = "lab-session-" + i;
+            String before = three.nodeFor(key);
+            if (!"c".equals(before)) {
+                assertEquals(before, two.nodeFor(key));
+            }
+        }
+    }
+}
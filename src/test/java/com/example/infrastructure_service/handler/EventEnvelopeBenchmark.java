@@ -0,0 +1,81 @@
+package com.example.infrastructure_service.handler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event envelope serialization: the previous Map.of + ObjectMapper path against
+ * {@link EventEnvelopeWriter}, for a progress event (VMUserSessionService) and a plain info event.
+ * Reports time and allocation per event.
+ *
+ * Run with: mvn test -Dtest=EventEnvelopeBenchmark -Djmh.benchmark=true
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventEnvelopeBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EventEnvelopeWriter writer = new EventEnvelopeWriter(objectMapper);
+    private final Map<String, Object> progress = Map.of("currentStep", 3, "totalSteps", 8, "percentage", 37);
+
+    @Benchmark
+    public String objectMapperProgress() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(Map.of(
+            "type", "progress",
+            "message", "Waiting for VM to be ready...",
+            "data", progress,
+            "timestamp", System.currentTimeMillis()
+        ));
+    }
+
+    @Benchmark
+    public String writerProgress() throws JsonProcessingException {
+        return writer.write("progress", "Waiting for VM to be ready...", progress);
+    }
+
+    @Benchmark
+    public String objectMapperInfo() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(Map.of(
+            "type", "info",
+            "message", "Creating PVC for lab session",
+            "data", Map.of(),
+            "timestamp", System.currentTimeMillis()
+        ));
+    }
+
+    @Benchmark
+    public String writerInfo() throws JsonProcessingException {
+        return writer.write("info", "Creating PVC for lab session", null);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "jmh.benchmark", matches = "true")
+    void run() throws Exception {
+        Options options = new OptionsBuilder()
+            .include(EventEnvelopeBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build();
+        new Runner(options).run();
+    }
+}
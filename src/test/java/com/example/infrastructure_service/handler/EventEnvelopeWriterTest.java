@@ -0,0 +1,45 @@
+package com.example.infrastructure_service.handler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventEnvelopeWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EventEnvelopeWriter writer = new EventEnvelopeWriter(objectMapper);
+
+    @Test
+    void writesTheSameBytesAsTheObjectMapper() throws Exception {
+        Map<String, Object> data = new HashMap<>();
+        data.put("labSessionId", 42);
+        data.put("outputOffset", 1L << 40);
+        data.put("expiresAt", "2026-10-18T10:00:00Z");
+        data.put("missing", null);
+        data.put("done", true);
+        data.put("ratio", 0.25);
+        data.put("steps", List.of(Map.of("name", "apt \"update\"")));
+
+        assertSameAsObjectMapper("terminal_ready", "Terminal is ready!", data);
+        assertSameAsObjectMapper("info", "Đang tạo VM… 50%", null);
+        assertSameAsObjectMapper("step_output", "line1\nline2\r\n\ttab \\ \"q\" \u001b[0m \b\f \u0000 /", Map.of());
+    }
+
+    private void assertSameAsObjectMapper(String type, String message, Map<String, Object> data) throws Exception {
+        long timestamp = 1760000000123L;
+        // Map.of trước đây không giữ thứ tự key; so với đúng thứ tự mà writer ghi
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("type", type);
+        payload.put("message", message);
+        payload.put("data", data != null ? data : Map.of());
+        payload.put("timestamp", timestamp);
+
+        assertEquals(objectMapper.writeValueAsString(payload), writer.write(type, message, data, timestamp));
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.infrastructure_service.handler;
+
+import com.example.infrastructure_service.service.SshSessionCache;
+import com.example.infrastructure_service.ssh.SshChannel;
+import com.example.infrastructure_service.ssh.SshConnection;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PodLogWebSocketHandlerTest {
+
+    private final SshSessionCache sshSessionCache = mock(SshSessionCache.class);
+    private PodLogWebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        handler = new PodLogWebSocketHandler(new EventEnvelopeWriter(new ObjectMapper()), sshSessionCache, mock(TerminalProxy.class));
+        ReflectionTestUtils.setField(handler, "sendBufferLimitBytes", 1 << 20);
+        ReflectionTestUtils.setField(handler, "sendTimeLimitMs", 10_000L);
+        ReflectionTestUtils.setField(handler, "inputMaxPacketBytes", 32768);
+    }
+
+    @Test
+    void fansOutOneSerializedEventToEveryClientOfThePod() throws Exception {
+        WebSocketSession student = connect("s1", "vm-1", false);
+        WebSocketSession secondTab = connect("s2", "vm-1", false);
+        WebSocketSession instructor = connect("s3", "vm-1", true);
+        WebSocketSession otherPod = connect("s4", "vm-2", false);
+
+        handler.broadcastLogToPod("vm-1", "success", "VM is running", null);
+
+        WebSocketMessage<?> sent = received(student);
+        assertSame(sent, received(secondTab), "the event is serialized once and shared");
+        assertSame(sent, received(instructor));
+        assertTrue(((TextMessage) sent).getPayload().contains("VM is running"));
+        verify(otherPod, never()).sendMessage(any());
+    }
+
+    @Test
+    void closingOneTabKeepsTheOthersConnected() throws Exception {
+        WebSocketSession first = connect("s1", "vm-1", false);
+        WebSocketSession second = connect("s2", "vm-1", false);
+
+        when(first.isOpen()).thenReturn(false);
+        handler.afterConnectionClosed(first, CloseStatus.GOING_AWAY);
+        handler.broadcastLogToPod("vm-1", "success", "still here", null);
+
+        assertTrue(((TextMessage) received(second)).getPayload().contains("still here"));
+        assertTrue(handler.waitForConnection("vm-1", 0));
+    }
+
+    @Test
+    void viewerAloneDoesNotCountAsTheStudentConnecting() throws Exception {
+        connect("s1", "vm-1", true);
+
+        assertFalse(handler.waitForConnection("vm-1", 0));
+    }
+
+    @Test
+    void idleTerminalIsWarnedThenSuspendedAndReopensOnInput() throws Exception {
+        SshConnection ssh = mock(SshConnection.class);
+        SshChannel firstShell = shell();
+        SshChannel secondShell = shell();
+        when(ssh.isConnected()).thenReturn(true);
+        when(ssh.openShell(anyString(), anyInt(), anyInt())).thenReturn(firstShell, secondShell);
+        when(sshSessionCache.acquire("lab-session-7")).thenReturn(ssh);
+        when(sshSessionCache.get("lab-session-7")).thenReturn(ssh);
+        ReflectionTestUtils.setField(handler, "idleWarnAfterMs", 0L);
+        ReflectionTestUtils.setField(handler, "idleSuspendAfterMs", 50L);
+        WebSocketSession student = connect("s1", "vm-1", false);
+        handler.setupTerminal("vm-1", 7, null);
+
+        handler.reapIdleTerminals();
+        Thread.sleep(60);
+        handler.reapIdleTerminals();
+
+        verify(firstShell, timeout(2000)).close();
+        verify(sshSessionCache, never()).release(any());
+        assertEquals(1L, handler.getIdleReaperStats().get("suspendedNow"));
+
+        handler.handleMessage(student, new TextMessage("ls ế😀\n"));
+
+        assertEquals("ls ế😀\n", secondShell.getOutputStream().toString());
+        assertEquals(0L, handler.getIdleReaperStats().get("suspendedNow"));
+        List<String> events = payloads(student);
+        assertTrue(events.stream().anyMatch(e -> e.contains("\"terminal_idle_warning\"")));
+        assertTrue(events.stream().anyMatch(e -> e.contains("\"terminal_suspended\"")));
+        assertTrue(events.stream().anyMatch(e -> e.contains("\"terminal_resumed\"")));
+    }
+
+    private static SshChannel shell() {
+        SshChannel channel = mock(SshChannel.class);
+        when(channel.getInputStream()).thenReturn(InputStream.nullInputStream());
+        when(channel.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        return channel;
+    }
+
+    private static List<String> payloads(WebSocketSession session) throws Exception {
+        ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.captor();
+        verify(session, timeout(2000).atLeast(4)).sendMessage(captor.capture());
+        return captor.getAllValues().stream().map(m -> (String) m.getPayload()).toList();
+    }
+
+    private WebSocketSession connect(String id, String podName, boolean viewer) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        // như handshake interceptor điền sẵn
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(PodLogWebSocketHandler.POD_NAME_ATTR, podName);
+        attributes.put(PodLogWebSocketHandler.VIEWER_ATTR, viewer);
+        when(session.getId()).thenReturn(id);
+        when(session.getAttributes()).thenReturn(attributes);
+        when(session.isOpen()).thenReturn(true);
+        handler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    private static WebSocketMessage<?> received(WebSocketSession session) throws Exception {
+        ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.captor();
+        verify(session, timeout(2000)).sendMessage(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.infrastructure_service.handler;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WebSocketSendQueueTest {
+
+    private final WebSocketSession session = mock(WebSocketSession.class);
+    private final WebSocketSendQueue.Counters counters = new WebSocketSendQueue.Counters();
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    // client "chậm": mọi lần gửi chờ tới khi mở chốt
+    private final CountDownLatch slowClient = new CountDownLatch(1);
+    private final AtomicInteger concurrentSends = new AtomicInteger();
+    private final AtomicInteger maxConcurrentSends = new AtomicInteger();
+
+    WebSocketSendQueueTest() throws Exception {
+        when(session.getId()).thenReturn("s1");
+        doAnswer(invocation -> {
+            maxConcurrentSends.accumulateAndGet(concurrentSends.incrementAndGet(), Math::max);
+            slowClient.await(5, TimeUnit.SECONDS);
+            WebSocketMessage<?> message = invocation.getArgument(0);
+            sent.add((String) message.getPayload());
+            concurrentSends.decrementAndGet();
+            return null;
+        }).when(session).sendMessage(any());
+    }
+
+    @Test
+    void sendsInOrderOneAtATimeWithoutBlockingCallers() throws Exception {
+        WebSocketSendQueue queue = new WebSocketSendQueue(session, 1 << 20, 10_000, counters);
+        Thread[] callers = new Thread[4];
+        for (int t = 0; t < callers.length; t++) {
+            int id = t;
+            callers[t] = Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 50; i++) {
+                    queue.offer(new TextMessage(id + ":" + i), WebSocketSendQueue.Kind.CONTROL);
+                }
+            });
+        }
+        for (Thread caller : callers) {
+            assertTrue(caller.join(Duration.ofSeconds(2)), "offer must not wait for the client");
+        }
+        slowClient.countDown();
+        waitFor(() -> sent.size() == 200);
+
+        assertEquals(1, maxConcurrentSends.get());
+        for (int id = 0; id < callers.length; id++) {
+            String prefix = id + ":";
+            List<String> mine = sent.stream().filter(m -> m.startsWith(prefix)).toList();
+            for (int i = 0; i < mine.size(); i++) {
+                assertEquals(prefix + i, mine.get(i));
+            }
+        }
+    }
+
+    @Test
+    void dropsStaleProgressButKeepsControlEvents() throws Exception {
+        WebSocketSendQueue queue = new WebSocketSendQueue(session, 100, 10_000, counters);
+        queue.offer(new TextMessage("first"), WebSocketSendQueue.Kind.CONTROL);
+        waitFor(() -> concurrentSends.get() == 1);
+        for (int i = 0; i < 20; i++) {
+            queue.offer(new TextMessage("progress-" + i), WebSocketSendQueue.Kind.PROGRESS);
+        }
+        assertTrue(queue.offer(new TextMessage("terminal_closed"), WebSocketSendQueue.Kind.CONTROL));
+        slowClient.countDown();
+        waitFor(() -> sent.contains("terminal_closed"));
+
+        assertTrue(counters.dropped.get() > 0);
+        assertFalse(sent.contains("progress-0"), "oldest progress events are dropped first");
+        assertTrue(sent.contains("progress-19"));
+        // output của step là dữ liệu mới, không phải tiến độ cũ
+        assertEquals(WebSocketSendQueue.Kind.CONTROL, WebSocketSendQueue.Kind.forEvent("step_output"));
+    }
+
+    @Test
+    void pausesTerminalReaderThenClosesClientThatNeverCatchesUp() throws Exception {
+        WebSocketSendQueue queue = new WebSocketSendQueue(session, 100, 200, counters);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new TextMessage("0123456789"), WebSocketSendQueue.Kind.TERMINAL);
+        }
+        long start = System.nanoTime();
+        assertFalse(queue.awaitCapacity());
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        assertEquals(1, counters.readerPauses.get());
+        assertEquals(1, counters.slowCloses.get());
+        verify(session, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        slowClient.countDown();
+    }
+
+    @Test
+    void sweepClosesASocketStuckInASendEvenWithoutFurtherMessages() throws Exception {
+        WebSocketSendQueue queue = new WebSocketSendQueue(session, 1 << 20, 200, counters);
+        queue.offer(new TextMessage("last event"), WebSocketSendQueue.Kind.CONTROL);
+        waitFor(() -> concurrentSends.get() == 1);
+
+        assertEquals(0, counters.closeStuck(List.of(queue)), "a send within the limit is left alone");
+        waitFor(() -> counters.closeStuck(List.of(queue)) == 1);
+        assertEquals(0, counters.closeStuck(List.of(queue)), "a queue is closed once");
+
+        assertEquals(1, counters.slowCloses.get());
+        verify(session, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        slowClient.countDown();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.infrastructure_service.service;
+
+import com.example.infrastructure_service.dto.ExecuteCommandResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandBundleTest {
+
+    private record Result(int index, ExecuteCommandResult result, boolean timedOut) {}
+
+    private final List<Integer> started = new ArrayList<>();
+    private final List<Result> results = new ArrayList<>();
+    private final CommandBundle.Listener listener = new CommandBundle.Listener() {
+        @Override
+        public void onStart(int index) {
+            started.add(index);
+        }
+
+        @Override
+        public void onResult(int index, ExecuteCommandResult result, long elapsedMs, boolean timedOut) {
+            results.add(new Result(index, result, timedOut));
+        }
+    };
+
+    @Test
+    void readsFramesAndIgnoresLinesOutsideThem() throws Exception {
+        CommandBundle bundle = bundleOf(2);
+        String marker = marker(bundle);
+        String stdout = "motd from .bashrc\n"
+            + marker + " START 0\n"
+            + marker + " END 0 0 12 0 6 0\n"
+            + "hello\n"
+            // output của step giả marker với nonce khác: phải coi là dữ liệu
+            + marker + " START 1\n"
+            + "@@LAB_STEP_0000 END 1 0 1 0 0 0\n"
+            + marker + " END 1 2 30 0 36 4\n"
+            + "@@LAB_STEP_0000 END 1 0 1 0 0 0\nxyz\n"
+            + "oops";
+
+        bundle.parse(stream(stdout), 1024, 1024, listener);
+
+        assertEquals(List.of(0, 1), started);
+        assertEquals(2, results.size());
+        assertEquals("hello", results.get(0).result().getStdout());
+        assertEquals(2, results.get(1).result().getExitCode());
+        assertEquals("@@LAB_STEP_0000 END 1 0 1 0 0 0\nxyz", results.get(1).result().getStdout());
+        assertEquals("oops", results.get(1).result().getStderr());
+    }
+
+    @Test
+    void failsOnTruncatedOrMalformedFrames() {
+        CommandBundle bundle = bundleOf(1);
+        String marker = marker(bundle);
+
+        IOException truncated = assertThrows(IOException.class, () -> bundle.parse(
+            stream(marker + " START 0\n" + marker + " END 0 0 5 0 10 0\nhalf"), 1024, 1024, listener));
+        assertTrue(truncated.getMessage().contains("ended inside a step frame"));
+        assertTrue(results.isEmpty());
+
+        assertThrows(IOException.class, () -> bundle.parse(
+            stream(marker + " END 0 zero 5 0 0 0\n"), 1024, 1024, listener));
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void reportsSigkillAfterTheDeadlineAsTimeoutButNotAnEarlySigkill() throws Exception {
+        CommandBundle bundle = new CommandBundle(List.of(
+            // tự SIGKILL ngay: exit code 137 nhưng không phải timeout
+            new CommandBundle.Step(30, 0, true, "echo early; kill -9 $$"),
+            // bỏ qua SIGTERM nên timeout phải SIGKILL sau thời gian -k
+            new CommandBundle.Step(1, 0, true, "trap '' TERM; sleep 30")));
+
+        Process bash = new ProcessBuilder("bash", "-c", CommandBundle.COMMAND).start();
+        try (OutputStream stdin = bash.getOutputStream()) {
+            stdin.write(bundle.script());
+        }
+        bundle.parse(bash.getInputStream(), 1024, 1024, listener);
+        assertEquals(0, bash.waitFor());
+
+        assertEquals(2, results.size());
+        assertEquals(137, results.get(0).result().getExitCode());
+        assertEquals("early", results.get(0).result().getStdout());
+        assertFalse(results.get(0).timedOut());
+        assertEquals(137, results.get(1).result().getExitCode());
+        assertTrue(results.get(1).timedOut());
+    }
+
+    private static CommandBundle bundleOf(int steps) {
+        List<CommandBundle.Step> list = new ArrayList<>();
+        for (int i = 0; i < steps; i++) {
+            list.add(new CommandBundle.Step(30, 0, true, "true"));
+        }
+        return new CommandBundle(list);
+    }
+
+    private static String marker(CommandBundle bundle) {
+        return (String) ReflectionTestUtils.getField(bundle, "marker");
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
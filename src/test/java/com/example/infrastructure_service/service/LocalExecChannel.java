@@ -0,0 +1,56 @@
+package com.example.infrastructure_service.service;
+
+import com.example.infrastructure_service.ssh.SshChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test double of an exec channel: runs the command with the local {@code bash -c}, as sshd would
+ * run it in the VM.
+ */
+class LocalExecChannel implements SshChannel {
+
+    private final Process process;
+
+    LocalExecChannel(String command) throws IOException {
+        this.process = new ProcessBuilder("bash", "-c", command).start();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return process.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrStream() {
+        return process.getErrorStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return process.getOutputStream();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !process.isAlive();
+    }
+
+    @Override
+    public int getExitStatus() {
+        return process.isAlive() ? -1 : process.exitValue();
+    }
+
+    @Override
+    public int waitForExitStatus(long timeoutMs) throws InterruptedException {
+        return process.waitFor(timeoutMs, TimeUnit.MILLISECONDS) ? process.exitValue() : -1;
+    }
+
+    @Override
+    public void close() {
+        process.destroyForcibly();
+    }
+}
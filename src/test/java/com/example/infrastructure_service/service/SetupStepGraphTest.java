@@ -0,0 +1,66 @@
+package com.example.infrastructure_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SetupStepGraphTest {
+
+    @Test
+    void stepsWithoutDependenciesRunInOrderAndParallelGroupsFormOneStage() {
+        SetupStepGraph graph = SetupStepGraph.of(List.of(
+            step(1, null, null),
+            step(2, "pkgs", null),
+            step(3, "pkgs", null),
+            step(4, null, null)));
+
+        assertTrue(graph.dependenciesOf(0).isEmpty());
+        assertEquals(Set.of(0), graph.dependenciesOf(1));
+        assertEquals(Set.of(0), graph.dependenciesOf(2));
+        // step sau nhóm song song chờ cả nhóm
+        assertEquals(Set.of(1, 2), graph.dependenciesOf(3));
+        assertEquals(List.of(0, 1, 2, 3), graph.sequentialOrder());
+    }
+
+    @Test
+    void dependsOnOverridesStagesAndNamesStepsByStepOrder() {
+        SetupStepGraph graph = SetupStepGraph.of(List.of(
+            step(10, null, null),
+            step(20, null, null),
+            step(30, null, List.of(10)),
+            step(40, null, 30)));
+
+        assertEquals(Set.of(0), graph.dependenciesOf(2));
+        assertEquals(Set.of(2), graph.dependenciesOf(3));
+        assertEquals(List.of(1, 2), graph.dependentsOf(0));
+        assertEquals(List.of(0, 1, 2, 3), graph.sequentialOrder());
+    }
+
+    @Test
+    void rejectsCyclesAndUnknownSteps() {
+        IllegalArgumentException cycle = assertThrows(IllegalArgumentException.class, () -> SetupStepGraph.of(List.of(
+            step(1, null, 2),
+            step(2, null, 1))));
+        assertTrue(cycle.getMessage().contains("cycle"));
+
+        IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class, () -> SetupStepGraph.of(List.of(
+            step(1, null, null),
+            step(2, null, 7))));
+        assertTrue(unknown.getMessage().contains("unknown step 7"));
+    }
+
+    private static Map<String, Object> step(int stepOrder, String parallelGroup, Object dependsOn) {
+        Map<String, Object> step = new HashMap<>();
+        step.put("stepOrder", stepOrder);
+        step.put("parallelGroup", parallelGroup);
+        step.put("dependsOn", dependsOn);
+        return step;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.infrastructure_service.service;
+
+import com.example.infrastructure_service.agent.AgentConnection;
+import com.example.infrastructure_service.agent.GuestAgentClient;
+import com.example.infrastructure_service.dto.ValidationBatchRequest;
+import com.example.infrastructure_service.dto.ValidationBatchResponse;
+import com.example.infrastructure_service.dto.ValidationResponse;
+import com.example.infrastructure_service.kafka.ValidationResponseProducer;
+import com.example.infrastructure_service.socket.PortForwardTunnelManager;
+import com.example.infrastructure_service.ssh.RemoteCommandExecutor;
+import com.example.infrastructure_service.ssh.SshConnection;
+import com.example.infrastructure_service.ssh.SshConnector;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@EnabledOnOs(OS.LINUX)
+class ValidationServiceTest {
+
+    private final ValidationResponseProducer producer = mock(ValidationResponseProducer.class);
+    private final SshSessionCache sshSessionCache = mock(SshSessionCache.class);
+    private final GuestAgentClient agentClient = mock(GuestAgentClient.class);
+    private final RemoteCommandExecutor commandExecutor = new RemoteCommandExecutor(4096, 4096);
+    private final ValidationService service = new ValidationService(producer, mock(CoreV1Api.class),
+        mock(PortForwardTunnelManager.class), mock(SshConnector.class), commandExecutor,
+        mock(TerminalSessionService.class), sshSessionCache, agentClient, mock(ValidationShellRegistry.class));
+
+    ValidationServiceTest() {
+        ReflectionTestUtils.setField(service, "commandBackend", "ssh");
+        ReflectionTestUtils.setField(service, "batchOutputBytes", 64);
+    }
+
+    @AfterEach
+    void tearDown() {
+        commandExecutor.shutdown();
+    }
+
+    @Test
+    void sshBatchRunsAsOneBundleAndAnswersEveryQuestion() throws Exception {
+        SshConnection ssh = mock(SshConnection.class);
+        when(ssh.isConnected()).thenReturn(true);
+        when(ssh.openExec(anyString())).thenAnswer(invocation -> new LocalExecChannel(invocation.getArgument(0)));
+        when(sshSessionCache.get("lab-session-7")).thenReturn(ssh);
+
+        service.handleValidationBatchRequest(batch(
+            "echo ok",
+            // lỗi ở một câu không dừng các câu sau
+            "echo missing >&2; exit 2",
+            "yes line | head -c 100000"));
+
+        List<ValidationResponse> results = sentResults();
+        verify(ssh, times(1)).openExec(anyString());
+        assertEquals(List.of(1, 2, 3), results.stream().map(ValidationResponse::getQuestionId).toList());
+        assertTrue(results.get(0).isCorrect());
+        assertEquals("ok", results.get(0).getOutput());
+        assertFalse(results.get(1).isCorrect());
+        assertEquals("missing", results.get(1).getError());
+        assertTrue(results.get(2).isCorrect());
+        // output chỉ giữ phần đầu và phần cuối
+        assertTrue(results.get(2).getOutput().length() < 200);
+    }
+
+    @Test
+    void agentBatchRunsTheCommandsConcurrently() throws Exception {
+        ReflectionTestUtils.setField(service, "commandBackend", GuestAgentClient.BACKEND);
+        AgentConnection agent = mock(AgentConnection.class);
+        when(agentClient.sessionConnection(anyInt(), any(), any(), any())).thenReturn(agent);
+        // lệnh nào cũng chờ đủ 3 lệnh cùng mở: chạy tuần tự thì barrier hết hạn
+        CyclicBarrier allStarted = new CyclicBarrier(3);
+        when(agent.openExec(anyString())).thenAnswer(invocation -> {
+            allStarted.await(5, TimeUnit.SECONDS);
+            String command = invocation.getArgument(0);
+            if (command.equals("unreachable")) {
+                throw new IOException("agent connection closed");
+            }
+            return new LocalExecChannel(command);
+        });
+
+        service.handleValidationBatchRequest(batch("true", "unreachable", "exit 1"));
+
+        List<ValidationResponse> results = sentResults();
+        assertEquals(List.of(1, 2, 3), results.stream().map(ValidationResponse::getQuestionId).toList());
+        assertTrue(results.get(0).isCorrect());
+        assertFalse(results.get(1).isCorrect());
+        assertEquals("Validation error: agent connection closed", results.get(1).getError());
+        assertFalse(results.get(2).isCorrect());
+        assertTrue(results.get(2).getError().isEmpty());
+    }
+
+    private static ValidationBatchRequest batch(String... commands) {
+        List<ValidationBatchRequest.Item> items = new ArrayList<>();
+        for (int i = 0; i < commands.length; i++) {
+            items.add(ValidationBatchRequest.Item.builder().questionId(i + 1).validationCommand(commands[i]).build());
+        }
+        return ValidationBatchRequest.builder()
+            .labSessionId(7)
+            .vmName("vm-7")
+            .namespace("lab")
+            .validations(items)
+            .build();
+    }
+
+    private List<ValidationResponse> sentResults() {
+        ArgumentCaptor<ValidationBatchResponse> response = ArgumentCaptor.forClass(ValidationBatchResponse.class);
+        verify(producer).sendValidationBatchResponse(response.capture());
+        return response.getValue().getResults();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.infrastructure_service.ssh;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockingBytePipeTest {
+
+    @Test
+    void keepsOrderWhenWritesWrapAroundTheRing() throws Exception {
+        BlockingBytePipe pipe = new BlockingBytePipe(8);
+        pipe.sink().write(bytes(0, 6));
+        assertArrayEquals(bytes(0, 4), read(pipe.source(), 4));
+        // 6 byte tiếp theo quay vòng về đầu buffer
+        pipe.sink().write(bytes(6, 6));
+        assertArrayEquals(bytes(4, 8), read(pipe.source(), 8));
+    }
+
+    @Test
+    void growsUpToMaxCapacityWithoutBlockingTheWriter() throws Exception {
+        BlockingBytePipe pipe = new BlockingBytePipe(1 << 16);
+        pipe.sink().write(bytes(0, 1000));
+        assertArrayEquals(bytes(0, 600), read(pipe.source(), 600));
+        // ring đang lệch khi phải lớn lên: dữ liệu cũ được trải lại theo thứ tự
+        pipe.sink().write(bytes(1000, 5000));
+        assertEquals(5400, pipe.source().available());
+        assertArrayEquals(bytes(600, 5400), read(pipe.source(), 5400));
+    }
+
+    @Test
+    void blocksTheWriterAtMaxCapacityUntilTheReaderCatchesUp() throws Exception {
+        BlockingBytePipe pipe = new BlockingBytePipe(16);
+        Thread writer = Thread.ofVirtual().start(() -> {
+            try {
+                pipe.sink().write(bytes(0, 40));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waitFor(() -> buffered(pipe) == 16);
+        assertTrue(writer.isAlive(), "the writer waits while the pipe is full");
+
+        assertArrayEquals(bytes(0, 40), read(pipe.source(), 40));
+        assertTrue(writer.join(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void readerSeesBufferedBytesThenEndOfStreamAfterWriterCloses() throws Exception {
+        BlockingBytePipe pipe = new BlockingBytePipe(64);
+        pipe.sink().write(bytes(0, 3));
+        pipe.sink().close();
+
+        assertArrayEquals(bytes(0, 3), read(pipe.source(), 3));
+        assertEquals(-1, pipe.source().read());
+        assertThrows(IOException.class, () -> pipe.sink().write(1));
+    }
+
+    @Test
+    void closingTheReaderFailsABlockedWriterAndEndsTheStream() throws Exception {
+        BlockingBytePipe pipe = new BlockingBytePipe(8);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread writer = Thread.ofVirtual().start(() -> {
+            try {
+                pipe.sink().write(bytes(0, 20));
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        waitFor(() -> buffered(pipe) == 8);
+
+        pipe.source().close();
+        assertTrue(writer.join(Duration.ofSeconds(5)));
+        assertEquals("Pipe closed by reader", failure.get().getMessage());
+        assertEquals(-1, pipe.source().read());
+    }
+
+    /** {@code length} bytes counting up from {@code start}, so any reordering shows. */
+    private static byte[] bytes(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (start + i);
+        }
+        return bytes;
+    }
+
+    private static byte[] read(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        assertEquals(length, bytes.length);
+        return bytes;
+    }
+
+    private static int buffered(BlockingBytePipe pipe) {
+        try {
+            return pipe.source().available();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.infrastructure_service.ssh;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HeadTailCaptureTest {
+
+    @Test
+    void keepsEverythingThatFits() {
+        HeadTailCapture capture = new HeadTailCapture(8, 8);
+        write(capture, "hello ");
+        write(capture, "world");
+
+        assertEquals("hello world", capture.toText());
+        assertEquals(0, capture.getDroppedBytes());
+    }
+
+    @Test
+    void keepsHeadAndTailAcrossSmallWritesThatWrapTheTail() {
+        HeadTailCapture capture = new HeadTailCapture(4, 6);
+        String text = "0123456789abcdefghijklmnopqrstuvwxyz";
+        // ghi từng 3 byte để ring buffer của tail quay vòng nhiều lần
+        for (int i = 0; i < text.length(); i += 3) {
+            write(capture, text.substring(i, Math.min(i + 3, text.length())));
+        }
+
+        assertEquals(36, capture.getTotalBytes());
+        assertEquals(26, capture.getDroppedBytes());
+        assertEquals("0123\n[... 26 bytes omitted ...]\nuvwxyz", capture.toText());
+    }
+
+    @Test
+    void oneLargeWriteKeepsOnlyItsLastBytesInTheTail() {
+        HeadTailCapture capture = new HeadTailCapture(3, 4);
+        write(capture, "ab");
+        write(capture, "cdefghijklmn");
+
+        assertEquals("abc\n[... 7 bytes omitted ...]\nklmn", capture.toText());
+    }
+
+    @Test
+    void cutsHeadAndTailBackToWholeCharacters() {
+        // "ế" là 3 byte: head 4 byte cắt ngang ký tự thứ hai, tail 4 byte bắt đầu giữa một ký tự
+        HeadTailCapture capture = new HeadTailCapture(4, 4);
+        write(capture, "ếếếếế");
+
+        assertEquals(7, capture.getDroppedBytes());
+        assertEquals("ế\n[... 9 bytes omitted ...]\nế", capture.toText());
+    }
+
+    private static void write(HeadTailCapture capture, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        capture.write(bytes, 0, bytes.length);
+    }
+}
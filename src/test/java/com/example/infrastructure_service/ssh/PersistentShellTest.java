@@ -0,0 +1,71 @@
+package com.example.infrastructure_service.ssh;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PersistentShellTest {
+
+    private static final String MARKER = "@@LAB_SHELL_0123456789abcdef";
+
+    @Test
+    void splitsOutputIntoFramesEvenWhenTheSentinelIsSplitAcrossReads() throws Exception {
+        String stream = "hello\n"
+            + MARKER + " 1 0\n"
+            // output không kết thúc bằng newline, sentinel nằm sau \n do shell in thêm
+            + "no newline\n"
+            + MARKER + " 2 3\n"
+            // giống phần đầu marker rồi lệch, hoặc marker không ở đầu dòng: vẫn là output
+            + "@@LAB_SHELL_0123 not a sentinel\n"
+            + "echo " + MARKER + " 9 9\n"
+            + MARKER + " 3 0\n";
+        PersistentShell.SentinelReader reader = reader(stream, 3);
+        reader.run();
+
+        assertFrame(reader.await(deadline()), 1, 0, "hello");
+        assertFrame(reader.await(deadline()), 2, 3, "no newline");
+        assertFrame(reader.await(deadline()), 3, 0, "@@LAB_SHELL_0123 not a sentinel\necho " + MARKER + " 9 9");
+        assertThrows(PersistentShell.BrokenShellException.class, () -> reader.await(deadline()));
+    }
+
+    @Test
+    void stderrSentinelHasNoExitCodeAndGarbledOneIsReported() throws Exception {
+        PersistentShell.SentinelReader reader = reader("warning\n" + MARKER + " 4\n" + MARKER + " x\n", 1);
+        reader.run();
+
+        PersistentShell.Frame err = reader.await(deadline());
+        assertEquals(4, err.sequence());
+        assertNull(err.exitCode());
+        assertEquals("warning", err.output().toText().trim());
+        assertEquals(-1, reader.await(deadline()).sequence());
+    }
+
+    private static void assertFrame(PersistentShell.Frame frame, long sequence, int exitCode, String output) {
+        assertEquals(sequence, frame.sequence());
+        assertEquals(exitCode, frame.exitCode());
+        assertEquals(output, frame.output().toText().trim());
+    }
+
+    private static long deadline() {
+        return System.currentTimeMillis() + 1000;
+    }
+
+    /** Reader over {@code text}, which the channel delivers at most {@code chunkBytes} per read. */
+    private static PersistentShell.SentinelReader reader(String text, int chunkBytes) {
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, chunkBytes));
+            }
+        };
+        return new PersistentShell.SentinelReader(in, MARKER.getBytes(StandardCharsets.US_ASCII), 4096, 4096);
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.infrastructure_service.ssh;
+
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.cipher.Cipher;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.ServerBuilder;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Handshake latency and bulk throughput of both SSH engines against an in-process sshd.
+ * Both engines go through a socket opener, the same path used for port-forward tunnels.
+ *
+ * Run with: mvn test -Dtest=SshTransportBenchmark -Dssh.benchmark=true
+ */
+@EnabledIfSystemProperty(named = "ssh.benchmark", matches = "true")
+class SshTransportBenchmark {
+
+    private static final String USER = "bench";
+    private static final String PASSWORD = "bench";
+    private static final int HANDSHAKE_WARMUP = 5;
+    private static final int HANDSHAKE_ROUNDS = 30;
+    private static final long BULK_BYTES = 64L * 1024 * 1024;
+    private static final int BULK_ROUNDS = 3;
+
+    private static SshServer server;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPasswordAuthenticator((username, password, session) ->
+            USER.equals(username) && PASSWORD.equals(password));
+        // Server offers the modern algorithms plus ecdh-sha2-nistp256, the best one JSch 0.1.55 knows
+        server.setKeyExchangeFactories(NamedFactory.setUpTransformedFactories(false, List.of(
+            BuiltinDHFactories.curve25519,
+            BuiltinDHFactories.curve25519_libssh,
+            BuiltinDHFactories.ecdhp256,
+            BuiltinDHFactories.dhg14_256
+        ), ServerBuilder.DH2KEX));
+        List<NamedFactory<Cipher>> ciphers = new ArrayList<>(NamedFactory.setUpBuiltinFactories(false, List.of(
+            BuiltinCiphers.cc20p1305_openssh,
+            BuiltinCiphers.aes128gcm,
+            BuiltinCiphers.aes256gcm,
+            BuiltinCiphers.aes128ctr,
+            BuiltinCiphers.aes256ctr
+        )));
+        server.setCipherFactories(ciphers);
+        server.setCommandFactory((channel, command) -> new BulkCommand(command));
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() throws IOException {
+        if (server != null) {
+            server.stop(true);
+        }
+    }
+
+    @Test
+    void compareEngines() throws Exception {
+        MinaSshTransport mina = new MinaSshTransport();
+        try {
+            List<SshTransport> engines = List.of(new JschSshTransport(), mina);
+            System.out.printf("%n%-6s %12s %12s %12s %14s%n", "engine", "hs avg ms", "hs p50 ms", "hs p95 ms", "bulk MB/s");
+            for (SshTransport engine : engines) {
+                long[] handshakes = measureHandshakes(engine);
+                double throughput = measureThroughput(engine);
+                System.out.printf("%-6s %12.2f %12.2f %12.2f %14.1f%n",
+                    engine.getEngine(),
+                    Arrays.stream(handshakes).average().orElse(0) / 1e6,
+                    percentile(handshakes, 50) / 1e6,
+                    percentile(handshakes, 95) / 1e6,
+                    throughput);
+            }
+        } finally {
+            mina.stop();
+        }
+    }
+
+    private long[] measureHandshakes(SshTransport engine) throws IOException {
+        for (int i = 0; i < HANDSHAKE_WARMUP; i++) {
+            engine.connect(target(), 10000).close();
+        }
+        long[] samples = new long[HANDSHAKE_ROUNDS];
+        for (int i = 0; i < HANDSHAKE_ROUNDS; i++) {
+            long start = System.nanoTime();
+            SshConnection connection = engine.connect(target(), 10000);
+            samples[i] = System.nanoTime() - start;
+            connection.close();
+        }
+        return samples;
+    }
+
+    private double measureThroughput(SshTransport engine) throws IOException {
+        double best = 0;
+        try (SshConnection connection = engine.connect(target(), 10000)) {
+            byte[] buffer = new byte[32 * 1024];
+            for (int round = 0; round < BULK_ROUNDS; round++) {
+                long start = System.nanoTime();
+                SshChannel channel = connection.openExec("bulk " + BULK_BYTES);
+                long received = 0;
+                try (InputStream in = channel.getInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        received += read;
+                    }
+                } finally {
+                    channel.close();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (received != BULK_BYTES) {
+                    throw new IllegalStateException("Expected " + BULK_BYTES + " bytes but got " + received);
+                }
+                best = Math.max(best, received / (1024.0 * 1024.0) / seconds);
+            }
+        }
+        return best;
+    }
+
+    private static SshTarget target() {
+        int port = server.getPort();
+        return SshTarget.builder()
+            .host("127.0.0.1")
+            .port(port)
+            .username(USER)
+            .password(PASSWORD)
+            .socketOpener(() -> new Socket("127.0.0.1", port))
+            .label("bench")
+            .build();
+    }
+
+    private static double percentile(long[] samples, int percentile) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * "bulk N" writes N bytes to stdout, anything else exits immediately.
+     */
+    private static class BulkCommand implements Command {
+        private final String command;
+        private OutputStream out;
+        private ExitCallback callback;
+
+        BulkCommand(String command) {
+            this.command = command;
+        }
+
+        @Override
+        public void setInputStream(InputStream in) {
+        }
+
+        @Override
+        public void setOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void setErrorStream(OutputStream err) {
+        }
+
+        @Override
+        public void setExitCallback(ExitCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void start(ChannelSession channel, Environment env) {
+            Thread writer = new Thread(() -> {
+                try {
+                    long remaining = command.startsWith("bulk ") ? Long.parseLong(command.substring(5).trim()) : 0;
+                    byte[] chunk = new byte[32 * 1024];
+                    Arrays.fill(chunk, (byte) 'x');
+                    while (remaining > 0) {
+                        int n = (int) Math.min(chunk.length, remaining);
+                        out.write(chunk, 0, n);
+                        remaining -= n;
+                    }
+                    out.flush();
+                    callback.onExit(0);
+                } catch (IOException e) {
+                    callback.onExit(1, e.getMessage());
+                }
+            }, "bench-bulk");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        @Override
+        public void destroy(ChannelSession channel) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.infrastructure_service.ssh;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TerminalInputCoalescerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // mỗi flush của channel là một gói SSH
+    private final AtomicInteger packets = new AtomicInteger();
+    private final ByteArrayOutputStream channel = new ByteArrayOutputStream() {
+        @Override
+        public void flush() {
+            packets.incrementAndGet();
+        }
+    };
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void sendsALoneKeystrokeAtOnceAndMergesABurst() throws Exception {
+        TerminalInputCoalescer coalescer = new TerminalInputCoalescer(scheduler, 50_000, 32768, channel);
+        coalescer.write("l");
+        assertEquals(1, packets.get(), "a keystroke after a quiet period is not delayed");
+
+        String paste = "s -la /var/log/ thế giới 👋\r";
+        // mỗi ký tự một message, như client gửi từng phím
+        for (int i = 0; i < paste.length(); i = paste.offsetByCodePoints(i, 1)) {
+            coalescer.write(paste.subSequence(i, paste.offsetByCodePoints(i, 1)));
+        }
+        assertEquals(1, packets.get());
+        waitFor(() -> packets.get() == 2);
+
+        assertEquals("l" + paste, channel.toString(StandardCharsets.UTF_8));
+        assertEquals(2L, coalescer.getStats().get("packets"));
+        assertTrue((double) coalescer.getStats().get("packetsPerWrite") < 0.1);
+    }
+
+    @Test
+    void ctrlCFlushesWhatIsHeldImmediately() throws Exception {
+        TerminalInputCoalescer coalescer = new TerminalInputCoalescer(scheduler, 10_000_000, 32768, channel);
+        coalescer.write("y");
+        coalescer.write("es");
+        ByteBuffer ctrlC = ByteBuffer.allocateDirect(1).put((byte) 0x03).flip();
+        coalescer.write(ctrlC);
+
+        assertEquals(2, packets.get());
+        assertEquals("yes\u0003", channel.toString(StandardCharsets.UTF_8));
+        assertEquals(1L, coalescer.getStats().get("urgentFlushes"));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
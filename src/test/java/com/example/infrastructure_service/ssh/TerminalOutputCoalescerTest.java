@@ -0,0 +1,83 @@
+package com.example.infrastructure_service.ssh;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TerminalOutputCoalescerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> frames = new CopyOnWriteArrayList<>();
+    // mỗi frame được decode riêng, như khi gửi cho client dùng text frame
+    private final TerminalOutputCoalescer.FrameSink sink =
+        (frame, offset, length) -> frames.add(new String(frame, offset, length, StandardCharsets.UTF_8));
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void keepsMultiByteCharactersSplitAcrossReads() {
+        TerminalOutputCoalescer coalescer = new TerminalOutputCoalescer(scheduler, 1000, 16384, sink);
+        byte[] text = "xin chào thế giới 👋".getBytes(StandardCharsets.UTF_8);
+        // mỗi lần đọc 1 byte, ký tự nhiều byte luôn bị cắt ngang
+        for (int i = 0; i < text.length; i++) {
+            coalescer.onOutput(text, i, 1);
+        }
+        coalescer.onClosed();
+
+        String received = String.join("", frames);
+        assertEquals("xin chào thế giới 👋", received);
+        assertFalse(received.contains("�"));
+    }
+
+    @Test
+    void sendsFirstOutputAtOnceAndMergesTheBurst() throws Exception {
+        TerminalOutputCoalescer coalescer = new TerminalOutputCoalescer(scheduler, 50, 16384, sink);
+        byte[] line = "line\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        coalescer.onOutput(line, 0, line.length);
+        assertEquals(1, frames.size(), "echo after a quiet period must not wait for the window");
+
+        for (int i = 0; i < 999; i++) {
+            coalescer.onOutput(line, 0, line.length);
+        }
+        assertEquals(1, frames.size());
+        waitFor(() -> frames.size() == 2);
+
+        assertEquals(999 * line.length, frames.get(1).length());
+        assertEquals(998L, coalescer.getStats().get("framesSaved"));
+    }
+
+    @Test
+    void cutsFramesAtMaxSizeWithoutBreakingCharacters() {
+        TerminalOutputCoalescer coalescer = new TerminalOutputCoalescer(scheduler, 1000, 64, sink);
+        String text = "ế".repeat(100);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        coalescer.onOutput(bytes, 0, 1);
+        coalescer.onOutput(bytes, 1, bytes.length - 1);
+        coalescer.onClosed();
+
+        assertEquals(text, String.join("", frames));
+        assertTrue(frames.stream().allMatch(frame -> frame.getBytes(StandardCharsets.UTF_8).length <= 64));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
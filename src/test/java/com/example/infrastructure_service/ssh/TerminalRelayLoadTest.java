@@ -0,0 +1,314 @@
+package com.example.infrastructure_service.ssh;
+
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.cipher.Cipher;
+import org.apache.sshd.common.io.IoInputStream;
+import org.apache.sshd.common.io.IoOutputStream;
+import org.apache.sshd.common.io.IoReadFuture;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.ServerBuilder;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.AsyncCommand;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Holds many terminals open at once, each a pty shell on its own SSH connection to an in-process
+ * sshd and relayed by {@link TerminalRelay}, then types into every one and waits for the echo.
+ * The sshd's shell is asynchronous, so server-side threads stay constant and the thread count
+ * reflects the client. Prints threads and heap per terminal (heap includes the server side).
+ *
+ * Runs 100 terminals per engine by default; for the full figure:
+ * mvn test -Dtest=TerminalRelayLoadTest -Dterminal.load=true -Dterminal.load.count=2000
+ */
+@EnabledIfSystemProperty(named = "terminal.load", matches = "true")
+class TerminalRelayLoadTest {
+
+    private static final String USER = "load";
+    private static final String PASSWORD = "load";
+    private static final int TERMINALS = Integer.getInteger("terminal.load.count", 100);
+    private static final int CONNECT_PARALLELISM = 16;
+    private static final String PROMPT = "$ ";
+
+    private static SshServer server;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPasswordAuthenticator((username, password, session) ->
+            USER.equals(username) && PASSWORD.equals(password));
+        // JSch 0.1.55 không biết curve25519 và aes-gcm: dùng ecdh-sha2-nistp256 và aes-ctr
+        server.setKeyExchangeFactories(NamedFactory.setUpTransformedFactories(false, List.of(
+            BuiltinDHFactories.curve25519,
+            BuiltinDHFactories.ecdhp256,
+            BuiltinDHFactories.dhg14_256
+        ), ServerBuilder.DH2KEX));
+        List<NamedFactory<Cipher>> ciphers = new ArrayList<>(NamedFactory.setUpBuiltinFactories(false, List.of(
+            BuiltinCiphers.aes128gcm,
+            BuiltinCiphers.aes128ctr
+        )));
+        server.setCipherFactories(ciphers);
+        server.setShellFactory(channel -> new EchoShell());
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() throws IOException {
+        if (server != null) {
+            server.stop(true);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {JschSshTransport.ENGINE, MinaSshTransport.ENGINE})
+    void holdsTerminalsOpen(String engine) throws Exception {
+        SshTransport transport = JschSshTransport.ENGINE.equals(engine) ? new JschSshTransport() : new MinaSshTransport();
+        List<Terminal> terminals = new ArrayList<>();
+        try {
+            int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heapBefore = usedHeapAfterGc();
+            long rssBefore = residentBytes();
+
+            ExecutorService connectors = Executors.newFixedThreadPool(CONNECT_PARALLELISM);
+            List<Future<Terminal>> opening = new ArrayList<>();
+            for (int i = 0; i < TERMINALS; i++) {
+                String name = engine + "-" + i;
+                opening.add(connectors.submit(() -> Terminal.open(transport, name)));
+            }
+            for (Future<Terminal> future : opening) {
+                terminals.add(future.get(60, TimeUnit.SECONDS));
+            }
+            connectors.shutdown();
+            for (Terminal terminal : terminals) {
+                assertTrue(terminal.awaitOutput(PROMPT.length(), 30), "no prompt on " + terminal.name);
+            }
+
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            long heap = usedHeapAfterGc() - heapBefore;
+            long rss = residentBytes() - rssBefore;
+
+            for (Terminal terminal : terminals) {
+                terminal.type("x");
+            }
+            for (Terminal terminal : terminals) {
+                assertTrue(terminal.awaitOutput(PROMPT.length() + 1, 30), "no echo on " + terminal.name);
+            }
+
+            System.out.printf("%n%-6s terminals=%d platform threads +%d (%.2f per terminal), heap +%.1f KB, RSS +%.1f KB per terminal%n",
+                engine, TERMINALS, threads, threads / (double) TERMINALS,
+                heap / 1024.0 / TERMINALS, rss / 1024.0 / TERMINALS);
+        } finally {
+            terminals.forEach(Terminal::close);
+            if (transport instanceof MinaSshTransport mina) {
+                mina.stop();
+            }
+        }
+        for (Terminal terminal : terminals) {
+            assertTrue(terminal.awaitClosed(10), "relay still running for " + terminal.name);
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Resident set size from /proc (Linux); 0 elsewhere. Covers thread stacks, which the heap does not. */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // không phải Linux
+        }
+        return 0;
+    }
+
+    private static SshTarget target() {
+        return SshTarget.builder()
+            .host("127.0.0.1")
+            .port(server.getPort())
+            .username(USER)
+            .password(PASSWORD)
+            .label("load")
+            .build();
+    }
+
+    private static final class Terminal implements TerminalRelay.Sink {
+        private final String name;
+        private final AtomicInteger received = new AtomicInteger();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private SshConnection connection;
+        private SshChannel channel;
+        private TerminalRelay relay;
+
+        private Terminal(String name) {
+            this.name = name;
+        }
+
+        static Terminal open(SshTransport transport, String name) throws IOException {
+            Terminal terminal = new Terminal(name);
+            terminal.connection = transport.connect(target(), 30000);
+            terminal.channel = terminal.connection.openShell("xterm", 80, 24);
+            terminal.relay = TerminalRelay.start(name, terminal.channel, terminal);
+            return terminal;
+        }
+
+        @Override
+        public void onOutput(byte[] buffer, int offset, int length) {
+            synchronized (received) {
+                received.addAndGet(length);
+                received.notifyAll();
+            }
+        }
+
+        @Override
+        public void onClosed() {
+            closed.countDown();
+        }
+
+        void type(String keys) throws IOException {
+            OutputStream out = channel.getOutputStream();
+            out.write(keys.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        boolean awaitOutput(int bytes, int timeoutSeconds) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutSeconds * 1000L;
+            synchronized (received) {
+                while (received.get() < bytes) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    received.wait(remaining);
+                }
+            }
+            return true;
+        }
+
+        boolean awaitClosed(int timeoutSeconds) throws InterruptedException {
+            return closed.await(timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        void close() {
+            if (relay != null) {
+                relay.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Prints a prompt and echoes every keystroke, driven by the server's NIO callbacks
+     * instead of a thread per shell.
+     */
+    private static final class EchoShell implements AsyncCommand {
+        private IoInputStream in;
+        private IoOutputStream out;
+        private ExitCallback callback;
+
+        @Override
+        public void setIoInputStream(IoInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public void setIoOutputStream(IoOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void setIoErrorStream(IoOutputStream err) {
+        }
+
+        @Override
+        public void setInputStream(InputStream in) {
+        }
+
+        @Override
+        public void setOutputStream(OutputStream out) {
+        }
+
+        @Override
+        public void setErrorStream(OutputStream err) {
+        }
+
+        @Override
+        public void setExitCallback(ExitCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void start(ChannelSession channel, Environment env) throws IOException {
+            out.writeBuffer(new ByteArrayBuffer(PROMPT.getBytes(StandardCharsets.US_ASCII)))
+                .addListener(written -> readNext());
+        }
+
+        private void readNext() {
+            in.read(new ByteArrayBuffer(256)).addListener(this::echo);
+        }
+
+        private void echo(IoReadFuture future) {
+            if (future.getException() != null) {
+                callback.onExit(0);
+                return;
+            }
+            Buffer buffer = future.getBuffer();
+            byte[] bytes = new byte[buffer.available()];
+            buffer.getRawBytes(bytes);
+            try {
+                out.writeBuffer(new ByteArrayBuffer(bytes)).addListener(written -> readNext());
+            } catch (IOException e) {
+                callback.onExit(1);
+            }
+        }
+
+        @Override
+        public void destroy(ChannelSession channel) {
+        }
+    }
+}
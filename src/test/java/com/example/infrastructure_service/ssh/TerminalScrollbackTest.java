@@ -0,0 +1,56 @@
+package com.example.infrastructure_service.ssh;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TerminalScrollbackTest {
+
+    @Test
+    void replaysOnlyWhatTheClientMissed() {
+        TerminalScrollback scrollback = new TerminalScrollback(4096);
+        append(scrollback, "$ ls\r\n");
+        long seen = scrollback.end();
+        append(scrollback, "a.txt b.txt\r\n$ ");
+
+        assertEquals("a.txt b.txt\r\n$ ", text(scrollback.since(seen)));
+        assertEquals("$ ls\r\na.txt b.txt\r\n$ ", text(scrollback.since(-1)));
+        assertEquals("", text(scrollback.since(scrollback.end())));
+    }
+
+    @Test
+    void keepsTheLastBytesAndStartsAtALineWhenWrapped() {
+        TerminalScrollback scrollback = new TerminalScrollback(2048);
+        StringBuilder all = new StringBuilder();
+        // nhiều lần ghi nhỏ: ring phải lớn dần rồi quay vòng
+        for (int i = 0; i < 500; i++) {
+            String line = "line " + i + " ếếế\r\n";
+            all.append(line);
+            append(scrollback, line);
+        }
+        byte[] allBytes = all.toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals(allBytes.length, scrollback.end());
+
+        String replay = text(scrollback.since(0));
+        String tail = text(Arrays.copyOfRange(allBytes, allBytes.length - 2048, allBytes.length));
+        assertEquals(tail.substring(tail.indexOf('\n') + 1), replay);
+        assertEquals("line 499 ếếế\r\n", replay.substring(replay.lastIndexOf("line 499")));
+
+        // vẫn còn trong ring: trả đúng phần sau offset, không cắt dòng
+        long recent = scrollback.end() - 100;
+        assertEquals(text(Arrays.copyOfRange(allBytes, allBytes.length - 100, allBytes.length)),
+            text(scrollback.since(recent)));
+    }
+
+    private static void append(TerminalScrollback scrollback, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        scrollback.append(bytes, 0, bytes.length);
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}